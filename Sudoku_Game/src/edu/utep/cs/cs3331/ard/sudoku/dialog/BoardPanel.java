@@ -5,6 +5,7 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
@@ -13,6 +14,7 @@ import javax.swing.JPanel;
 import edu.utep.cs.cs3331.ard.sudoku.model.Board;
 import edu.utep.cs.cs3331.ard.sudoku.model.Cell;
 import edu.utep.cs.cs3331.ard.sudoku.model.Cell.State;
+import edu.utep.cs.cs3331.ard.sudoku.model.ConstraintSet;
 
 /**
  * A special panel class to display a Sudoku board modeled by the
@@ -21,7 +23,7 @@ import edu.utep.cs.cs3331.ard.sudoku.model.Cell.State;
  * @author		Anthony DesArmier
  * @author 		Trevor McCarthy
  * @author		Yoonsik Cheon
- * @version     1.3
+ * @version     1.5
  */
 @SuppressWarnings("serial")
 public class BoardPanel extends JPanel {
@@ -46,11 +48,25 @@ public class BoardPanel extends JPanel {
 	private static final Color SELECT_COLOR = Color.PINK;
 	/** Completed board color. */
 	private static final Color WIN_COLOR = new Color(144,238,144); // Light green
+	/** Variant house (diagonal or hyper box) square color. */
+	private static final Color VARIANT_COLOR = new Color(235, 205, 125);
 	/** Font of the board text. */
 	private static final Font BOARD_NUMBER = new Font("Monospaced", Font.BOLD, 14);
+	/** Font of the killer cage sums. */
+	private static final Font CAGE_SUM = new Font("Monospaced", Font.PLAIN, 9);
+	/** Color of the candidate notes. */
+	private static final Color NOTE_COLOR = new Color(90, 90, 90);
+	/** Smallest note slot, in pixels, that is still drawn. */
+	private static final int MIN_NOTE_SIZE = 6;
 
     /** Board to be displayed. */
     private Board board;
+    /** Labels of the note values, indexed by value. */
+    private String[] noteLabels = new String[0];
+    /** Font of the candidate notes, sized to {@link #noteSlot}. */
+    private Font noteFont;
+    /** Note slot size {@link #noteFont} was derived for. */
+    private int noteSlot;
     /** Width and height of a square in pixels. */
     private int squareSize;
     private int[] pointingCell;
@@ -58,10 +74,8 @@ public class BoardPanel extends JPanel {
 	/** Create a new board panel to display the given board. */
     public BoardPanel(Board board, ClickListener listener) {
         this.board = board;
-        if(board.getSize()==4)
-        	setPreferredSize(new Dimension (268, 268));
-        else if(board.getSize()==9)
-        	setPreferredSize(new Dimension (270, 270));
+        int side = preferredSide(board.getSize());
+        setPreferredSize(new Dimension (side, side));
         pointingCell = new int[] {-1, -1};
         MouseAdapter mouse = new MouseAdapter() {
             @Override
@@ -94,6 +108,19 @@ public class BoardPanel extends JPanel {
         addMouseMotionListener(mouse);
     }
 
+	/**
+	 * Determines the preferred width and height of a board panel.
+	 * @param size size of the board.
+	 * @return preferred side length in pixels.
+	 */
+	private static int preferredSide(int size) {
+		if(size==4)
+			return 268;
+		if(size<=9)
+			return 270;
+		return size * (size<=25 ? 22 : 20); // leave room for two digit numbers
+	}
+
 	/**
 	 * Getter for {@link #squareSize}.
 	 * @return {@link #squareSize}
@@ -147,6 +174,15 @@ public class BoardPanel extends JPanel {
         	g.setColor(BOARD_COLOR);
         g.fillRect(0, 0, squareSize * board.getSize(), squareSize * board.getSize());
         
+        ConstraintSet constraints = board.getConstraints();
+        int[][] houses = constraints.getHouses();
+        ConstraintSet.Kind[] kinds = constraints.getKinds();
+        g.setColor(VARIANT_COLOR); // shade variant houses
+        for(int h=0; h<houses.length; h++)
+        	if(kinds[h]==ConstraintSet.Kind.DIAGONAL || kinds[h]==ConstraintSet.Kind.HYPER)
+        		for(int i : houses[h])
+        			g.fillRect((i/board.getSize())*squareSize, (i%board.getSize())*squareSize, squareSize, squareSize);
+        
         // fill board squares
         int[] lastIndex = board.getLastSelected();
         if(lastIndex[0]!=-1) {
@@ -174,15 +210,19 @@ public class BoardPanel extends JPanel {
         
         g.setColor(Color.LIGHT_GRAY); // draw the grid
         int size = board.getSize();
-        int subGrid = board.getCellDim();
         for(int i = 0; i<size-1; i++) {
         	g.drawLine(squareSize*(i+1), 0, squareSize*(i+1), squareSize*size); // columns
         	g.drawLine(0, squareSize*(i+1), squareSize*size, squareSize*(i+1)); // rows
         }
-        g.setColor(Color.BLACK);
-        for(int i=subGrid-1; i<size-1; i+=subGrid) {
-    		g.drawLine(squareSize*(i+1), 0, squareSize*(i+1), squareSize*size); // columns
-    		g.drawLine(0, squareSize*(i+1), squareSize*size, squareSize*(i+1)); // rows
+        g.setColor(Color.BLACK); // draw region borders wherever neighbouring cells differ
+        int[] regions = constraints.getRegions();
+        for(int i=0; i<size; i++) {
+        	for(int j=0; j<size; j++) {
+        		if(i<size-1 && regions[i*size+j]!=regions[(i+1)*size+j])
+        			g.drawLine(squareSize*(i+1), squareSize*j, squareSize*(i+1), squareSize*(j+1));
+        		if(j<size-1 && regions[i*size+j]!=regions[i*size+j+1])
+        			g.drawLine(squareSize*i, squareSize*(j+1), squareSize*(i+1), squareSize*(j+1));
+        	}
         }
         
         if(!(pointingCell[0] < 0 || pointingCell[1] < 0)) {
@@ -196,18 +236,81 @@ public class BoardPanel extends JPanel {
 	    g.setColor(Color.BLACK); // fill in numbers  
         g.setFont(BOARD_NUMBER);
         FontMetrics metrics = g.getFontMetrics(BOARD_NUMBER);
-        int width = metrics.stringWidth("0")/2;
         int height = metrics.getDescent();
         int value;
+        String text;
         for(int i=0; i<board.getSize(); i++) {
         	for(int j=0; j<board.getSize(); j++) {
         		value = board.getValue(i, j);
-        		if(value!=0)
-        			g.drawString(String.valueOf(value), (i+1)*(squareSize)-squareSize/2-width, (j+1)*(squareSize)-squareSize/2+height);
+        		if(value!=0) {
+        			text = String.valueOf(value);
+        			g.drawString(text, (i+1)*(squareSize)-squareSize/2-metrics.stringWidth(text)/2, (j+1)*(squareSize)-squareSize/2+height);
+        		}
+        	}
+        }
+        paintNotes(g);
+        
+        if(constraints.hasSums()) { // label each killer cage in its top-left cell
+        	int[] sums = constraints.getSums();
+        	g.setFont(CAGE_SUM);
+        	int ascent = g.getFontMetrics(CAGE_SUM).getAscent();
+        	for(int h=0; h<houses.length; h++) {
+        		if(sums[h]==0)
+        			continue;
+        		int first = houses[h][0];
+        		for(int i : houses[h])
+        			if(i%size<first%size || (i%size==first%size && i<first))
+        				first = i;
+        		g.drawString(String.valueOf(sums[h]), (first/size)*squareSize+2, (first%size)*squareSize+ascent);
         	}
         }
     }
 
+    /**
+     * Draws the candidate notes of the empty cells, each value in a fixed slot of its square.
+     * Only cells within the clip are visited, and only the set bits of each mask.
+     */
+    private void paintNotes(Graphics g) {
+    	int size = board.getSize();
+    	int side = (int) Math.ceil(Math.sqrt(size));
+    	int slot = squareSize / side;
+    	if(slot < MIN_NOTE_SIZE)
+    		return; // too small to read
+    	if(noteLabels.length != size+1) {
+    		noteLabels = new String[size+1];
+    		for(int n=1; n<=size; n++)
+    			noteLabels[n] = String.valueOf(n);
+    	}
+    	if(noteFont == null || noteSlot != slot) {
+    		noteFont = new Font("Monospaced", Font.PLAIN, Math.max(MIN_NOTE_SIZE, slot - 2));
+    		noteSlot = slot;
+    	}
+    	Rectangle clip = g.getClipBounds();
+    	int x0 = 0, y0 = 0, x1 = size, y1 = size;
+    	if(clip != null) {
+    		x0 = Math.max(0, clip.x / squareSize);
+    		y0 = Math.max(0, clip.y / squareSize);
+    		x1 = Math.min(size, (clip.x + clip.width) / squareSize + 1);
+    		y1 = Math.min(size, (clip.y + clip.height) / squareSize + 1);
+    	}
+    	g.setColor(NOTE_COLOR);
+    	g.setFont(noteFont);
+    	FontMetrics metrics = g.getFontMetrics(noteFont);
+    	int ascent = metrics.getAscent();
+    	for(int i=x0; i<x1; i++) {
+    		for(int j=y0; j<y1; j++) {
+    			if(board.getValue(i, j) != 0)
+    				continue;
+    			for(long notes = board.getNotes(i, j); notes != 0; notes &= notes - 1) {
+    				int n = Long.numberOfTrailingZeros(notes);
+    				String text = noteLabels[n+1];
+    				g.drawString(text, i*squareSize + (n%side)*slot + (slot-metrics.stringWidth(text))/2,
+    						j*squareSize + (n/side)*slot + ascent - 1);
+    			}
+    		}
+    	}
+    }
+
     /** Repaints only the last selected cell. */
 	public void repaintCell(int x, int y) {
 		int[] lastIndex = board.getLastSelected();
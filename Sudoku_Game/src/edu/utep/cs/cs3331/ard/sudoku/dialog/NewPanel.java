@@ -18,7 +18,7 @@ import javax.swing.JRadioButton;
 @SuppressWarnings("serial")
 public class NewPanel extends JFrame {
 	private JLabel diffLabel, sizeLabel;
-	private JRadioButton s1, s2, d1, d2, d3;
+	private JRadioButton s1, s2, s3, s4, s5, d1, d2, d3;
 	private JButton b1, b2;
 	protected SudokuDialog parent;
 	
@@ -44,8 +44,11 @@ public class NewPanel extends JFrame {
 		sizeLabel = new JLabel("Board Size:", JLabel.LEFT);
 		s1 = new JRadioButton("4x4");
 		s2 = new JRadioButton("9x9");
+		s3 = new JRadioButton("16x16");
+		s4 = new JRadioButton("25x25");
+		s5 = new JRadioButton("36x36");
 		ButtonGroup sizeGroup = new ButtonGroup();
-		sizeGroup.add(s1); sizeGroup.add(s2);
+		sizeGroup.add(s1); sizeGroup.add(s2); sizeGroup.add(s3); sizeGroup.add(s4); sizeGroup.add(s5);
 		
 		JPanel diffPanel = new JPanel();
 		diffLabel = new JLabel("Difficulty Level:", JLabel.LEFT);
@@ -62,6 +65,9 @@ public class NewPanel extends JFrame {
 				int difficulty = -1;
 				if(s1.isSelected()) size = 4;
 				else if(s2.isSelected()) size = 9;
+				else if(s3.isSelected()) size = 16;
+				else if(s4.isSelected()) size = 25;
+				else if(s5.isSelected()) size = 36;
 				if(d1.isSelected()) difficulty = 1;
 				else if(d2.isSelected()) difficulty = 2;
 				else if(d3.isSelected()) difficulty = 3;
@@ -79,7 +85,7 @@ public class NewPanel extends JFrame {
 		diffPanel.setAlignmentX(Component.CENTER_ALIGNMENT);
 		buttons.setAlignmentX(Component.LEFT_ALIGNMENT);
 		
-		sizePanel.add(sizeLabel); sizePanel.add(s1); sizePanel.add(s2);
+		sizePanel.add(sizeLabel); sizePanel.add(s1); sizePanel.add(s2); sizePanel.add(s3); sizePanel.add(s4); sizePanel.add(s5);
 		diffPanel.add(diffLabel); diffPanel.add(d1); diffPanel.add(d2); diffPanel.add(d3);
 		buttons.add(b1); buttons.add(b2);
 
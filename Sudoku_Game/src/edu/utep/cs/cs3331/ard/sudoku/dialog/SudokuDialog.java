@@ -5,14 +5,21 @@ import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.awt.GridLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 import javax.sound.sampled.AudioInputStream;
@@ -23,16 +30,23 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import edu.utep.cs.cs3331.ard.sudoku.model.Board;
+import edu.utep.cs.cs3331.ard.sudoku.model.GameFile;
+import edu.utep.cs.cs3331.ard.sudoku.model.GameJournal;
+import edu.utep.cs.cs3331.ard.sudoku.model.Hint;
 
 /**
  * Dialog template for playing simple Sudoku games.
@@ -40,7 +54,7 @@ import edu.utep.cs.cs3331.ard.sudoku.model.Board;
  * @author		Yoonsik Cheon
  * @author		Anthony DesArmier
  * @author 		Trevor McCarthy
- * @version     1.2
+ * @version     1.5
  */
 @SuppressWarnings("serial")
 public class SudokuDialog extends JFrame {
@@ -51,6 +65,13 @@ public class SudokuDialog extends JFrame {
     private final static int DEFAULT_SIZE = 9;
     /** Default difficulty of the Sudoku game board. */
     private final static int DEFAULT_DIFFICULTY = 1;
+    /** File the games are journaled to, from the sudoku.journal system property; null for none. */
+    private final static String JOURNAL_FILE = System.getProperty("sudoku.journal");
+    /** File the game is autosaved to, from the sudoku.autosave system property; empty for none. */
+    private final static String AUTOSAVE_FILE = System.getProperty("sudoku.autosave",
+    		Paths.get(System.getProperty("user.home"), ".sudoku-autosave").toString());
+    /** Milliseconds between two autosaves, from the sudoku.autosaveSeconds system property. */
+    private final static int AUTOSAVE_MILLIS = 1000*Integer.getInteger("sudoku.autosaveSeconds", 30);
     /** Wireless icon for unconnected status. */
     protected final ImageIcon WIRELESS_N = createImageIcon("/wireless16.png");
     /** Wireless icon for connected status. */
@@ -68,6 +89,22 @@ public class SudokuDialog extends JFrame {
     protected Board board;
     /** Special panel to display a Sudoku board. */
     protected BoardPanel boardPanel;
+    /** Journal of the games played, null if none. */
+    private GameJournal journal;
+    /** Writes saved games off the event dispatch thread. */
+    private final ExecutorService saver = Executors.newSingleThreadExecutor(r -> {
+    	Thread thread = new Thread(r, "Game_Saver");
+    	thread.setDaemon(true);
+    	return thread;
+    });
+    /** Autosaves the game periodically, null if autosave is disabled. */
+    private Timer autosave;
+    /** Board of the last autosave. */
+    private Board autosaved;
+    /** Modification count of the board of the last autosave. */
+    private int autosavedModCount;
+    /** File chooser of the save and open commands, created on first use. */
+    private JFileChooser chooser;
     /** Message bar to display various messages. */
     private JLabel msgBar = new JLabel("");
     /** List of buttons representing the number pad. */
@@ -77,6 +114,8 @@ public class SudokuDialog extends JFrame {
 	
 	private JMenuItem input;
 	private JButton inputB;
+	/** Toggles whether the number pad edits notes instead of values. */
+	private JToggleButton notesB;
 	protected JToolBar toolBar;
 	protected JMenuBar menuBar;
 	protected JPanel mainPanel;
@@ -109,7 +148,10 @@ public class SudokuDialog extends JFrame {
         board = new Board(size, difficulty);
         boardPanel = new BoardPanel(board, this::boardClicked);
         configureUI();
+        fitToBoard();
         configureSound();
+        openJournal();
+        startAutosave();
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
         setLocationRelativeTo(null);
         setResizable(false);
@@ -128,16 +170,38 @@ public class SudokuDialog extends JFrame {
 		setGuideMode();
 	}
 
+	/**
+	 * Starts a Sudoku game board previously saved.
+	 * @param board saved board.
+	 */
+	public void startNewBoard(Board board) {
+		this.board = board;
+		configureNewBoard();
+		configureControlPanel();
+		setGuideMode();
+	}
+
 	/** Configures a new boardPanel and replaces the old boardPanel. */
 	protected void configureNewBoard() {
+		if(journal!=null)
+			board.setRecorder(journal);
 		int index = getComponentZOrder(boardPanel);
 		mainPanel.remove(boardPanel);
 		boardPanel = new BoardPanel(board, this::boardClicked);
         mainPanel.add(boardPanel, boardPanelConstraints(), index);
+        fitToBoard();
 		validate();
 		repaint();
 	}
 	
+	/** Grows the dialog past its default dimension if the board does not fit. */
+	protected void fitToBoard() {
+		Dimension pref = getPreferredSize();
+		Dimension size = getSize();
+		if(pref.width > size.width || pref.height > size.height)
+			setSize(Math.max(pref.width, size.width), Math.max(pref.height, size.height));
+	}
+	
 	/** Configures a new controlPanel and replaces the old controlPanel. */
 	protected void configureControlPanel() {
 		int index = getComponentZOrder(buttons);
@@ -148,6 +212,87 @@ public class SudokuDialog extends JFrame {
 		repaint();
 	}
 	
+	/** Opens the journal of {@link #JOURNAL_FILE}, if any, and starts recording the board. */
+	private void openJournal() {
+		if(JOURNAL_FILE==null)
+			return;
+		try {
+			journal = GameJournal.open(Paths.get(JOURNAL_FILE));
+			board.setRecorder(journal);
+		} catch (IOException e) {
+			showMessage("Cannot open the journal: "+e.getMessage());
+		}
+	}
+	
+	/** Starts autosaving the game every {@link #AUTOSAVE_MILLIS}, unless disabled. */
+	private void startAutosave() {
+		if(AUTOSAVE_FILE.isEmpty())
+			return;
+		autosave = new Timer(AUTOSAVE_MILLIS, e -> {
+			if(board!=autosaved || board.getModCount()!=autosavedModCount) { // skip an unchanged game
+				autosaved = board;
+				autosavedModCount = board.getModCount();
+				save(Paths.get(AUTOSAVE_FILE), null);
+			}
+		});
+		autosave.start();
+	}
+	
+	/**
+	 * Saves the game without blocking input: the board is encoded right away, which takes
+	 * microseconds, and written to the file by the saver thread.
+	 * @param file file to save to.
+	 * @param done message shown once saved, null for none.
+	 */
+	private void save(Path file, String done) {
+		ByteBuffer data;
+		try {
+			data = GameFile.encode(board);
+		} catch (IllegalArgumentException e) { // variant board
+			return;
+		}
+		saver.execute(() -> {
+			try {
+				GameFile.write(data, file);
+				if(done!=null)
+					SwingUtilities.invokeLater(() -> showMessage(done));
+			} catch (IOException e) {
+				SwingUtilities.invokeLater(() -> showMessage("Cannot save the game: "+e.getMessage()));
+			}
+		});
+	}
+	
+	/**
+	 * Loads a saved game and starts it.
+	 * @param file saved game.
+	 */
+	private void load(Path file) {
+		try {
+			Board loaded = GameFile.load(file);
+			startNewBoard(loaded);
+			long seconds = loaded.getElapsedMillis()/1000;
+			showMessage(String.format("Game loaded, played for %d:%02d.", seconds/60, seconds%60));
+		} catch (IOException e) {
+			showMessage("Cannot load the game: "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * @return {@link #chooser}
+	 */
+	private JFileChooser getChooser() {
+		if(chooser==null)
+			chooser = new JFileChooser();
+		return chooser;
+	}
+	
+	/**
+	 * @return {@link #journal}
+	 */
+	public GameJournal getJournal() {
+		return journal;
+	}
+	
     /**
      * Display the given string in the message bar.
      * @param msg message to be displayed.
@@ -215,6 +360,20 @@ public class SudokuDialog extends JFrame {
         newGame.setIcon(createImageIcon("/toolbarButtonGraphics/media/Play16.gif"));
         newGame.addActionListener(this::newClicked);
         game.add(newGame);
+        JMenuItem open = new JMenuItem("Open...", KeyEvent.VK_O);
+        open.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_O, ActionEvent.CTRL_MASK));
+        open.setIcon(createImageIcon("/toolbarButtonGraphics/general/Open16.gif"));
+        open.addActionListener(this::openClicked);
+        game.add(open);
+        JMenuItem save = new JMenuItem("Save...", KeyEvent.VK_S);
+        save.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S, ActionEvent.CTRL_MASK));
+        save.setIcon(createImageIcon("/toolbarButtonGraphics/general/Save16.gif"));
+        save.addActionListener(this::saveClicked);
+        game.add(save);
+        JMenuItem resume = new JMenuItem("Resume Last Game", KeyEvent.VK_R);
+        resume.addActionListener(e -> load(Paths.get(AUTOSAVE_FILE)));
+        resume.setEnabled(!AUTOSAVE_FILE.isEmpty());
+        game.add(resume);
         game.addSeparator();
         JMenuItem undo = new JMenuItem("Undo", KeyEvent.VK_Z);
         undo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, ActionEvent.CTRL_MASK));
@@ -246,6 +405,16 @@ public class SudokuDialog extends JFrame {
         input.setIcon(ZERO);
         input.addActionListener(this::inputGuideClicked);
         help.add(input);
+        JMenuItem notes = new JMenuItem("Notes", KeyEvent.VK_E);
+        notes.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_E, ActionEvent.CTRL_MASK));
+        notes.setIcon(createImageIcon("/toolbarButtonGraphics/general/Edit16.gif"));
+        notes.addActionListener(e -> notesB.doClick());
+        help.add(notes);
+        JMenuItem hint = new JMenuItem("Hint", KeyEvent.VK_H);
+        hint.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_H, ActionEvent.CTRL_MASK));
+        hint.setIcon(createImageIcon("/toolbarButtonGraphics/general/TipOfTheDay16.gif"));
+        hint.addActionListener(this::hintClicked);
+        help.add(hint);
         JMenuItem solve = new JMenuItem("Solve", KeyEvent.VK_V);
         solve.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_V, ActionEvent.CTRL_MASK));
         solve.setIcon(createImageIcon("/toolbarButtonGraphics/media/FastForward16.gif"));
@@ -273,6 +442,16 @@ public class SudokuDialog extends JFrame {
     	inputB.addActionListener(this::inputGuideClicked);
     	inputB.setFocusPainted(false);
     	toolBar.add(inputB);
+    	notesB = new JToggleButton(createImageIcon("/toolbarButtonGraphics/general/Edit16.gif"));
+    	notesB.setToolTipText("Toggle entering notes instead of values");
+    	notesB.addActionListener(e -> playClick());
+    	notesB.setFocusPainted(false);
+    	toolBar.add(notesB);
+    	JButton hintB = new JButton(createImageIcon("/toolbarButtonGraphics/general/TipOfTheDay16.gif"));
+    	hintB.setToolTipText("Show the next logical step");
+    	hintB.addActionListener(this::hintClicked);
+    	hintB.setFocusPainted(false);
+    	toolBar.add(hintB);
     	JButton solveB = new JButton(createImageIcon("/toolbarButtonGraphics/media/FastForward16.gif"));
     	solveB.setToolTipText("Solve the board (if possible)");
     	solveB.addActionListener(this::solveClicked);
@@ -299,8 +478,9 @@ public class SudokuDialog extends JFrame {
     	numPad = new ArrayList<>();
     	numPadEnable = false;
     	// buttons labeled 1, 2, ..., 9, and X.
-    	JPanel numberButtons = new JPanel(new FlowLayout());
     	int maxNumber = board.getSize() + 1;
+    	JPanel numberButtons = new JPanel(maxNumber <= 10 ? new FlowLayout()
+    			: new GridLayout(0, Math.min(13, (maxNumber+1)/2))); // wrap large boards into rows
     	for (int i = 1; i <= maxNumber; i++) {
             int number = i % maxNumber;
             JButton button = new JButton(number == 0 ? "X" : String.valueOf(number));
@@ -388,6 +568,23 @@ public class SudokuDialog extends JFrame {
     /** Properly shuts down this object and all related streams. */
     protected void shutDown() {
     	clip.close();
+    	if(autosave!=null) {
+    		autosave.stop();
+    		if(board!=autosaved || board.getModCount()!=autosavedModCount)
+    			save(Paths.get(AUTOSAVE_FILE), null);
+    	}
+    	saver.shutdown();
+    	try {
+    		saver.awaitTermination(1, TimeUnit.SECONDS); // let the last save finish
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	}
+    	if(journal!=null)
+    		try {
+    			journal.close();
+    		} catch (IOException e) {
+    			System.err.println("Journal not saved: "+e.getMessage());
+    		}
     	dispose();
     }
 
@@ -400,6 +597,20 @@ public class SudokuDialog extends JFrame {
     	new NewPanel();
     }
     
+    /** ClickListener for the open menu item. */
+	protected void openClicked(ActionEvent e) {
+		playClick();
+		if(getChooser().showOpenDialog(this)==JFileChooser.APPROVE_OPTION)
+			load(chooser.getSelectedFile().toPath());
+	}
+    
+    /** ClickListener for the save menu item. */
+	protected void saveClicked(ActionEvent e) {
+		playClick();
+		if(getChooser().showSaveDialog(this)==JFileChooser.APPROVE_OPTION)
+			save(chooser.getSelectedFile().toPath(), "Game saved.");
+	}
+    
     /** ClickListener for newGame buttons. */
 	protected void newClicked(ActionEvent e) {
 		playClick();
@@ -426,11 +637,22 @@ public class SudokuDialog extends JFrame {
      */
     protected void numberClicked(int number) {
     	playClick();
-    	board.update(number, true, false);
+    	if(isNoteMode() && number!=0)
+    		board.toggleNote(number);
+    	else
+    		board.update(number, true, false);
     	boardPanel.repaint();
     	showMessage("");
     }
     
+    /**
+     * Determines whether the number pad edits notes.
+     * @return true if notes are being edited, false if values are.
+     */
+    protected boolean isNoteMode() {
+    	return notesB.isSelected();
+    }
+    
     /** ClickListener for check buttons.*/
     private void checkClicked(ActionEvent e) {
 		playClick();
@@ -468,6 +690,25 @@ public class SudokuDialog extends JFrame {
 		handlePadEnables();
 	}
 	
+    /** ClickListener for hint buttons.*/
+    protected void hintClicked(ActionEvent e) {
+		playClick();
+		Board current = board;
+		current.getHintEngine().requestHint().thenAccept(hint -> SwingUtilities.invokeLater(() -> {
+			if(current!=board) // a new game was started meanwhile
+				return;
+			if(hint==null) {
+				showMessage("No hints left");
+				return;
+			}
+			int[] target = hint.getTarget();
+			board.select(target[0], target[1]);
+			boardPanel.repaint();
+			handlePadEnables();
+			showMessage(hint.toString());
+		}));
+	}
+    
     /** ClickListener for solve buttons.*/
     protected void solveClicked(ActionEvent e) {
     	showMessage("");
@@ -1,24 +1,28 @@
 package edu.utep.cs.cs3331.ard.sudoku.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import edu.utep.cs.cs3331.ard.sudoku.model.Cell.State;
 import edu.utep.cs.cs3331.ard.sudoku.model.solver.AbstractSudokuSolver;
-import edu.utep.cs.cs3331.ard.sudoku.model.solver.SudokuDLX;
 import edu.utep.cs.cs3331.ard.sudoku.net.json.JsonBoard;
-import edu.utep.cs.cs3331.ard.sudoku.net.json.JsonSquare;
 
 /**
  * Sudoku game board and various game logic.
  * 
  * @author      Anthony DesArmier
- * @version     1.3
+ * @version     1.11
  */
 public class Board {
+	/** Kind of an undo entry that changes the value of a cell. */
+	private static final int VALUE = 0;
+	/** Kind of an undo entry that toggles a note of a cell. */
+	private static final int NOTE = 1;
 	/** Dimension of a Sudoku game board. */
 	private int size;
 	/** Dimension of a sub-grid of a Sudoku game board. */
@@ -34,13 +38,56 @@ public class Board {
 	/** Indices of the last set of error squares. */
 	private Set<Integer> lastError;
 	/** Sudoku game board solver. */
-	private AbstractSudokuSolver solver = new SudokuDLX();
+	private AbstractSudokuSolver solver;
+	/** Houses the values of this board must satisfy. */
+	private ConstraintSet constraints;
+	/** Cell indices of every house. */
+	private int[][] houses;
+	/** House indices of every cell. */
+	private int[][] housesOf;
+	/** Required sum of every house, 0 for none. */
+	private int[] sums;
+	/** Number of times each value appears in each house, indexed by house*(size+1)+value. */
+	private int[] houseCount;
+	/** Values present in each house, bit (n-1) for value n. */
+	private long[] houseUsed;
+	/** Sum of the values in each house. */
+	private int[] houseSum;
+	/** Number of non-empty cells. */
+	private int filled;
+	/** Number of (house, value) pairs appearing more than once. */
+	private int repeats;
+	/** Hint engine following the values of this board, created on first use. */
+	private HintEngine hints;
+	/** Cells sharing a house with every cell. */
+	private int[][] peersOf;
+	/** Candidate notes of every cell, bit (n-1) for value n. */
+	private long[] notes;
+	/** Random identifier of this board instance, telling apart the sequences of different boards. */
+	private final int id = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
+	/** Number of value changes made to this board. */
+	private int sequence;
+	/** Cell index of the most recent value changes, change n at n modulo its length. */
+	private int[] journal;
+	/** Journal recording every value change, null if none. */
+	private GameJournal recorder;
+	/** Number of changes made to the values, notes and guide mode of this board. */
+	private int modCount;
+	/** Milliseconds played on this board before it was loaded. */
+	private long elapsedBefore;
+	/** Time this board was created or loaded, in nanoseconds as given by {@link System#nanoTime()}. */
+	private long created = System.nanoTime();
 	/** 
 	 * Input guide mode. 
 	 * 0 - no guide, 1 - disable incorrect inputs, 2 - show conflicting inputs
 	 */
 	private int guideMode;
-	/** List of actions that simulate undo commands. */
+	/**
+	 * List of actions that simulate undo commands.
+	 * <p>
+	 * Every action is {x, y, z, kind, ...}. A {@link #VALUE} action sets the cell to z and is followed
+	 * by a value n and the cells whose note n is toggled back; a {@link #NOTE} action toggles note z of the cell.
+	 */
 	private LinkedList<int[]> undo = new LinkedList<>();
 	/** List of actions that simulate redo commands. */
 	private LinkedList<int[]> redo = new LinkedList<>();
@@ -51,12 +98,16 @@ public class Board {
 	 */
 	public Board(JsonBoard jsonBoard) {
 		this.size = jsonBoard.getSize();
-		generateGrid(size, 0);
-        for (JsonSquare square : jsonBoard.getSquares()) {
-        	int index = square.getX()*size + square.getY();
-        	grid.get(index).value = square.getValue();
-        	grid.get(index).setState(State.FIXED);
-        }
+		generateGrid(ConstraintSet.standard(size), 0);
+		int[] squares = jsonBoard.getSquareArray();
+		for (int i = 0; i < jsonBoard.getSquareCount()*3; i += 3) {
+			int x = squares[i], y = squares[i+1], value = squares[i+2];
+			if (x < 0 || x >= size || y < 0 || y >= size || value < 1 || value > size)
+				continue; // malformed square
+			int index = x*size + y;
+			set(index, value);
+			grid.get(index).setState(State.FIXED);
+		}
 	}
 
 	/**
@@ -65,8 +116,17 @@ public class Board {
 	 * @param difficulty difficulty of the board.
 	 */
 	public Board(int size, int difficulty) {
-		this.size = size;
-		generateGrid(size, difficulty);
+		this(ConstraintSet.standard(size), difficulty);
+	}
+	
+	/**
+	 * Generates a variant Sudoku game board of a given difficulty.
+	 * @param constraints houses the values of the board must satisfy.
+	 * @param difficulty difficulty of the board.
+	 */
+	public Board(ConstraintSet constraints, int difficulty) {
+		this.size = constraints.getSize();
+		generateGrid(constraints, difficulty);
 	}
 	
 	/**
@@ -85,7 +145,9 @@ public class Board {
 	public Board(int size, int... list) {
 		this(size);
 		for(int i=0; i<list.length; i+=4) {
-			grid.get(list[i+1]*size+list[i]).value = list[i+2];
+			if(list[i+2]<0 || list[i+2]>size)
+				continue; // ignore malformed tuples
+			set(list[i+1]*size+list[i], list[i+2]);
 			if(list[i+3]==1)
 				grid.get(list[i+1]*size+list[i]).setState(State.FIXED);
 		}
@@ -112,6 +174,27 @@ public class Board {
 		return cellDim;
 	}
 	
+	/**
+	 * @return {@link #constraints}
+	 */
+	public ConstraintSet getConstraints() {
+		return constraints;
+	}
+	
+	/**
+	 * Returns the hint engine of this board, creating it on first use.
+	 * @return {@link #hints}
+	 */
+	public HintEngine getHintEngine() {
+		if(hints==null) {
+			int[] values = new int[grid.size()];
+			for(int i=0; i<values.length; i++)
+				values[i] = grid.get(i).value;
+			hints = new HintEngine(constraints, values);
+		}
+		return hints;
+	}
+	
 	/**
 	 * @return {@link #solved}
 	 */
@@ -198,6 +281,7 @@ public class Board {
 	 */
 	public void setGuideMode(int guideMode) {
 		this.guideMode = guideMode;
+		modCount++;
 		if(this.guideMode!=2)
 			clearErrors();
 	}
@@ -208,6 +292,7 @@ public class Board {
 	 */
 	public void incGuideMode() {
 		guideMode=(guideMode+1)%3;
+		modCount++;
 		if(this.guideMode!=2)
 			clearErrors();
 	}
@@ -236,24 +321,143 @@ public class Board {
 		return list.stream().mapToInt(Integer::intValue).toArray();
 	}
 	
+	/**
+	 * @return {@link #id}
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * @return {@link #sequence}
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * Collects the cells whose value changed after a given point of this board's history.
+	 * @param since sequence number the caller is up to date with.
+	 * @return {index, value} pairs with the current value of every changed cell,
+	 *   or null if that point is in the future or no longer journaled.
+	 */
+	public int[] changesSince(int since) {
+		if(since<0 || since>sequence || sequence-since>journal.length)
+			return null;
+		boolean[] seen = new boolean[size*size];
+		int[] changes = new int[2*Math.min(sequence-since, size*size)];
+		int n = 0;
+		for(int s=sequence-1; s>=since; s--) {
+			int index = journal[s % journal.length];
+			if(seen[index])
+				continue;
+			seen[index] = true;
+			changes[n++] = index;
+			changes[n++] = grid.get(index).value;
+		}
+		return Arrays.copyOf(changes, n);
+	}
+	
+	/**
+	 * @return {@link #modCount}
+	 */
+	public int getModCount() {
+		return modCount;
+	}
+	
+	/**
+	 * @return milliseconds played on this board, including before it was saved and loaded.
+	 */
+	public long getElapsedMillis() {
+		return elapsedBefore + (System.nanoTime()-created)/1000000;
+	}
+	
+	/**
+	 * @return actions of the undo history, most recent first, as described by {@link #undo}.
+	 */
+	List<int[]> getUndoActions() {
+		return undo;
+	}
+	
+	/**
+	 * @return actions of the redo history, most recent first, as described by {@link #undo}.
+	 */
+	List<int[]> getRedoActions() {
+		return redo;
+	}
+	
+	/**
+	 * Restores the state of a saved game that the cell values do not hold.
+	 * @param notes candidate notes of every cell.
+	 * @param undo actions of the undo history, most recent first.
+	 * @param redo actions of the redo history, most recent first.
+	 * @param guideMode input guide mode.
+	 * @param elapsedMillis milliseconds played before the game was saved.
+	 */
+	void restore(long[] notes, List<int[]> undo, List<int[]> redo, int guideMode, long elapsedMillis) {
+		System.arraycopy(notes, 0, this.notes, 0, this.notes.length);
+		this.undo = new LinkedList<>(undo);
+		this.redo = new LinkedList<>(redo);
+		this.guideMode = guideMode;
+		elapsedBefore = elapsedMillis;
+		created = System.nanoTime();
+	}
+	
+	/**
+	 * Attaches a journal recording every value change of this board, starting with its current state.
+	 * @param recorder journal to attach, or null to detach the current one.
+	 */
+	public void setRecorder(GameJournal recorder) {
+		this.recorder = recorder;
+		if(recorder!=null)
+			recorder.board(this);
+	}
+	
+	/**
+	 * Applies cell values received from another copy of this board, skipping given cells.
+	 * The changes are not recorded in the undo history.
+	 * @param changes {index, value} pairs.
+	 * @param offset position of the first pair.
+	 */
+	public void applyChanges(int[] changes, int offset) {
+		for(int i=offset; i+1<changes.length; i+=2) {
+			int index = changes[i], value = changes[i+1];
+			if(index<0 || index>=size*size || value<0 || value>size || grid.get(index).getState(State.FIXED))
+				continue; // ignore malformed pairs
+			set(index, value);
+		}
+		solved = isComplete();
+	}
+	
 	/**
 	 * Constructs a grid representation of a Sudoku game board.
-	 * @param size size of the board.
+	 * @param constraints houses the values of the board must satisfy.
 	 * @param difficulty 0 - empty, 1 - easy, 2 - normal, 3 - difficult.
 	 */
-	private final void generateGrid(int size, int difficulty) {
+	private final void generateGrid(ConstraintSet constraints, int difficulty) {
 		grid = new ArrayList<>(size*size);
 		this.cellDim = (int)Math.sqrt(size); // Should be a perfect square
+		this.constraints = constraints;
+		houses = constraints.getHouses();
+		housesOf = constraints.getHousesOf();
+		sums = constraints.getSums();
+		houseCount = new int[houses.length*(size+1)];
+		houseUsed = new long[houses.length];
+		houseSum = new int[houses.length];
+		peersOf = constraints.getPeersOf();
+		notes = new long[size*size];
+		journal = new int[4*size*size];
+		solver = AbstractSudokuSolver.forConstraints(constraints);
 		for(int i=0; i<size*size; i++)
 			grid.add(new Cell());
 		if(difficulty!=0) {
-			int[][] preMade = SudokuGenerator.generate(size, difficulty);
+			int[][] preMade = SudokuGenerator.generate(constraints, difficulty);
 			int x = 0;
 			for(int i=0; i<preMade.length; i++)
 				for(int j=0; j<preMade[0].length; j++)
 					if(preMade[i][j]!=0) {
 						x = j+(i*size);
-						grid.get(x).value = preMade[i][j];
+						set(x, preMade[i][j]);
 						grid.get(x).setState(State.FIXED);
 					}
 		}
@@ -269,7 +473,7 @@ public class Board {
 	 * @param fillOverride whether this update originated as a fill message and should ignore any input guide rules.
 	 */
 	public boolean update(int num, boolean fresh, boolean fillOverride) {
-		if((solved && num!=0) || lastSelected[0]<0 || lastSelected[1]<0) {
+		if((solved && num!=0) || lastSelected[0]<0 || lastSelected[1]<0 || num<0 || num>size) {
 			return false;
 		}
 		int index = lastSelected[0]*size+lastSelected[1];
@@ -282,19 +486,72 @@ public class Board {
 				return true; // Do not reject the update but block it anyway
 			}
 		int oldNum = cell.value;
-		cell.value = num;
+		set(index, num);
 		cell.setState(State.SELECTED);
-		if(num!=0 && AbstractSudokuSolver.validateSudoku(grid, size, cellDim)) // no need to check board if a 0 was just inserted
-			solved = true;
-		else
-			solved = false;
+		solved = isComplete();
+		int[] cleared = num!=0 ? clearNote(index, num) : new int[0];
 		if(fresh) {
-			undo.push(new int[] {lastSelected[0], lastSelected[1], oldNum});
+			int[] action = new int[5+cleared.length];
+			action[0] = lastSelected[0];
+			action[1] = lastSelected[1];
+			action[2] = oldNum;
+			action[3] = VALUE;
+			action[4] = num;
+			System.arraycopy(cleared, 0, action, 5, cleared.length);
+			undo.push(action);
 			redo.clear();
 		}
 		return true;
 	}
 	
+	/**
+	 * Toggles a candidate note of the last selected cell space.
+	 * @param num note to toggle.
+	 * @return true if the note was toggled, false if the cell is fixed, filled or not selected.
+	 */
+	public boolean toggleNote(int num) {
+		if(solved || lastSelected[0]<0 || lastSelected[1]<0 || num<1 || num>size)
+			return false;
+		int index = lastSelected[0]*size+lastSelected[1];
+		Cell cell = grid.get(index);
+		if(cell.states.contains(State.FIXED) || cell.value!=0)
+			return false;
+		notes[index] ^= bit(num);
+		modCount++;
+		undo.push(new int[] {lastSelected[0], lastSelected[1], num, NOTE});
+		redo.clear();
+		return true;
+	}
+	
+	/**
+	 * Returns the candidate notes of a given cell of a Sudoku game board.
+	 * @param x x-position of the cell space.
+	 * @param y y-position of the cell space.
+	 * @return bitmask with bit (n-1) set for every noted value n.
+	 */
+	public long getNotes(int x, int y) {
+		return notes[x*size+y];
+	}
+	
+	/**
+	 * Removes a value from the notes of every peer of a cell it was placed in.
+	 * @param index cell index.
+	 * @param value value placed in the cell.
+	 * @return indices of the peers that lost the note.
+	 */
+	private int[] clearNote(int index, int value) {
+		long b = bit(value);
+		int[] peers = peersOf[index];
+		int[] cleared = new int[peers.length];
+		int n = 0;
+		for(int p : peers)
+			if((notes[p] & b)!=0) {
+				notes[p] &= ~b;
+				cleared[n++] = p;
+			}
+		return Arrays.copyOf(cleared, n);
+	}
+	
 	/**
 	 * Inserts a value into a given cell space on the Sudoku game board if valid.
 	 * @param values x,y and z values corresponding to the Sudoku game board position and value.
@@ -336,37 +593,122 @@ public class Board {
 	 */
 	public List<Integer> invalidInputs(int[] cell) {
 		List<Integer> invalids = new ArrayList<>();
+		long used = usedValues(cell[0], cell[1]);
 		for(int i=1; i<=size; i++)
-			if(!isValidEntry(new int[] {cell[0], cell[1], i}, false))
+			if((used & (1L << (i-1))) != 0)
 				invalids.add(i);
 		return invalids;
 	}
 	
 	/**
-	 * Checks if a given input is a valid move for a Sudoku game. Populates {@link #errorSquares} as any are found.
+	 * Collects every value present in the houses of a cell.
+	 * @param x x-position of the cell space.
+	 * @param y y-position of the cell space.
+	 * @return bitmask with bit (n-1) set for every value n that conflicts with the cell.
+	 */
+	private long usedValues(int x, int y) {
+		long used = 0;
+		for(int h : housesOf[x*size+y])
+			used |= houseUsed[h];
+		return used;
+	}
+	
+	/**
+	 * Sets the value of a cell and keeps the conflict index of its houses up to date.
+	 * @param index cell index.
+	 * @param value new value of the cell.
+	 */
+	private void set(int index, int value) {
+		Cell cell = grid.get(index);
+		int old = cell.value;
+		if(old==value)
+			return;
+		cell.value = value;
+		for(int h : housesOf[index]) {
+			int base = h*(size+1);
+			if(old!=0) {
+				int count = --houseCount[base+old];
+				if(count==0)
+					houseUsed[h] &= ~bit(old);
+				else if(count==1)
+					repeats--;
+				houseSum[h] -= old;
+			}
+			if(value!=0) {
+				int count = ++houseCount[base+value];
+				if(count==1)
+					houseUsed[h] |= bit(value);
+				else if(count==2)
+					repeats++;
+				houseSum[h] += value;
+			}
+		}
+		if(old==0)
+			filled++;
+		else if(value==0)
+			filled--;
+		journal[sequence++ % journal.length] = index;
+		modCount++;
+		if(recorder!=null)
+			recorder.moved(this, index, value);
+		if(hints!=null)
+			hints.cellChanged(index, old, value);
+	}
+	
+	/**
+	 * Determines whether every cell is filled without breaking any house.
+	 * <p>
+	 * Runs in O(1) time for boards without killer cages.
+	 * @return true if the board is complete and valid, false otherwise.
+	 */
+	private boolean isComplete() {
+		if(filled!=size*size || repeats!=0)
+			return false;
+		if(constraints.hasSums())
+			for(int h=0; h<houses.length; h++)
+				if(sums[h]!=0 && houseSum[h]!=sums[h])
+					return false;
+		return true;
+	}
+	
+	/**
+	 * @param value cell value.
+	 * @return candidate bitmask of a cell value, 0 for an empty cell.
+	 */
+	private static long bit(int value) {
+		return value==0 ? 0 : 1L << (value-1);
+	}
+	
+	/**
+	 * Checks if a given input is a valid move for a Sudoku game. Populates {@link #lastError} as any are found.
 	 * <p>
 	 * A valid move is considered to be inserting a number that does not already exist
-	 * within the same row, column, or sub-grid.
+	 * within any house of the cell, and that does not push a killer cage past its sum.
+	 * Only the houses of the cell are consulted, so the check costs O(houses) unless a conflict is reported.
 	 * @param values x,y and z values corresponding to the Sudoku game board position and value.
 	 * @param report true if it should record where the conflict was located, false otherwise.
 	 * @return true if valid, false otherwise.
 	 */
 	private boolean isValidEntry(int[] values, boolean report) {
-		clearErrors();
+		if(report)
+			clearErrors();
 		if(values[2]!=0 ) { // no validity check if value is 0
-			int[] subGrid = {(values[0]/cellDim)*cellDim, (values[1]/cellDim)*cellDim}; // floor indices to nearest multiple of cell dimension
-			int j=-1, x=0, y=0, index=0;
+			int index = values[0]*size+values[1];
+			long b = bit(values[2]);
+			int old = grid.get(index).value;
 			boolean error = false;
-			for(int i=0; i<size; i++) {
-				index = values[0]*size+i; // column
-				error = checkError(values, report, index, error);
-				index = i*size+values[1]; // row
-				error = checkError(values, report, index, error);
-				if(i%cellDim==0) j++;
-				x = i%cellDim+subGrid[0];
-				y = j%cellDim+subGrid[1];
-				index = x*size+y; // sub-grid
-				error = checkError(values, report, index, error);
+			for(int h : housesOf[index]) {
+				boolean conflict = (houseUsed[h] & b) != 0;
+				if(!conflict && sums[h]!=0) {
+					int sum = houseSum[h] - old + values[2];
+					boolean full = emptyCells(h) == (old==0 ? 1 : 0);
+					conflict = sum > sums[h] || (full && sum != sums[h]);
+				}
+				if(conflict) {
+					error = true;
+					if(report)
+						reportHouse(h, sums[h]!=0 ? -1 : values[2]);
+				}
 			}
 			if(error) return false;
 		}
@@ -374,23 +716,48 @@ public class Board {
 	}
 
 	/**
-	 * Checks whether a specified cell conflicts with the input values.
-	 * @param values x,y and z values corresponding to the Sudoku game board position and value.
-	 * @param report true if it should record where the conflict was located, false otherwise.
-	 * @param index cell index of the cell to check conflict with.
-	 * @param error the current overall error state.
-	 * @return true if cell conflicts with input values, previous overall state otherwise.
+	 * Determines whether a move follows the rules of this board, whatever the guide mode.
+	 * Uses the conflict index only and reports nothing.
+	 * @param x x-position of the cell space.
+	 * @param y y-position of the cell space.
+	 * @param value value to insert, 0 to erase.
+	 * @return true if the cell is not given and the value breaks no house, false otherwise.
 	 */
-	private boolean checkError(int[] values, boolean report, int index, boolean error) {
-		Cell cell = grid.get(index);
-		if(cell.equals(values[2])) {
-			if(report) {
+	public boolean isLegal(int x, int y, int value) {
+		if(x<0 || y<0 || x>=size || y>=size || value<0 || value>size)
+			return false;
+		Cell cell = grid.get(x*size+y);
+		if(cell.getState(State.FIXED))
+			return false;
+		return value==cell.value || isValidEntry(new int[] {x, y, value}, false);
+	}
+	
+	/**
+	 * Counts the empty cells of a house.
+	 * @param h house index.
+	 * @return number of empty cells.
+	 */
+	private int emptyCells(int h) {
+		int empty = 0;
+		for(int i : houses[h])
+			if(grid.get(i).value==0)
+				empty++;
+		return empty;
+	}
+
+	/**
+	 * Marks the cells of a house that conflict with an input value.
+	 * @param h house index.
+	 * @param value conflicting value, or -1 to mark every filled cell of the house.
+	 */
+	private void reportHouse(int h, int value) {
+		for(int i : houses[h]) {
+			Cell cell = grid.get(i);
+			if(value==-1 ? cell.value!=0 : cell.equals(value)) {
 				cell.setState(State.ERROR);
-				lastError.add(index);
+				lastError.add(i);
 			}
-			error = true;
 		}
-		return error;
 	}
 	
 	/**
@@ -410,7 +777,7 @@ public class Board {
 		if(apply) {
 			for(int i=0; i<solution.length; i++)
 				for(int j=0; j<solution[0].length; j++)
-					grid.get(j+(i*size)).value = solution[i][j];
+					set(j+(i*size), solution[i][j]);
 			solved = true;
 		}
 		return true;
@@ -426,19 +793,39 @@ public class Board {
 	public void undo() {
 		if(undo.isEmpty())
 			return;
-		int[] action = undo.pop();
-		int num = getValue(action[0], action[1]);
-		update(action, false, true);
-		redo.push(new int[] {action[0], action[1], num});
+		redo.push(apply(undo.pop()));
 	}
 	
 	/** Steps forward an update step. Only valid after an undo. */
 	public void redo() {
 		if(redo.isEmpty())
 			return;
-		int[] action = redo.pop();
-		int num = getValue(action[0], action[1]);
-		update(action, false, true);
-		undo.push(new int[] {action[0], action[1], num});
+		undo.push(apply(redo.pop()));
+	}
+	
+	/**
+	 * Applies an undo or redo action, selecting its cell.
+	 * @param action action as described by {@link #undo}.
+	 * @return action reverting this one.
+	 */
+	private int[] apply(int[] action) {
+		lastSelected[0] = action[0];
+		lastSelected[1] = action[1];
+		int index = action[0]*size+action[1];
+		int[] inverse = action.clone();
+		if(action[3]==NOTE) {
+			notes[index] ^= bit(action[2]);
+			modCount++;
+			return inverse;
+		}
+		Cell cell = grid.get(index);
+		inverse[2] = cell.value;
+		set(index, action[2]);
+		cell.setState(State.SELECTED);
+		solved = isComplete();
+		long b = bit(action[4]);
+		for(int i=5; i<action.length; i++) // notes toggle back and forth with the value
+			notes[action[i]] ^= b;
+		return inverse;
 	}
 }
@@ -0,0 +1,302 @@
+package edu.utep.cs.cs3331.ard.sudoku.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Set of houses the values of a Sudoku game board must satisfy.
+ * <p>
+ * A house is a group of cells whose values must all differ. Houses holding as many
+ * cells as the board size must contain every value exactly once (rows, columns, regions,
+ * diagonals, hyper boxes), smaller houses only forbid repeats and may require a sum (killer cages).
+ * <p>
+ * Cells are indexed as x*size+y, the same as {@link Board#getGrid()}. Houses are added
+ * through the builder methods and compiled into flat lookup tables on first use, after
+ * which the set can no longer change.
+ *
+ * @author      Anthony DesArmier
+ * @version     1.1
+ */
+public class ConstraintSet {
+
+	/** Various kinds of houses. */
+	public enum Kind {
+		/** Cells sharing an x-position. */
+		ROW,
+		/** Cells sharing a y-position. */
+		COLUMN,
+		/** Square sub-grid or jigsaw region. */
+		REGION,
+		/** Main or anti diagonal (X-Sudoku). */
+		DIAGONAL,
+		/** Extra sub-grid offset from the regular ones (hyper Sudoku). */
+		HYPER,
+		/** Killer cage with a required sum. */
+		CAGE
+	}
+
+	/** Standard constraint sets, keyed by board size. */
+	private static final Map<Integer, ConstraintSet> STANDARD = new ConcurrentHashMap<>();
+
+	/** Dimension of the board. */
+	private final int size;
+	/** Kind of every house. */
+	private final List<Kind> kindList = new ArrayList<>();
+	/** Cells of every house. */
+	private final List<int[]> cellList = new ArrayList<>();
+	/** Required sum of every house, 0 for none. */
+	private final List<Integer> sumList = new ArrayList<>();
+	/** Region of every cell, used to draw region borders. */
+	private int[] regionOf;
+
+	/** Compiled kinds of every house. */
+	private Kind[] kinds;
+	/** Compiled cells of every house, null until compiled. */
+	private volatile int[][] houses;
+	/** Compiled sums of every house. */
+	private int[] sums;
+	/** Compiled indices of the houses containing every cell. */
+	private int[][] housesOf;
+	/** Compiled indices of the cells sharing a house with every cell. */
+	private int[][] peersOf;
+	/** Whether any house requires a sum. */
+	private boolean hasSums;
+
+	/**
+	 * Creates a constraint set holding only the rows and columns of a board.
+	 * @param size size of the board.
+	 */
+	public ConstraintSet(int size) {
+		this.size = size;
+		regionOf = new int[size*size];
+		for(int x=0; x<size; x++) {
+			int[] row = new int[size];
+			int[] column = new int[size];
+			for(int y=0; y<size; y++) {
+				row[y] = x*size+y;
+				column[y] = y*size+x;
+			}
+			add(Kind.ROW, row, 0);
+			add(Kind.COLUMN, column, 0);
+		}
+	}
+
+	/**
+	 * Returns the shared standard constraint set (rows, columns and square sub-grids) of a board size.
+	 * @param size size of the board, a perfect square.
+	 * @return compiled standard constraint set.
+	 */
+	public static ConstraintSet standard(int size) {
+		return STANDARD.computeIfAbsent(size, s -> new ConstraintSet(s).addBoxes().compile());
+	}
+
+	/**
+	 * Adds the square sub-grids of the board as regions.
+	 * @return this constraint set.
+	 */
+	public ConstraintSet addBoxes() {
+		int side = (int) Math.sqrt(size);
+		int[] regions = new int[size*size];
+		for(int i=0; i<size*size; i++)
+			regions[i] = (i/size/side)*side + (i%size)/side;
+		return addRegions(regions);
+	}
+
+	/**
+	 * Adds jigsaw regions to the board.
+	 * @param regions region number [0,size) of every cell, each region holding size cells.
+	 * @return this constraint set.
+	 * @throws IllegalArgumentException if a region does not hold exactly size cells.
+	 */
+	public ConstraintSet addRegions(int[] regions) {
+		if(regions.length != size*size)
+			throw new IllegalArgumentException("Expected a region for each of the " + size*size + " cells.");
+		int[][] cells = new int[size][size];
+		int[] count = new int[size];
+		for(int i=0; i<regions.length; i++) {
+			int r = regions[i];
+			if(r < 0 || r >= size || count[r] == size)
+				throw new IllegalArgumentException("Region " + r + " does not hold exactly " + size + " cells.");
+			cells[r][count[r]++] = i;
+		}
+		for(int[] region : cells)
+			add(Kind.REGION, region, 0);
+		regionOf = regions.clone();
+		return this;
+	}
+
+	/**
+	 * Adds both main diagonals (X-Sudoku).
+	 * @return this constraint set.
+	 */
+	public ConstraintSet addDiagonals() {
+		int[] main = new int[size];
+		int[] anti = new int[size];
+		for(int i=0; i<size; i++) {
+			main[i] = i*size+i;
+			anti[i] = i*size+(size-1-i);
+		}
+		add(Kind.DIAGONAL, main, 0);
+		add(Kind.DIAGONAL, anti, 0);
+		return this;
+	}
+
+	/**
+	 * Adds the hyper boxes, sub-grids set one cell in from each regular sub-grid corner (Windoku).
+	 * @return this constraint set.
+	 */
+	public ConstraintSet addHyperBoxes() {
+		int side = (int) Math.sqrt(size);
+		for(int bx=1; bx+side<=size; bx+=side+1)
+			for(int by=1; by+side<=size; by+=side+1) {
+				int[] box = new int[size];
+				for(int i=0; i<size; i++)
+					box[i] = (bx+i/side)*size + by+i%side;
+				add(Kind.HYPER, box, 0);
+			}
+		return this;
+	}
+
+	/**
+	 * Adds a killer cage whose values must differ and add up to a sum.
+	 * @param sum required sum of the cage values.
+	 * @param cells cell indices of the cage.
+	 * @return this constraint set.
+	 */
+	public ConstraintSet addCage(int sum, int... cells) {
+		add(Kind.CAGE, cells.clone(), sum);
+		return this;
+	}
+
+	/**
+	 * Adds a house to the uncompiled lists.
+	 * @throws IllegalStateException if this set was already compiled.
+	 */
+	private void add(Kind kind, int[] cells, int sum) {
+		if(houses != null)
+			throw new IllegalStateException("Constraint set is already in use.");
+		kindList.add(kind);
+		cellList.add(cells);
+		sumList.add(sum);
+	}
+
+	/**
+	 * Compiles the houses into flat lookup tables. Called implicitly on first use.
+	 * @return this constraint set.
+	 */
+	public synchronized ConstraintSet compile() {
+		if(houses != null)
+			return this;
+		int n = cellList.size();
+		Kind[] kinds = kindList.toArray(new Kind[n]);
+		int[] sums = new int[n];
+		int[] count = new int[size*size];
+		for(int h=0; h<n; h++) {
+			sums[h] = sumList.get(h);
+			hasSums |= sums[h] != 0;
+			for(int i : cellList.get(h))
+				count[i]++;
+		}
+		int[][] housesOf = new int[size*size][];
+		for(int i=0; i<housesOf.length; i++)
+			housesOf[i] = new int[count[i]];
+		for(int h=0; h<n; h++)
+			for(int i : cellList.get(h))
+				housesOf[i][--count[i]] = h;
+		int[][] peersOf = new int[size*size][];
+		int[] mark = new int[size*size];
+		int[] buffer = new int[size*size];
+		for(int i=0; i<peersOf.length; i++) {
+			int peers = 0;
+			mark[i] = i+1;
+			for(int h : housesOf[i])
+				for(int j : cellList.get(h))
+					if(mark[j] != i+1) {
+						mark[j] = i+1;
+						buffer[peers++] = j;
+					}
+			peersOf[i] = Arrays.copyOf(buffer, peers);
+		}
+		this.kinds = kinds;
+		this.sums = sums;
+		this.housesOf = housesOf;
+		this.peersOf = peersOf;
+		this.houses = cellList.toArray(new int[n][]); // published last, marks the set as compiled
+		return this;
+	}
+
+	/**
+	 * @return this constraint set, compiled.
+	 */
+	private ConstraintSet compiled() {
+		return houses != null ? this : compile();
+	}
+
+	/**
+	 * @return {@link #size}
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return cells of every house.
+	 */
+	public int[][] getHouses() {
+		return compiled().houses;
+	}
+
+	/**
+	 * @return kind of every house.
+	 */
+	public Kind[] getKinds() {
+		return compiled().kinds;
+	}
+
+	/**
+	 * @return required sum of every house, 0 for none.
+	 */
+	public int[] getSums() {
+		return compiled().sums;
+	}
+
+	/**
+	 * @return indices of the houses containing every cell.
+	 */
+	public int[][] getHousesOf() {
+		return compiled().housesOf;
+	}
+
+	/**
+	 * @return indices of the cells sharing a house with every cell, excluding the cell itself.
+	 */
+	public int[][] getPeersOf() {
+		return compiled().peersOf;
+	}
+
+	/**
+	 * @return {@link #regionOf}
+	 */
+	public int[] getRegions() {
+		return regionOf;
+	}
+
+	/**
+	 * @return {@link #hasSums}
+	 */
+	public boolean hasSums() {
+		return compiled().hasSums;
+	}
+
+	/**
+	 * Determines whether a house must hold every value exactly once.
+	 * @param house index of the house.
+	 * @return true if the house is as large as the board, false if it only forbids repeats.
+	 */
+	public boolean isExact(int house) {
+		return getHouses()[house].length == size;
+	}
+}
@@ -0,0 +1,237 @@
+package edu.utep.cs.cs3331.ard.sudoku.model;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.Cell.State;
+import edu.utep.cs.cs3331.ard.sudoku.model.solver.AbstractSudokuSolver;
+
+/**
+ * Saves and loads games in a compact, versioned binary layout.
+ * <p>
+ * A saved game holds the cell values with their given flags, the candidate notes,
+ * the undo and redo histories, the input guide mode and the time played, in this order:
+ * <pre>
+ * magic "SDKS", version (short), size, guide mode (bytes), milliseconds played (long),
+ * size*size cells: value, 0x80 if given (bytes),
+ * count (int), then {cell index (short), notes (long)} for every cell with notes,
+ * count (int), then {length (short), values (shorts)} for every undo action, most recent first,
+ * the same for the redo actions.
+ * </pre>
+ * Games are written to a temporary file that then replaces the target, so that a crash
+ * never leaves a half-written save, and read through a memory-mapped buffer. Since
+ * {@link #encode(Board)} is separate from {@link #write(ByteBuffer, Path)}, an autosave can
+ * take its snapshot on the thread owning the board and write it on another one.
+ * <p>
+ * Only standard boards are saved: the houses of variants are not.
+ *
+ * @author Anthony DesArmier
+ * @version 1.1
+ */
+public final class GameFile {
+
+	/** First bytes of a saved game, "SDKS". */
+	private static final int MAGIC = 0x53444B53;
+	/** Layout version of saved games. */
+	private static final short VERSION = 1;
+	/** Length of the header: magic, version, size, guide mode and time played. */
+	private static final int HEADER = 4 + 2 + 1 + 1 + 8;
+	/** Flag of a given cell. */
+	private static final int FIXED = 0x80;
+
+	private GameFile() {}
+
+	/**
+	 * Saves a game.
+	 * @param board board of the game.
+	 * @param file file to save to, replaced if it exists.
+	 * @throws IOException if an I/O error occurs.
+	 * @throws IllegalArgumentException if the board is a variant.
+	 */
+	public static void save(Board board, Path file) throws IOException {
+		write(encode(board), file);
+	}
+
+	/**
+	 * Encodes a game in memory, to be {@link #write(ByteBuffer, Path) written} later.
+	 * @param board board of the game.
+	 * @return saved game, ready to be read.
+	 * @throws IllegalArgumentException if the board is a variant.
+	 */
+	public static ByteBuffer encode(Board board) {
+		int size = board.getSize();
+		ConstraintSet constraints = board.getConstraints();
+		if (!Arrays.deepEquals(constraints.getHouses(), ConstraintSet.standard(size).getHouses()))
+			throw new IllegalArgumentException("Only standard boards can be saved"); // jigsaws have as many houses
+		List<Cell> grid = board.getGrid();
+		List<int[]> undo = board.getUndoActions();
+		List<int[]> redo = board.getRedoActions();
+		int noted = 0;
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				if (board.getNotes(x, y) != 0)
+					noted++;
+		ByteBuffer data = ByteBuffer.allocate(HEADER + grid.size() + 4 + 10 * noted + length(undo) + length(redo));
+		data.putInt(MAGIC).putShort(VERSION).put((byte) size).put((byte) board.getGuideMode()).putLong(board.getElapsedMillis());
+		for (Cell cell : grid)
+			data.put((byte) (cell.getValue() | (cell.getState(State.FIXED) ? FIXED : 0)));
+		data.putInt(noted);
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				if (board.getNotes(x, y) != 0)
+					data.putShort((short) (x * size + y)).putLong(board.getNotes(x, y));
+		putActions(data, undo);
+		putActions(data, redo);
+		data.flip();
+		return data;
+	}
+
+	/**
+	 * Writes an encoded game, replacing the file at once.
+	 * @param data saved game, as returned by {@link #encode(Board)}; left unchanged.
+	 * @param file file to save to, replaced if it exists.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void write(ByteBuffer data, Path file) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = data.duplicate();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(false);
+		}
+		try {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Loads a game.
+	 * @param file saved game.
+	 * @return board of the game, its clock running from the time played.
+	 * @throws IOException if the file cannot be read or is not a valid saved game.
+	 */
+	public static Board load(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Decodes a saved game.
+	 * @param data saved game.
+	 * @return board of the game.
+	 * @throws IOException if the data is not a valid saved game.
+	 */
+	public static Board decode(ByteBuffer data) throws IOException {
+		try {
+			if (data.getInt() != MAGIC)
+				throw new IOException("Not a saved game");
+			if (data.getShort() != VERSION)
+				throw new IOException("Unsupported saved game version");
+			int size = data.get();
+			int guideMode = data.get();
+			long elapsed = data.getLong();
+			if (size < 1 || size > AbstractSudokuSolver.MAX_SIZE || guideMode < 0 || guideMode > 2)
+				throw new IOException("Corrupt saved game");
+			int cells = size * size;
+			int[] tuples = new int[4 * cells];
+			int t = 0;
+			for (int i = 0; i < cells; i++) {
+				int cell = data.get() & 0xFF;
+				if ((cell & ~FIXED) == 0)
+					continue;
+				tuples[t++] = i % size; // x, as written by Board.toArr()
+				tuples[t++] = i / size; // y
+				tuples[t++] = cell & ~FIXED;
+				tuples[t++] = (cell & FIXED) != 0 ? 1 : 0;
+			}
+			long[] notes = new long[cells];
+			for (int n = count(data, 10); n > 0; n--) {
+				int index = data.getShort();
+				if (index < 0 || index >= cells)
+					throw new IOException("Corrupt saved game");
+				notes[index] = data.getLong();
+			}
+			List<int[]> undo = getActions(data, size);
+			List<int[]> redo = getActions(data, size);
+			Board board = new Board(size, Arrays.copyOf(tuples, t));
+			board.restore(notes, undo, redo, guideMode, elapsed);
+			return board;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated saved game");
+		}
+	}
+
+	/** @return number of bytes taken by a list of actions. */
+	private static int length(List<int[]> actions) {
+		int length = 4;
+		for (int[] action : actions)
+			length += 2 + 2 * action.length;
+		return length;
+	}
+
+	/** Writes a list of actions. */
+	private static void putActions(ByteBuffer data, List<int[]> actions) {
+		data.putInt(actions.size());
+		for (int[] action : actions) {
+			data.putShort((short) action.length);
+			for (int value : action)
+				data.putShort((short) value);
+		}
+	}
+
+	/**
+	 * Reads a list of actions, checking that they can be applied to a board.
+	 * @param size size of the board.
+	 * @return actions read.
+	 * @throws IOException if an action is malformed.
+	 */
+	private static List<int[]> getActions(ByteBuffer data, int size) throws IOException {
+		int count = count(data, 10);
+		List<int[]> actions = new ArrayList<>(count);
+		for (int n = 0; n < count; n++) {
+			int length = data.getShort();
+			if (length < 4 || length * 2 > data.remaining())
+				throw new IOException("Corrupt saved game");
+			int[] action = new int[length];
+			for (int i = 0; i < length; i++)
+				action[i] = data.getShort();
+			boolean valid = action[0] >= 0 && action[0] < size && action[1] >= 0 && action[1] < size
+					&& (action[3] == 0 ? length >= 5 && action[2] >= 0 && action[2] <= size && action[4] >= 0 && action[4] <= size
+							: action[3] == 1 && length == 4 && action[2] >= 1 && action[2] <= size);
+			for (int i = 5; valid && i < length; i++) // cells whose note toggles back with the value
+				valid = action[i] >= 0 && action[i] < size * size;
+			if (!valid)
+				throw new IOException("Corrupt saved game");
+			actions.add(action);
+		}
+		return actions;
+	}
+
+	/**
+	 * Reads the count of a list.
+	 * @param entry bytes taken by the smallest entry of the list.
+	 * @return count read.
+	 * @throws IOException if the count is negative or exceeds the data left.
+	 */
+	private static int count(ByteBuffer data, int entry) throws IOException {
+		int count = data.getInt();
+		if (count < 0 || (long) count * entry > data.remaining())
+			throw new IOException("Corrupt saved game");
+		return count;
+	}
+}
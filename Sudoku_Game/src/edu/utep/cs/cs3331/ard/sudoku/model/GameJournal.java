@@ -0,0 +1,556 @@
+package edu.utep.cs.cs3331.ard.sudoku.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.Cell.State;
+
+/**
+ * Append-only binary journal of the moves made on boards and of other game events,
+ * such as network messages.
+ * <p>
+ * The journal starts with a header holding its start time, followed by records:
+ * <ul>
+ * <li>a board, written when a game starts: the value of every cell, given cells flagged;</li>
+ * <li>a move: the index and new value of a cell, written by a {@link Board} the journal is
+ *   {@link Board#setRecorder(GameJournal) attached} to, whatever changed the cell;</li>
+ * <li>an event: a code chosen by the caller and three arguments;</li>
+ * <li>a snapshot, written every {@link #getInterval() interval} moves: a board record
+ *   that only serves seeking.</li>
+ * </ul>
+ * Every record carries the milliseconds elapsed since the start of the journal. Moves are
+ * numbered from 1 across the whole journal, so that {@link Replay#seek(int) seeking} to
+ * a move reads the last board or snapshot before it and replays at most an interval of
+ * moves, however long the session. A record cut short by a crash is dropped when the
+ * journal is reopened.
+ * <p>
+ * Recording never throws: an I/O error stops the journal, and is reported by
+ * {@link #checkError()} and {@link #close()}, so that a full disk does not stop the game.
+ *
+ * @author Anthony DesArmier
+ * @version 1.1
+ */
+public final class GameJournal implements Closeable {
+
+	/** Default number of moves between two snapshots. */
+	public static final int DEFAULT_INTERVAL = 64;
+
+	/** First bytes of a journal, "SDKJ". */
+	private static final int MAGIC = 0x53444B4A;
+	/** Format version of the journal. */
+	private static final short VERSION = 1;
+	/** Length of the header: magic, version and start time. */
+	private static final int HEADER = 4 + 2 + 8;
+	/** Kind of a board record starting a game. */
+	private static final byte BOARD = 1;
+	/** Kind of a snapshot record. */
+	private static final byte SNAPSHOT = 2;
+	/** Kind of a move record. */
+	private static final byte MOVE = 3;
+	/** Kind of an event record. */
+	private static final byte EVENT = 4;
+	/** Length of a move record: kind, time, cell index and value. */
+	private static final int MOVE_LENGTH = 1 + 4 + 2 + 1;
+	/** Length of an event record: kind, time, code and arguments. */
+	private static final int EVENT_LENGTH = 1 + 4 + 1 + 3 * 4;
+	/** Length of a board or snapshot record, cells excluded: kind, time, move and size. */
+	private static final int BOARD_LENGTH = 1 + 4 + 4 + 1;
+	/** Flag of a given cell in board records. */
+	private static final int FIXED = 0x80;
+
+	private final FileChannel channel;
+	/** Buffer of the record being written. */
+	private ByteBuffer buffer = ByteBuffer.allocate(256);
+	/** Start time of the journal, in milliseconds since the epoch. */
+	private final long start;
+	/** Number of moves between two snapshots. */
+	private final int interval;
+	/** Number of moves recorded. */
+	private int moves;
+	/** Number of moves recorded since the last board or snapshot. */
+	private int sinceSnapshot;
+	/** Error that stopped the journal, null if none. */
+	private IOException error;
+
+	private GameJournal(FileChannel channel, long start, int moves, int interval) {
+		this.channel = channel;
+		this.start = start;
+		this.moves = moves;
+		this.interval = Math.max(1, interval);
+	}
+
+	/**
+	 * Opens a journal with the {@link #DEFAULT_INTERVAL default interval} between snapshots.
+	 * @see #open(Path, int)
+	 */
+	public static GameJournal open(Path file) throws IOException {
+		return open(file, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Opens a journal to append to, creating it if needed.
+	 * @param file journal file.
+	 * @param interval number of moves between two snapshots.
+	 * @return journal, to be closed.
+	 * @throws IOException if the file cannot be opened or is not a journal.
+	 */
+	public static GameJournal open(Path file, int interval) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (channel.size() == 0) {
+				long start = System.currentTimeMillis();
+				ByteBuffer header = ByteBuffer.allocate(HEADER);
+				header.putInt(MAGIC).putShort(VERSION).putLong(start).flip();
+				while (header.hasRemaining())
+					channel.write(header);
+				return new GameJournal(channel, start, 0, interval);
+			}
+			long[] scan = scan(channel); // read, not mapped: a mapped file cannot be truncated on Windows
+			channel.truncate(scan[1]); // drop a record cut short
+			channel.position(scan[1]);
+			return new GameJournal(channel, scan[0], (int) scan[2], interval);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads a journal up to its last complete record.
+	 * @param channel journal.
+	 * @return start time, position after the last complete record and number of moves.
+	 * @throws IOException if an I/O error occurs or the file is not a journal.
+	 */
+	private static long[] scan(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16); // larger than any record
+		while (buffer.position() < HEADER && channel.read(buffer, buffer.position()) >= 0);
+		buffer.flip();
+		if (buffer.remaining() < HEADER || buffer.getInt() != MAGIC || buffer.getShort() != VERSION)
+			throw new IOException("Not a game journal");
+		long start = buffer.getLong();
+		long base = 0; // position of the buffer in the file
+		int moves = 0;
+		boolean eof = false;
+		while (true) {
+			for (int next; (next = skip(buffer, buffer.position())) > 0; buffer.position(next))
+				if (buffer.get(buffer.position()) == MOVE)
+					moves++;
+			if (eof || buffer.remaining() > BOARD_LENGTH + Byte.MAX_VALUE * Byte.MAX_VALUE) // no record is that long
+				return new long[] {start, base + buffer.position(), moves};
+			base += buffer.position();
+			buffer.compact();
+			while (!eof && buffer.hasRemaining())
+				eof = channel.read(buffer, base + buffer.position()) < 0;
+			buffer.flip();
+		}
+	}
+
+	/**
+	 * Returns the position after a record.
+	 * @param buffer journal, or part of it.
+	 * @param position position of the record in the buffer.
+	 * @return position of the next record, or -1 if the record is incomplete or unknown.
+	 */
+	private static int skip(ByteBuffer buffer, int position) {
+		int limit = buffer.limit();
+		if (position >= limit)
+			return -1;
+		int length;
+		switch (buffer.get(position)) {
+		case MOVE: length = MOVE_LENGTH; break;
+		case EVENT: length = EVENT_LENGTH; break;
+		case BOARD:
+		case SNAPSHOT:
+			if (position + BOARD_LENGTH > limit)
+				return -1;
+			int side = buffer.get(position + BOARD_LENGTH - 1);
+			length = BOARD_LENGTH + side * side;
+			break;
+		default: return -1;
+		}
+		return position + length <= limit ? position + length : -1;
+	}
+
+	/**
+	 * Opens a journal to replay.
+	 * @param file journal file.
+	 * @return replay, to be closed.
+	 * @throws IOException if the file cannot be read or is not a journal.
+	 */
+	public static Replay read(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return new Replay(channel);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return {@link #interval}
+	 */
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return {@link #moves}
+	 */
+	public synchronized int getMoveCount() {
+		return moves;
+	}
+
+	/**
+	 * Records the start of a game on a board.
+	 * @param board board of the game, in its starting state.
+	 */
+	public synchronized void board(Board board) {
+		writeBoard(BOARD, board);
+	}
+
+	/**
+	 * Records the new value of a cell, and a snapshot every {@link #interval} moves.
+	 * Called by the board the journal is attached to.
+	 * @param board board whose cell changed.
+	 * @param index index of the cell.
+	 * @param value new value of the cell.
+	 */
+	synchronized void moved(Board board, int index, int value) {
+		ByteBuffer buffer = record(MOVE, MOVE_LENGTH);
+		buffer.putShort((short) index).put((byte) value);
+		moves++;
+		write();
+		if (++sinceSnapshot >= interval)
+			writeBoard(SNAPSHOT, board);
+	}
+
+	/**
+	 * Records an event.
+	 * @param code code of the event, chosen by the caller; only its low 8 bits are kept.
+	 * @param x first argument.
+	 * @param y second argument.
+	 * @param z third argument.
+	 */
+	public synchronized void event(int code, int x, int y, int z) {
+		ByteBuffer buffer = record(EVENT, EVENT_LENGTH);
+		buffer.put((byte) code).putInt(x).putInt(y).putInt(z);
+		write();
+	}
+
+	/**
+	 * Writes a board or snapshot record.
+	 * @param kind {@link #BOARD} or {@link #SNAPSHOT}.
+	 * @param board board to record.
+	 */
+	private void writeBoard(byte kind, Board board) {
+		List<Cell> grid = board.getGrid();
+		ByteBuffer buffer = record(kind, BOARD_LENGTH + grid.size());
+		buffer.putInt(moves).put((byte) board.getSize());
+		for (Cell cell : grid)
+			buffer.put((byte) (cell.getValue() | (cell.getState(State.FIXED) ? FIXED : 0)));
+		sinceSnapshot = 0;
+		write();
+	}
+
+	/**
+	 * Starts a record in {@link #buffer}.
+	 * @param kind kind of the record.
+	 * @param length length of the record.
+	 * @return buffer holding the kind and time of the record.
+	 */
+	private ByteBuffer record(byte kind, int length) {
+		if (buffer.capacity() < length)
+			buffer = ByteBuffer.allocate(Math.max(length, 2 * buffer.capacity()));
+		buffer.clear();
+		return buffer.put(kind).putInt((int) (System.currentTimeMillis() - start));
+	}
+
+	/** Appends the record of {@link #buffer}, unless the journal is stopped. */
+	private void write() {
+		if (error != null)
+			return;
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * @return true if an I/O error stopped the journal.
+	 */
+	public synchronized boolean checkError() {
+		return error != null;
+	}
+
+	/**
+	 * Forces the records to the storage device.
+	 * @throws IOException if an I/O error stopped the journal or occurs.
+	 */
+	public synchronized void force() throws IOException {
+		if (error != null)
+			throw error;
+		channel.force(false);
+	}
+
+	/**
+	 * Closes the journal.
+	 * @throws IOException if an I/O error stopped the journal or occurs.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Receives the records replayed by {@link Replay#replay(int, int, Listener)}.
+	 */
+	public interface Listener {
+
+		/**
+		 * Receives a move.
+		 * @param move number of the move.
+		 * @param x x coordinate of the cell.
+		 * @param y y coordinate of the cell.
+		 * @param value new value of the cell.
+		 * @param time milliseconds since the start of the journal.
+		 */
+		void moved(int move, int x, int y, int value, long time);
+
+		/**
+		 * Receives the start of a game.
+		 * @param move number of the last move before the game.
+		 * @param board board of the game, in its starting state.
+		 * @param time milliseconds since the start of the journal.
+		 */
+		default void started(int move, Board board, long time) {}
+
+		/**
+		 * Receives an event.
+		 * @param code code of the event, as recorded.
+		 * @param x first argument.
+		 * @param y second argument.
+		 * @param z third argument.
+		 * @param time milliseconds since the start of the journal.
+		 */
+		default void event(int code, int x, int y, int z, long time) {}
+	}
+
+	/**
+	 * Read-only view of a journal, indexed by board and snapshot records for seeking.
+	 * <p>
+	 * The journal is mapped in memory. A journal still being written, like the game a
+	 * spectator follows, is read further by {@link #refresh()}.
+	 */
+	public static final class Replay implements Closeable {
+
+		private final FileChannel channel;
+		/** Mapped journal, up to {@link #end}. */
+		private MappedByteBuffer map;
+		/** Start time of the journal, in milliseconds since the epoch. */
+		private final long start;
+		/** Position after the last complete record. */
+		private int end;
+		/** Number of moves read. */
+		private int moves;
+		/** Size of the board of the last board or snapshot record read. */
+		private int size;
+		/** Number of board and snapshot records read. */
+		private int snapshots;
+		/** Number of moves before each board or snapshot record. */
+		private int[] snapshotMoves = new int[16];
+		/** Position of each board or snapshot record. */
+		private int[] snapshotPositions = new int[16];
+
+		private Replay(FileChannel channel) throws IOException {
+			this.channel = channel;
+			if (channel.size() < HEADER)
+				throw new IOException("Not a game journal");
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			while (header.hasRemaining() && channel.read(header, header.position()) >= 0);
+			header.flip();
+			if (header.getInt() != MAGIC || header.getShort() != VERSION)
+				throw new IOException("Not a game journal");
+			start = header.getLong();
+			end = HEADER;
+			refresh();
+		}
+
+		/**
+		 * Reads the records appended since the journal was opened or last refreshed.
+		 * @return true if records were appended.
+		 * @throws IOException if an I/O error occurs.
+		 */
+		public synchronized boolean refresh() throws IOException {
+			long length = Math.min(channel.size(), Integer.MAX_VALUE);
+			if (map != null && length == map.capacity())
+				return false;
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			int before = end;
+			int position = end;
+			for (int next; (next = skip(position)) > 0; position = next) {
+				byte kind = map.get(position);
+				if (kind == MOVE)
+					moves++;
+				else if (kind == BOARD || kind == SNAPSHOT) {
+					if (snapshots == snapshotMoves.length) {
+						snapshotMoves = Arrays.copyOf(snapshotMoves, 2 * snapshots);
+						snapshotPositions = Arrays.copyOf(snapshotPositions, 2 * snapshots);
+					}
+					snapshotMoves[snapshots] = moves;
+					snapshotPositions[snapshots++] = position;
+					size = map.get(position + BOARD_LENGTH - 1);
+				}
+			}
+			end = position;
+			return end > before;
+		}
+
+		/**
+		 * Returns the position after a record.
+		 * @param position position of the record.
+		 * @return position of the next record, or -1 if the record is incomplete or unknown.
+		 */
+		private int skip(int position) {
+			return GameJournal.skip(map, position);
+		}
+
+		/**
+		 * @return start time of the journal, in milliseconds since the epoch.
+		 */
+		public long getStartTime() {
+			return start;
+		}
+
+		/**
+		 * @return number of moves read.
+		 */
+		public synchronized int getMoveCount() {
+			return moves;
+		}
+
+		/**
+		 * Rebuilds the board as it was after a move, from the last board or snapshot record
+		 * before that move and at most a snapshot interval of moves.
+		 * @param move number of the move, 0 for the start of the journal.
+		 * @return board after the move, or null if no game was started by then.
+		 * @throws IndexOutOfBoundsException if the move was not read.
+		 */
+		public synchronized Board seek(int move) {
+			if (move < 0 || move > moves)
+				throw new IndexOutOfBoundsException("Move " + move + " of " + moves);
+			int s = lastSnapshot(move);
+			if (s < 0)
+				return null;
+			int position = snapshotPositions[s];
+			Board board = board(position);
+			int[] changes = new int[2 * (move - snapshotMoves[s])];
+			for (int n = 0; n < changes.length; position = skip(position))
+				if (map.get(position) == MOVE) {
+					changes[n++] = map.getShort(position + 5);
+					changes[n++] = map.get(position + 7);
+				}
+			board.applyChanges(changes, 0);
+			return board;
+		}
+
+		/**
+		 * Replays the records between two moves.
+		 * @param from number of the move to replay from, excluded: the records after it are replayed.
+		 * @param to number of the last move to replay: the records up to the next move are replayed.
+		 * @param listener receives the moves, games started and events, in order.
+		 * @throws IndexOutOfBoundsException if a move was not read.
+		 */
+		public synchronized void replay(int from, int to, Listener listener) {
+			if (from < 0 || from > to || to > moves)
+				throw new IndexOutOfBoundsException("Moves " + from + " to " + to + " of " + moves);
+			int s = from > 0 ? lastSnapshot(from - 1) : -1; // before the records following move from
+			int position = s < 0 ? HEADER : snapshotPositions[s];
+			int m = s < 0 ? 0 : snapshotMoves[s];
+			int size = 0;
+			for (; position < end; position = skip(position)) {
+				byte kind = map.get(position);
+				long time = map.getInt(position + 1) & 0xFFFFFFFFL;
+				if (kind == MOVE && m == to)
+					break;
+				switch (kind) {
+				case BOARD:
+				case SNAPSHOT:
+					size = map.get(position + BOARD_LENGTH - 1);
+					if (kind == BOARD && m >= from)
+						listener.started(m, board(position), time);
+					break;
+				case MOVE:
+					if (++m > from && size > 0) {
+						int index = map.getShort(position + 5);
+						listener.moved(m, index / size, index % size, map.get(position + 7), time);
+					}
+					break;
+				default:
+					if (m >= from)
+						listener.event(map.get(position + 5) & 0xFF, map.getInt(position + 6),
+								map.getInt(position + 10), map.getInt(position + 14), time);
+				}
+			}
+		}
+
+		/**
+		 * @return index of the last board or snapshot record at or before a move, -1 if none.
+		 */
+		private int lastSnapshot(int move) {
+			int i = Arrays.binarySearch(snapshotMoves, 0, snapshots, move);
+			if (i < 0)
+				return -i - 2;
+			while (i + 1 < snapshots && snapshotMoves[i + 1] == move)
+				i++; // the last of several records at the same move
+			return i;
+		}
+
+		/**
+		 * Reads a board or snapshot record.
+		 * @param position position of the record.
+		 * @return board of the record.
+		 */
+		private Board board(int position) {
+			int size = map.get(position + BOARD_LENGTH - 1);
+			int cells = size * size;
+			int filled = 0;
+			for (int i = 0; i < cells; i++)
+				if ((map.get(position + BOARD_LENGTH + i) & ~FIXED) != 0)
+					filled++;
+			int[] tuples = new int[4 * filled];
+			int t = 0;
+			for (int i = 0; i < cells; i++) {
+				int cell = map.get(position + BOARD_LENGTH + i) & 0xFF;
+				if ((cell & ~FIXED) == 0)
+					continue;
+				tuples[t++] = i % size; // x, as written by Board.toArr()
+				tuples[t++] = i / size; // y
+				tuples[t++] = cell & ~FIXED;
+				tuples[t++] = (cell & FIXED) != 0 ? 1 : 0;
+			}
+			return new Board(size, tuples);
+		}
+
+		/**
+		 * Closes the replay.
+		 * @throws IOException if an I/O error occurs.
+		 */
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
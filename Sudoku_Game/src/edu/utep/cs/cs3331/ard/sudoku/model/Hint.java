@@ -0,0 +1,135 @@
+package edu.utep.cs.cs3331.ard.sudoku.model;
+
+/**
+ * A single logical step towards solving a Sudoku game board, as found by a {@link HintEngine}.
+ * <p>
+ * A hint either places {@link #value} into its first cell, or removes the candidates
+ * {@link #removed} from every cell in {@link #eliminations}.
+ * Cells are indexed as x*size+y, the same as {@link Board#getGrid()}.
+ *
+ * @author      Anthony DesArmier
+ * @version     1.0
+ */
+public class Hint {
+
+	/** Deduction techniques, from simplest to hardest. */
+	public enum Technique {
+		/** A cell has a single candidate left. */
+		NAKED_SINGLE("Naked single"),
+		/** A value fits a single cell of a house. */
+		HIDDEN_SINGLE("Hidden single"),
+		/** The candidates of a value within a house all lie in a second house. */
+		LOCKED_CANDIDATES("Locked candidates"),
+		/** Two cells of a house share the same two candidates. */
+		NAKED_PAIR("Naked pair"),
+		/** No logical step was found, the value is taken from the solution. */
+		SOLUTION("Solution"),
+		/** A cell has no candidates left, an earlier entry is wrong. */
+		CONTRADICTION("Contradiction");
+
+		/** Readable name of the technique. */
+		private final String name;
+
+		Technique(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/** Technique this hint was deduced with. */
+	private final Technique technique;
+	/** Cells the deduction is based on, the first one receiving {@link #value} if placing. */
+	private final int[] cells;
+	/** Value to place or eliminate, 0 for none. */
+	private final int value;
+	/** Cells losing candidates. */
+	private final int[] eliminations;
+	/** Candidates removed from every cell of {@link #eliminations}, bit (n-1) for value n. */
+	private final long removed;
+	/** Dimension of the board the hint was found on. */
+	private final int size;
+
+	/**
+	 * Creates a hint.
+	 * @param technique {@link #technique}
+	 * @param cells {@link #cells}
+	 * @param value {@link #value}
+	 * @param eliminations {@link #eliminations}
+	 * @param removed {@link #removed}
+	 * @param size {@link #size}
+	 */
+	Hint(Technique technique, int[] cells, int value, int[] eliminations, long removed, int size) {
+		this.technique = technique;
+		this.cells = cells;
+		this.value = value;
+		this.eliminations = eliminations;
+		this.removed = removed;
+		this.size = size;
+	}
+
+	/**
+	 * @return {@link #technique}
+	 */
+	public Technique getTechnique() {
+		return technique;
+	}
+
+	/**
+	 * @return {@link #cells}
+	 */
+	public int[] getCells() {
+		return cells.clone();
+	}
+
+	/**
+	 * @return {@link #value}
+	 */
+	public int getValue() {
+		return value;
+	}
+
+	/**
+	 * @return {@link #eliminations}
+	 */
+	public int[] getEliminations() {
+		return eliminations.clone();
+	}
+
+	/**
+	 * @return {@link #removed}
+	 */
+	public long getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Determines whether this hint places a value rather than eliminating candidates.
+	 * @return true if {@link #value} goes into the first of {@link #cells}, false otherwise.
+	 */
+	public boolean isPlacement() {
+		return eliminations.length == 0 && technique != Technique.CONTRADICTION;
+	}
+
+	/**
+	 * @return x, y coordinates of the first cell of this hint.
+	 */
+	public int[] getTarget() {
+		return new int[] {cells[0]/size, cells[0]%size};
+	}
+
+	@Override
+	public String toString() {
+		int[] target = getTarget();
+		String at = String.format("(%d, %d)", target[0]+1, target[1]+1);
+		switch (technique) {
+			case CONTRADICTION: return technique + ": no value fits " + at;
+			case LOCKED_CANDIDATES: return technique + ": " + value + " can be removed from " + eliminations.length + " cells";
+			case NAKED_PAIR: return technique + " at " + at + ": removes candidates from " + eliminations.length + " cells";
+			default: return technique + ": " + value + " goes at " + at;
+		}
+	}
+}
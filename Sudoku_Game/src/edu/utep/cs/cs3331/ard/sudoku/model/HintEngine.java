@@ -0,0 +1,304 @@
+package edu.utep.cs.cs3331.ard.sudoku.model;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.Hint.Technique;
+import edu.utep.cs.cs3331.ard.sudoku.model.solver.AbstractSudokuSolver;
+
+/**
+ * Finds the next human-style deduction on a Sudoku game board.
+ * <p>
+ * The engine keeps a candidate bitmask for every cell, bit (n-1) set for every value n
+ * that may still go there. Its {@link Board} reports every value change, and a placement
+ * only clears one bit from the peers of the cell, so candidates are never rebuilt from
+ * scratch while the game moves forward. Removing or replacing a value rebuilds them lazily
+ * on the next hint. Eliminations found by a hint are kept, so the following hint moves on.
+ * <p>
+ * Techniques are tried from simplest to hardest; when none applies the value is taken from the solver.
+ * They run on a copy of the values and candidates, outside the lock the board takes to report
+ * its changes, so that moves made meanwhile never wait for a long search.
+ *
+ * @author      Anthony DesArmier
+ * @version     1.1
+ */
+public class HintEngine {
+
+	/** Worker thread computing hints off the event dispatch thread. */
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "hint-engine");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** Houses the values of the board must satisfy. */
+	private final ConstraintSet constraints;
+	/** Dimension of the board. */
+	private final int size;
+	/** Mask of every value of the board. */
+	private final long full;
+	/** Cell indices of every house. */
+	private final int[][] houses;
+	/** House indices of every cell. */
+	private final int[][] housesOf;
+	/** Cells sharing a house with every cell. */
+	private final int[][] peersOf;
+	/** Indices of the houses holding every value exactly once. */
+	private final int[] exact;
+	/** Cell values, mirrored from the board. */
+	private final int[] values;
+	/** Candidates of every cell, 0 for filled cells. */
+	private final long[] cand;
+	/** Whether {@link #cand} must be rebuilt before the next hint. */
+	private boolean stale;
+	/** Number of value changes recorded, to tell whether a hint was computed on current values. */
+	private long changes;
+
+	/**
+	 * Creates a hint engine for the current values of a board.
+	 * @param constraints houses the values of the board must satisfy.
+	 * @param values cell values of the board.
+	 */
+	HintEngine(ConstraintSet constraints, int[] values) {
+		this.constraints = constraints;
+		this.size = constraints.getSize();
+		this.full = size == 64 ? -1L : (1L << size) - 1;
+		this.houses = constraints.getHouses();
+		this.housesOf = constraints.getHousesOf();
+		this.peersOf = constraints.getPeersOf();
+		int exacts = 0;
+		for(int h=0; h<houses.length; h++)
+			if(constraints.isExact(h))
+				exacts++;
+		exact = new int[exacts];
+		for(int h=0, e=0; h<houses.length; h++)
+			if(constraints.isExact(h))
+				exact[e++] = h;
+		this.values = values.clone();
+		this.cand = new long[values.length];
+		this.stale = true;
+	}
+
+	/**
+	 * Records a value change of the board.
+	 * @param index cell index.
+	 * @param old previous value of the cell.
+	 * @param value new value of the cell.
+	 */
+	synchronized void cellChanged(int index, int old, int value) {
+		values[index] = value;
+		changes++;
+		if(old!=0 || stale) { // earlier deductions may no longer hold
+			stale = true;
+			return;
+		}
+		long b = ~(1L << (value-1));
+		cand[index] = 0;
+		for(int p : peersOf[index])
+			cand[p] &= b;
+	}
+
+	/**
+	 * Computes the next hint off the event dispatch thread.
+	 * @return future completed with the next hint, or null if the board is full.
+	 */
+	public CompletableFuture<Hint> requestHint() {
+		return CompletableFuture.supplyAsync(this::nextHint, EXECUTOR);
+	}
+
+	/**
+	 * Finds the simplest next deduction.
+	 * @return next hint, or null if the board is full.
+	 */
+	public Hint nextHint() {
+		int[] values;
+		long[] cand;
+		long seen;
+		synchronized(this) {
+			if(stale)
+				rebuild();
+			values = this.values.clone();
+			cand = this.cand.clone();
+			seen = changes;
+		}
+		Hint hint = nakedSingle(values, cand);
+		if(hint == null)
+			hint = hiddenSingle(cand);
+		if(hint == null)
+			hint = lockedCandidates(cand);
+		if(hint == null)
+			hint = nakedPair(cand);
+		if(hint == null)
+			hint = solution(values, cand);
+		if(hint != null && hint.getEliminations().length > 0)
+			synchronized(this) {
+				if(changes == seen) // otherwise rebuilt or narrowed, found again if still useful
+					for(int i : hint.getEliminations())
+						this.cand[i] &= ~hint.getRemoved();
+			}
+		return hint;
+	}
+
+	/** Recomputes every candidate from the cell values. */
+	private void rebuild() {
+		for(int i=0; i<values.length; i++) {
+			if(values[i]!=0) {
+				cand[i] = 0;
+				continue;
+			}
+			long m = full;
+			for(int p : peersOf[i])
+				if(values[p]!=0)
+					m &= ~(1L << (values[p]-1));
+			cand[i] = m;
+		}
+		stale = false;
+	}
+
+	/** @return hint placing the only candidate of a cell, or a contradiction if a cell has none. */
+	private Hint nakedSingle(int[] values, long[] cand) {
+		for(int i=0; i<values.length; i++) {
+			if(values[i]!=0)
+				continue;
+			if(cand[i]==0)
+				return new Hint(Technique.CONTRADICTION, new int[] {i}, 0, new int[0], 0, size);
+			if(Long.bitCount(cand[i])==1)
+				return place(Technique.NAKED_SINGLE, i, cand[i]);
+		}
+		return null;
+	}
+
+	/** @return hint placing a value that fits a single cell of a house. */
+	private Hint hiddenSingle(long[] cand) {
+		for(int h : exact) {
+			long once = 0, twice = 0;
+			for(int i : houses[h]) {
+				twice |= once & cand[i];
+				once |= cand[i];
+			}
+			long single = once & ~twice;
+			if(single != 0) {
+				long b = Long.lowestOneBit(single);
+				for(int i : houses[h])
+					if((cand[i] & b) != 0)
+						return place(Technique.HIDDEN_SINGLE, i, b);
+			}
+		}
+		return null;
+	}
+
+	/** @return hint removing a value from a house when all of its places in another house lie in the intersection. */
+	private Hint lockedCandidates(long[] cand) {
+		for(int a : exact) {
+			int[] house = houses[a];
+			for(long left = full; left != 0; left &= left - 1) {
+				long b = Long.lowestOneBit(left);
+				int first = -1, count = 0;
+				for(int i : house)
+					if((cand[i] & b) != 0) {
+						if(first < 0)
+							first = i;
+						count++;
+					}
+				if(count < 2)
+					continue;
+				for(int other : housesOf[first]) {
+					if(other == a || !containsAll(other, house, b, cand))
+						continue;
+					int[] targets = new int[houses[other].length];
+					int n = 0;
+					for(int j : houses[other])
+						if((cand[j] & b) != 0 && !contains(house, j))
+							targets[n++] = j;
+					if(n > 0)
+						return new Hint(Technique.LOCKED_CANDIDATES, cells(house, b, cand),
+								Long.numberOfTrailingZeros(b)+1, trim(targets, n), b, size);
+				}
+			}
+		}
+		return null;
+	}
+
+	/** @return hint removing the values of two matching two-candidate cells from the rest of their house. */
+	private Hint nakedPair(long[] cand) {
+		for(int h=0; h<houses.length; h++) {
+			int[] house = houses[h];
+			for(int x=0; x<house.length; x++) {
+				long pair = cand[house[x]];
+				if(Long.bitCount(pair) != 2)
+					continue;
+				for(int y=x+1; y<house.length; y++) {
+					if(cand[house[y]] != pair)
+						continue;
+					int[] targets = new int[house.length];
+					int n = 0;
+					for(int j : house)
+						if(j != house[x] && j != house[y] && (cand[j] & pair) != 0)
+							targets[n++] = j;
+					if(n > 0)
+						return new Hint(Technique.NAKED_PAIR, new int[] {house[x], house[y]}, 0, trim(targets, n), pair, size);
+				}
+			}
+		}
+		return null;
+	}
+
+	/** @return hint placing the solution value of the most constrained empty cell, or null if there is no solution. */
+	private Hint solution(int[] values, long[] cand) {
+		int best = -1;
+		for(int i=0; i<values.length; i++)
+			if(values[i]==0 && (best < 0 || Long.bitCount(cand[i]) < Long.bitCount(cand[best])))
+				best = i;
+		if(best < 0)
+			return null;
+		int[][] sudoku = new int[size][size];
+		for(int i=0; i<values.length; i++)
+			sudoku[i/size][i%size] = values[i];
+		AbstractSudokuSolver solver = AbstractSudokuSolver.forConstraints(constraints);
+		int[][] solved = solver.solve(sudoku);
+		if(solved.length < size && solved[0][0] > 1) // not unique, any solution will do
+			solved = solver.generate(sudoku);
+		if(solved.length < size)
+			return new Hint(Technique.CONTRADICTION, new int[] {best}, 0, new int[0], 0, size);
+		return place(Technique.SOLUTION, best, 1L << (solved[best/size][best%size]-1));
+	}
+
+	/** @return placement hint of a single candidate bit. */
+	private Hint place(Technique technique, int cell, long bit) {
+		return new Hint(technique, new int[] {cell}, Long.numberOfTrailingZeros(bit)+1, new int[0], 0, size);
+	}
+
+	/** @return whether every cell of a house holding a candidate bit lies in another house. */
+	private boolean containsAll(int other, int[] house, long b, long[] cand) {
+		for(int i : house)
+			if((cand[i] & b) != 0 && !contains(houses[other], i))
+				return false;
+		return true;
+	}
+
+	/** @return cells of a house holding a candidate bit. */
+	private int[] cells(int[] house, long b, long[] cand) {
+		int[] cells = new int[house.length];
+		int n = 0;
+		for(int i : house)
+			if((cand[i] & b) != 0)
+				cells[n++] = i;
+		return trim(cells, n);
+	}
+
+	/** @return whether a house contains a cell. */
+	private static boolean contains(int[] house, int cell) {
+		for(int i : house)
+			if(i == cell)
+				return true;
+		return false;
+	}
+
+	/** @return first n entries of an array. */
+	private static int[] trim(int[] array, int n) {
+		int[] trimmed = new int[n];
+		System.arraycopy(array, 0, trimmed, 0, n);
+		return trimmed;
+	}
+}
@@ -5,15 +5,18 @@ import java.util.Collections;
 import java.util.List;
 
 import edu.utep.cs.cs3331.ard.sudoku.model.solver.AbstractSudokuSolver;
-import edu.utep.cs.cs3331.ard.sudoku.model.solver.SudokuDLX;
+import edu.utep.cs.cs3331.ard.sudoku.model.solver.SudokuBitmask;
 
 /** 
  * A Sudoku board generator.
  * @author Anthony DesArmier
- * @version 1.0
+ * @version 1.2
  */
 public class SudokuGenerator {
 
+	/** Number of attempts at completing a random first row before giving up. */
+	private static final int MAX_ATTEMPTS = 10;
+
 	/**
 	 * Generates a complete Sudoku board and removes cells until
 	 * removing any more would make the board improper.
@@ -22,15 +25,34 @@ public class SudokuGenerator {
 	 * @return a generated incomplete proper Sudoku board.
 	 */
 	public static int[][] generate(int size, int difficulty) {
-		final AbstractSudokuSolver solver = new SudokuDLX();
+		return generate(ConstraintSet.standard(size), difficulty);
+	}
+	
+	/**
+	 * Generates a complete variant Sudoku board and removes cells until
+	 * removing any more would make the board improper.
+	 * @param constraints houses the values of the board must satisfy.
+	 * @param difficulty difficulty of the board.
+	 * @return a generated incomplete proper Sudoku board.
+	 */
+	public static int[][] generate(ConstraintSet constraints, int difficulty) {
+		final int size = constraints.getSize();
+		final AbstractSudokuSolver solver = AbstractSudokuSolver.forConstraints(constraints);
+		if(solver instanceof SudokuBitmask) // bound every search so large boards generate in seconds
+			((SudokuBitmask) solver).setNodeLimit(size*size);
 		List<Integer> list = new ArrayList<Integer>();
 		for(int i=1; i<size+1; i++)
 			list.add(i);
-		Collections.shuffle(list);
-		int[][] preBoard = new int[size][size];
-		for(int i=0; i<size; i++)
-			preBoard[0][i] = list.get(i).intValue();
-		int[][] board = solver.generate(preBoard);
+		int[][] board;
+		int attempts = 0;
+		do {
+			Collections.shuffle(list);
+			int[][] preBoard = new int[size][size];
+			if(!constraints.hasSums()) // a random first row could break a cage sum
+				for(int i=0; i<size; i++)
+					preBoard[0][i] = list.get(i).intValue();
+			board = solver.generate(preBoard);
+		} while(board.length<size && ++attempts<MAX_ATTEMPTS);
 		if(board.length<size) {
 			System.out.printf("Found %d solutions when trying to generate a new board.%n", board[0][0]);
 			return board;
@@ -46,7 +68,7 @@ public class SudokuGenerator {
 			value = board[cell[0]][cell[1]]; // save the cell value
 			board[cell[0]][cell[1]] = 0; // empty a board cell
 			temp = solver.solve(board); // see how many solutions the board now has
-			if(temp.length<size) // if the board has something other than exactly 1 solution
+			if(temp.length<size) // if the board has something other than exactly 1 solution, or it could not be proven
 				board[cell[0]][cell[1]] = value; // put last removed value back
 		}
 		return board;
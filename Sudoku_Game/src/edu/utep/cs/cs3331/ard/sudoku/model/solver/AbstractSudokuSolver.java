@@ -4,17 +4,66 @@ import java.util.Arrays;
 import java.util.List;
 
 import edu.utep.cs.cs3331.ard.sudoku.model.Cell;
+import edu.utep.cs.cs3331.ard.sudoku.model.ConstraintSet;
 
 /**
  * Various common Sudoku game board solution logic.
  * @author Rafal Szymanski
  * @author Anthony DesArmier
- * @version     1.1
+ * @version     1.3
  */
 public abstract class AbstractSudokuSolver {
 
+	/** Largest supported board size, bounded by 64-bit candidate masks. */
+	public static final int MAX_SIZE = 64;
+	/** Largest board size solved with Dancing Links, past which its uniqueness searches grow too slow. */
+	private static final int DLX_MAX_SIZE = 9;
+
 	protected int S = 9; // size of the board
 	protected int side = 3; // how long the side is
+	/** Houses of the board being solved. */
+	protected ConstraintSet constraints;
+	/** Houses set for variant boards, null for standard boards. */
+	private ConstraintSet variant;
+
+	/**
+	 * Creates the solver best suited for a board size.
+	 * @param size size of the board.
+	 * @return a {@link SudokuDLX} for boards up to 9x9, a {@link SudokuBitmask} otherwise.
+	 */
+	public static AbstractSudokuSolver forSize(int size) {
+		return forConstraints(ConstraintSet.standard(size));
+	}
+
+	/**
+	 * Creates the solver best suited for a set of houses.
+	 * @param constraints houses of the board.
+	 * @return a {@link SudokuDLX} for boards up to 9x9 without killer cages, a {@link SudokuBitmask} otherwise.
+	 */
+	public static AbstractSudokuSolver forConstraints(ConstraintSet constraints) {
+		AbstractSudokuSolver solver = constraints.getSize() <= DLX_MAX_SIZE && !constraints.hasSums()
+				? new SudokuDLX() : new SudokuBitmask();
+		solver.setConstraints(constraints);
+		return solver;
+	}
+
+	/**
+	 * Sets the houses of the boards to solve. Boards of another size are solved as standard boards.
+	 * @param constraints houses of the board, null for standard boards.
+	 */
+	public void setConstraints(ConstraintSet constraints) {
+		variant = constraints;
+	}
+
+	/**
+	 * Sets up {@link #S}, {@link #side} and {@link #constraints} for a board.
+	 * @param sudoku Sudoku board.
+	 */
+	private void prepare(int[][] sudoku) {
+		S = sudoku.length;
+		side = (int) Math.sqrt(S);
+		constraints = variant != null && variant.getSize() == S ? variant : ConstraintSet.standard(S);
+	}
 
 	/**
 	 * Returns a solution for a Sudoku board.
@@ -32,8 +81,7 @@ public abstract class AbstractSudokuSolver {
 	 * @return the solved Sudoku board.
 	 */
 	public int[][] generate(int[][] sudoku) {
-		S = sudoku.length;
-		side = (int) Math.sqrt(S);
+		prepare(sudoku);
 		return runSolver(sudoku, 1);
 	}
 	
@@ -43,12 +91,13 @@ public abstract class AbstractSudokuSolver {
 	 * @return Sudoku board solution.
 	 */
 	public int[][] solve(int[][] sudoku) {
-		if (!validateSudoku(sudoku)) {
+		boolean valid = variant != null && variant.getSize() == sudoku.length
+				? validateSudoku(sudoku, variant) : validateSudoku(sudoku);
+		if (!valid) {
 			//System.out.println("Error: Invalid sudoku. Aborting....");
 			return new int[][] {{0}};
 		}
-		S = sudoku.length;
-		side = (int) Math.sqrt(S);
+		prepare(sudoku);
 		return runSolver(sudoku, 2);
 	}
 
@@ -70,7 +119,7 @@ public abstract class AbstractSudokuSolver {
 
 	/**
 	 * Converts a string representation of a Sudoku game board to a 2D array.
-	 * @param s Sudoku board.
+	 * @param s Sudoku board, a string per row, see {@link #fromChar(int)}.
 	 * @return Sudoku board.
 	 */
 	private static int[][] fromCharArr(String[] s) {
@@ -78,13 +127,38 @@ public abstract class AbstractSudokuSolver {
 		int[][] out = new int[S][S];
 		for (int i = 0; i < S; i++) {
 			for (int j = 0; j < S; j++) {
-				int num = s[i].charAt(j) - '1';
+				int num = fromChar(s[i].charAt(j));
 				if (num >= 1 && num <= S)
 					out[i][j] = num;
 			}
 		}
 		return out;
 	}
+
+	/**
+	 * Converts a character of the text representation of a board to a cell value.
+	 * @param c '1' to '9', then 'A' to 'Z' in either case for 10 to 35; '0' or '.' for an empty cell.
+	 * @return cell value, 0 for an empty cell, -1 if the character is none of the above.
+	 */
+	static int fromChar(int c) {
+		if (c >= '0' && c <= '9')
+			return c - '0';
+		if (c >= 'A' && c <= 'Z')
+			return c - 'A' + 10;
+		if (c >= 'a' && c <= 'z')
+			return c - 'a' + 10;
+		return c == '.' ? 0 : -1;
+	}
+
+	/**
+	 * Converts a cell value to a character of the text representation of a board.
+	 * @param n cell value, 0 to 35.
+	 * @return character, '.' for an empty cell.
+	 * @see #fromChar(int)
+	 */
+	static char toChar(int n) {
+		return n == 0 ? '.' : (char) (n < 10 ? '0' + n : 'A' + n - 10);
+	}
 	
 	/**
 	 * Converts a list representation of a Sudoku game board to a 2D array.
@@ -131,19 +205,19 @@ public abstract class AbstractSudokuSolver {
 	 * @return true of the Sudoku game board is valid, false otherwise.
 	 */
 	protected static boolean validateSudoku(int[][] grid) {
-		if (grid.length != 4 && grid.length != 9 && grid.length != 16)
-			return false; // only 4, 9 or 16 for now
-		for (int i = 0; i < grid.length; i++) {
-			if (grid[i].length != grid.length)
+		int N = grid.length;
+		int side = (int) Math.sqrt(N);
+		if (N == 0 || N > MAX_SIZE || side * side != N)
+			return false; // sub-grids must be square
+		for (int i = 0; i < N; i++) {
+			if (grid[i].length != N)
 				return false;
-			for (int j = 0; j < grid[i].length; j++) {
-				if (!(i >= 0 && i <= grid.length))
+			for (int j = 0; j < N; j++) {
+				if (!(grid[i][j] >= 0 && grid[i][j] <= N))
 					return false; // 0 means not filled in
 			}
 		}
 
-		int N = grid.length;
-
 		boolean[] b = new boolean[N + 1];
 
 		for (int i = 0; i < N; i++) {
@@ -168,8 +242,6 @@ public abstract class AbstractSudokuSolver {
 			Arrays.fill(b, false);
 		}
 
-		int side = (int) Math.sqrt(N);
-
 		for (int i = 0; i < N; i += side) {
 			for (int j = 0; j < N; j += side) {
 				for (int d1 = 0; d1 < side; d1++) {
@@ -187,6 +259,48 @@ public abstract class AbstractSudokuSolver {
 		return true;
 	}
 	
+	/**
+	 * Determines whether a variant Sudoku board is valid.
+	 * <p>
+	 * Only one of each number may exist in every house, and a complete killer cage must add up to its sum.
+	 * @param grid 2D array of cell values.
+	 * @param constraints houses of the board.
+	 * @return true of the Sudoku game board is valid, false otherwise.
+	 */
+	protected static boolean validateSudoku(int[][] grid, ConstraintSet constraints) {
+		int N = grid.length;
+		if (N == 0 || N > MAX_SIZE || N != constraints.getSize())
+			return false;
+		for (int[] row : grid) {
+			if (row.length != N)
+				return false;
+			for (int v : row)
+				if (v < 0 || v > N)
+					return false; // 0 means not filled in
+		}
+		int[][] houses = constraints.getHouses();
+		int[] sums = constraints.getSums();
+		for (int h = 0; h < houses.length; h++) {
+			long used = 0;
+			int sum = 0;
+			boolean full = true;
+			for (int i : houses[h]) {
+				int v = grid[i / N][i % N];
+				if (v == 0) {
+					full = false;
+					continue;
+				}
+				if ((used & (1L << (v - 1))) != 0)
+					return false;
+				used |= 1L << (v - 1);
+				sum += v;
+			}
+			if (sums[h] != 0 && (sum > sums[h] || (full && sum != sums[h])))
+				return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Determines whether the Sudoku board is complete and valid.
 	 * <p>
@@ -1,6 +1,7 @@
 package edu.utep.cs.cs3331.ard.sudoku.model.solver;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -9,7 +10,7 @@ import java.util.List;
  * Dancing Links data structure.
  * @author Rafal Szymanski
  * @author Anthony DesArmier
- * @version     1.1
+ * @version     1.2
  */
 public class DancingLinks {
 
@@ -18,6 +19,7 @@ public class DancingLinks {
 	class DancingNode {
 		DancingNode L, R, U, D;
 		ColumnNode C;
+		int row; // index of the exact cover row this node belongs to
 
 		// hooks node n1 `below` current node
 		DancingNode hookDown(DancingNode n1) {
@@ -73,6 +75,7 @@ public class DancingLinks {
 	class ColumnNode extends DancingNode {
 		int size; // number of ones in current column
 		String name;
+		boolean covered; // whether this column is currently covered
 
 		public ColumnNode(String n) {
 			super();
@@ -82,6 +85,7 @@ public class DancingLinks {
 		}
 
 		void cover() {
+			covered = true;
 			unlinkLR();
 			for (DancingNode i = this.D; i != this; i = i.D) {
 				for (DancingNode j = i.R; j != i; j = j.R) {
@@ -101,10 +105,13 @@ public class DancingLinks {
 			}
 			relinkLR();
 			header.size++; // not part of original
+			covered = false;
 		}
 	}
 
 	private ColumnNode header;
+	/** First node of every exact cover row, indexed by row. */
+	private DancingNode[] rows;
 	private int solutions;
 	private int updates;
 	private SolutionHandler handler;
@@ -116,6 +123,8 @@ public class DancingLinks {
 	 */
 	private void search(int k) {
 		if (header.R == header) { // all the columns removed
+			if (!handler.accept(answer))
+				return;
 			if (verbose) {
 				System.out.println("-----------------------------------------");
 				System.out.println("Solution #" + solutions + "\n");
@@ -158,6 +167,8 @@ public class DancingLinks {
 	private void searchMode(int k, int num, boolean random) {
 		if(solutions >= num) return;
 		if (header.R == header) { // all the columns removed
+			if (!handler.accept(answer))
+				return;
 			if (verbose) {
 				System.out.println("-----------------------------------------");
 				System.out.println("Solution #" + solutions + "\n");
@@ -286,32 +297,58 @@ public class DancingLinks {
 		final int COLS = grid[0].length;
 		final int ROWS = grid.length;
 
+		int[][] sparse = new int[ROWS][];
+		int[] ones = new int[COLS];
+		for (int i = 0; i < ROWS; i++) {
+			int n = 0;
+			for (int j = 0; j < COLS; j++)
+				if (grid[i][j] == 1)
+					ones[n++] = j;
+			sparse[i] = Arrays.copyOf(ones, n);
+		}
+		return makeDLXBoard(COLS, COLS, sparse);
+	}
+
+	/**
+	 * Constructs a dancing links implementation of a sparse exact cover board.
+	 * <p>
+	 * Secondary columns are left out of the header list: the search never has to cover
+	 * them, but rows sharing one still exclude each other.
+	 * @param primary number of leading columns that must be covered.
+	 * @param cols number of columns of the exact cover board.
+	 * @param sparse column indices of the ones of every row.
+	 * @return root column header node.
+	 */
+	private ColumnNode makeDLXBoard(int primary, int cols, int[][] sparse) {
+		final int ROWS = sparse.length;
+
 		ColumnNode headerNode = new ColumnNode("header");
-		ArrayList<ColumnNode> columnNodes = new ArrayList<ColumnNode>();
+		ColumnNode[] columnNodes = new ColumnNode[cols];
 
-		for (int i = 0; i < COLS; i++) {
+		for (int i = 0; i < cols; i++) {
 			ColumnNode n = new ColumnNode(Integer.toString(i));
-			columnNodes.add(n);
-			headerNode = (ColumnNode) headerNode.hookRight(n);
+			columnNodes[i] = n;
+			if (i < primary)
+				headerNode = (ColumnNode) headerNode.hookRight(n);
 		}
 		headerNode = headerNode.R.C;
+		rows = new DancingNode[ROWS];
 
 		for (int i = 0; i < ROWS; i++) {
 			DancingNode prev = null;
-			for (int j = 0; j < COLS; j++) {
-				if (grid[i][j] == 1) {
-					ColumnNode col = columnNodes.get(j);
-					DancingNode newNode = new DancingNode(col);
-					if (prev == null)
-						prev = newNode;
-					col.U.hookDown(newNode);
-					prev = prev.hookRight(newNode);
-					col.size++;
-				}
+			for (int j : sparse[i]) {
+				ColumnNode col = columnNodes[j];
+				DancingNode newNode = new DancingNode(col);
+				newNode.row = i;
+				if (prev == null)
+					prev = rows[i] = newNode;
+				col.U.hookDown(newNode);
+				prev = prev.hookRight(newNode);
+				col.size++;
 			}
 		}
 
-		headerNode.size = COLS;
+		headerNode.size = primary;
 
 		return headerNode;
 	}
@@ -339,6 +376,28 @@ public class DancingLinks {
 		handler = h;
 	}
 
+	/**
+	 * Constructs a Dancing Links data structure from a sparse exact cover grid and uses a specified handler to decipher it.
+	 * @param cols number of columns of the exact cover grid.
+	 * @param sparse column indices of the ones of every row.
+	 * @param h handler to decipher the Dancing Links.
+	 */
+	public DancingLinks(int cols, int[][] sparse, SolutionHandler h) {
+		this(cols, cols, sparse, h);
+	}
+
+	/**
+	 * Constructs a Dancing Links data structure from a sparse exact cover grid with secondary columns.
+	 * @param primary number of leading columns that must be covered, the rest may be left uncovered.
+	 * @param cols number of columns of the exact cover grid.
+	 * @param sparse column indices of the ones of every row.
+	 * @param h handler to decipher the Dancing Links.
+	 */
+	public DancingLinks(int primary, int cols, int[][] sparse, SolutionHandler h) {
+		header = makeDLXBoard(primary, cols, sparse);
+		handler = h;
+	}
+
 	/** Runs the algorithm. */
 	public void runSolver() {
 		init();
@@ -364,6 +423,68 @@ public class DancingLinks {
 		return solutions;
 	}
 	
+	/**
+	 * Runs the algorithm in a specified mode with a set of rows already part of the answer.
+	 * <p>
+	 * The given rows are covered before searching and uncovered afterwards, leaving the
+	 * structure exactly as it was built so it can be reused for another search.
+	 * @param mode 0 - search for all solutions, otherwise see {@link #runSolverMode(int)}.
+	 * @param given indices of the rows that must be part of every solution.
+	 * @param h handler to decipher the solutions with.
+	 * @return number of solutions found, 0 if the given rows conflict with each other.
+	 */
+	public int runSolverMode(int mode, int[] given, SolutionHandler h) {
+		handler = h;
+		init();
+		int selected = 0;
+		while (selected < given.length && select(rows[given[selected]]))
+			answer.add(rows[given[selected++]]);
+		if (selected == given.length) {
+			switch (mode) {
+				case 0: search(0); break; // Search for every solution
+				case 1: searchMode(0, 1, true); break;
+				case 2: searchMode(0, 2, false); break;
+				default: throw new UnsupportedOperationException();
+			}
+		}
+		while (selected > 0)
+			deselect(rows[given[--selected]]);
+		if (verbose)
+			showInfo();
+		return solutions;
+	}
+
+	/**
+	 * Covers every column of a row, as if the row was chosen by the search.
+	 * @param r first node of the row.
+	 * @return true if the row was selected, false if one of its columns was already covered.
+	 */
+	private boolean select(DancingNode r) {
+		DancingNode j = r;
+		do {
+			if (j.C.covered)
+				return false;
+			j = j.R;
+		} while (j != r);
+		do {
+			j.C.cover();
+			j = j.R;
+		} while (j != r);
+		return true;
+	}
+
+	/**
+	 * Uncovers every column of a row previously chosen by {@link #select(DancingNode)}.
+	 * @param r first node of the row.
+	 */
+	private void deselect(DancingNode r) {
+		DancingNode j = r;
+		do {
+			j = j.L;
+			j.C.uncover();
+		} while (j != r);
+	}
+
 	private void init() {
 		solutions = 0;
 		updates = 0;
@@ -0,0 +1,630 @@
+package edu.utep.cs.cs3331.ard.sudoku.model.solver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.eclipsesource.json.ParseException;
+
+import edu.utep.cs.cs3331.ard.sudoku.net.json.JsonBoard;
+import edu.utep.cs.cs3331.ard.sudoku.net.json.JsonBoardDecoder;
+
+/**
+ * Bulk import and export of puzzles between the one-line text format, JSON and a binary bank.
+ * <p>
+ * Text holds a puzzle per line, its cells row by row as read by {@link AbstractSudokuSolver#fromChar(int)},
+ * such as the 81 characters of a 9x9 puzzle; whatever follows the puzzle on its line, such as
+ * the solution of a comma separated dataset, is ignored, and lines that are no puzzle, such as
+ * headers, are skipped. JSON is a board, or an array of boards, in the layout of the Sudoku
+ * Web Service API. A bank holds boards of a single size in records of a fixed length, so that
+ * the n-th puzzle is read without reading the ones before it.
+ * <p>
+ * Text and bank input is memory-mapped and cut into chunks at line or record ends, and JSON
+ * input is decoded as it is read into chunks of boards. The chunks are checked and encoded in
+ * parallel, then written in input order, a bounded number of chunks being in flight. Puzzles
+ * whose givens break a rule are dropped; optionally, every puzzle is solved, the ones without
+ * a unique solution being dropped, and rated by the search nodes {@link SudokuBitmask} needs.
+ *
+ * @author Anthony DesArmier
+ * @version 1.0
+ */
+public class PuzzlePipeline {
+
+	/** Formats of puzzle files. */
+	public enum Format {
+		/** One puzzle per line. */
+		TEXT,
+		/** Boards in the layout of the Sudoku Web Service API. */
+		JSON,
+		/** Binary records of a fixed length. */
+		BANK;
+
+		/**
+		 * @param file puzzle file.
+		 * @return format of a file from its extension: .json and .bank, text otherwise.
+		 */
+		public static Format of(Path file) {
+			String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+			return name.endsWith(".json") ? JSON : name.endsWith(".bank") ? BANK : TEXT;
+		}
+	}
+
+	/** Usage of {@link #main(String[])}. */
+	private static final String USAGE = "Usage: PuzzlePipeline [-from text|json|bank] [-to text|json|bank]"
+			+ " [-solve] [-rate] [-size n] [-threads n] input output";
+	/** First bytes of a bank, "SDKB". */
+	private static final int MAGIC = 0x53444B42;
+	/** Layout version of banks. */
+	private static final short VERSION = 1;
+	/** Length of the bank header: magic, version, board size and flags. */
+	private static final int HEADER = 8;
+	/** Bank flag of records holding the solution after the puzzle. */
+	private static final int SOLVED = 1;
+	/** Bank flag of records ending with the rating. */
+	private static final int RATED = 2;
+	/** Largest board size of the text format, bounded by its characters. */
+	private static final int TEXT_MAX_SIZE = 35;
+	/** Bytes of input per chunk. */
+	private static final int CHUNK = 1 << 20;
+	/** Bytes of input mapped at once. */
+	private static final long WINDOW = 1 << 28;
+	/** Boards of JSON input per chunk. */
+	private static final int JSON_CHUNK = 4096;
+	/** Solver of every worker thread, which is not safe to share. */
+	private static final ThreadLocal<SudokuBitmask> SOLVERS = ThreadLocal.withInitial(SudokuBitmask::new);
+
+	private final Format from;
+	private final Format to;
+	/** Whether every puzzle is solved, its solution being written with it. */
+	private boolean solve;
+	/** Whether every puzzle is rated, its rating being written with it. */
+	private boolean rate;
+	/** Size of the boards of a bank written from text or JSON. */
+	private int bankSize = 9;
+	/** Number of worker threads. */
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Creates a pipeline.
+	 * @param from format of the input.
+	 * @param to format of the output.
+	 */
+	public PuzzlePipeline(Format from, Format to) {
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Converts a puzzle file.
+	 * @param args options, see {@link #USAGE}; formats default to those of the file extensions.
+	 */
+	public static void main(String[] args) {
+		Format from = null, to = null;
+		boolean solve = false, rate = false;
+		int size = 9, threads = 0;
+		List<String> files = new ArrayList<>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "-from": from = Format.valueOf(args[++i].toUpperCase(Locale.ROOT)); break;
+				case "-to": to = Format.valueOf(args[++i].toUpperCase(Locale.ROOT)); break;
+				case "-solve": solve = true; break;
+				case "-rate": rate = true; break;
+				case "-size": size = Integer.parseInt(args[++i]); break;
+				case "-threads": threads = Integer.parseInt(args[++i]); break;
+				default:
+					if (args[i].startsWith("-"))
+						throw new IllegalArgumentException(args[i]);
+					files.add(args[i]);
+				}
+			}
+			if (files.size() != 2)
+				throw new IllegalArgumentException();
+		} catch (RuntimeException e) { // unknown option, missing or malformed value
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		Path input = Paths.get(files.get(0)), output = Paths.get(files.get(1));
+		PuzzlePipeline pipeline = new PuzzlePipeline(from != null ? from : Format.of(input),
+				to != null ? to : Format.of(output));
+		pipeline.setSolve(solve);
+		pipeline.setRate(rate);
+		pipeline.setBankSize(size);
+		if (threads > 0)
+			pipeline.setThreads(threads);
+		try {
+			System.out.println(pipeline.run(input, output));
+		} catch (IOException e) {
+			System.err.println("Cannot convert the puzzles: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Setter for {@link #solve}.
+	 */
+	public void setSolve(boolean solve) {
+		this.solve = solve;
+	}
+
+	/**
+	 * Setter for {@link #rate}.
+	 */
+	public void setRate(boolean rate) {
+		this.rate = rate;
+	}
+
+	/**
+	 * Setter for {@link #bankSize}.
+	 */
+	public void setBankSize(int bankSize) {
+		this.bankSize = bankSize;
+	}
+
+	/**
+	 * Setter for {@link #threads}.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Converts a puzzle file.
+	 * @param input file to read.
+	 * @param output file to write, replaced once every puzzle is written.
+	 * @return counts of the puzzles converted and dropped.
+	 * @throws IOException if a file cannot be read or written, or the input is malformed.
+	 */
+	public Report run(Path input, Path output) throws IOException {
+		long start = System.nanoTime();
+		Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+		Job job = new Job();
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)) {
+			job.out = out;
+			switch (from) {
+			case TEXT: job.readText(input); break;
+			case JSON: job.readJson(input); break;
+			case BANK: job.readBank(input); break;
+			}
+			job.finish();
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		} finally {
+			job.executor.shutdownNow();
+		}
+		Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+		return new Report(job.counts, System.nanoTime() - start);
+	}
+
+	/** Conversion of a file, reading the input and writing the chunks in order. */
+	private final class Job {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "Puzzle_Pipeline");
+			thread.setDaemon(true);
+			return thread;
+		});
+		/** Chunks submitted and not written yet, in input order. */
+		final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+		/** Counts of the chunks written, as in {@link Chunk#counts}. */
+		final long[] counts = new long[6];
+		OutputStream out;
+		/** Size of the boards of a bank written. */
+		int size = bankSize;
+		/** Whether a board was written to JSON output. */
+		boolean boards;
+
+		/** Reads a puzzle per line. */
+		void readText(Path input) throws IOException {
+			header();
+			try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+				long length = channel.size();
+				for (long position = 0; position < length; ) {
+					long window = Math.min(WINDOW, length - position);
+					MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+					int end = (int) window;
+					if (position + window < length) { // cut after the last line end of the window
+						while (end > 0 && map.get(end - 1) != '\n')
+							end--;
+						if (end == 0)
+							throw new IOException("Line longer than " + WINDOW + " bytes at " + position);
+					}
+					for (int first = 0; first < end; ) {
+						int last = Math.min(end, first + CHUNK);
+						while (last < end && map.get(last - 1) != '\n')
+							last++;
+						submit(new Chunk(slice(map, first, last), 0, null));
+						first = last;
+					}
+					position += end;
+				}
+			}
+		}
+
+		/** Reads the records of a bank. */
+		void readBank(Path input) throws IOException {
+			try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER);
+				while (header.hasRemaining() && channel.read(header) >= 0);
+				header.flip();
+				if (header.remaining() < HEADER || header.getInt() != MAGIC || header.getShort() != VERSION)
+					throw new IOException("Not a puzzle bank");
+				int boardSize = header.get() & 0xFF;
+				int flags = header.get();
+				int cells = boardSize * boardSize;
+				int record = cells + ((flags & SOLVED) != 0 ? cells : 0) + ((flags & RATED) != 0 ? 4 : 0);
+				if (boardSize == 0)
+					throw new IOException("Not a puzzle bank");
+				size = boardSize;
+				header();
+				long records = (channel.size() - HEADER) / record;
+				long perWindow = Math.max(1, WINDOW / record);
+				int perChunk = Math.max(1, CHUNK / record);
+				for (long n = 0; n < records; ) {
+					long count = Math.min(perWindow, records - n);
+					MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + n * record, count * record);
+					for (long first = 0; first < count; first += perChunk) {
+						long last = Math.min(count, first + perChunk);
+						submit(new Chunk(slice(map, (int) (first * record), (int) (last * record)), record, null));
+					}
+					n += count;
+				}
+			}
+		}
+
+		/** Decodes boards as they are read. */
+		void readJson(Path input) throws IOException {
+			header();
+			List<JsonBoard> chunk = new ArrayList<>(JSON_CHUNK);
+			try (Reader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+				JsonBoardDecoder.decodeAll(reader, board -> {
+					chunk.add(board);
+					if (chunk.size() == JSON_CHUNK)
+						try {
+							submit(new Chunk(null, 0, new ArrayList<>(chunk)));
+							chunk.clear();
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			} catch (ParseException e) {
+				throw new IOException("Malformed JSON: " + e.getMessage(), e);
+			}
+			if (!chunk.isEmpty())
+				submit(new Chunk(null, 0, chunk));
+		}
+
+		/** Writes what precedes the first puzzle. */
+		void header() throws IOException {
+			if (to == Format.BANK) {
+				DataOutputStream data = new DataOutputStream(out);
+				data.writeInt(MAGIC);
+				data.writeShort(VERSION);
+				data.writeByte(size);
+				data.writeByte((solve ? SOLVED : 0) | (rate ? RATED : 0));
+			}
+			else if (to == Format.JSON)
+				out.write('[');
+		}
+
+		/** Submits a chunk, writing the oldest ones while too many are in flight. */
+		void submit(Chunk chunk) throws IOException {
+			chunk.size = size;
+			pending.add(executor.submit(chunk));
+			while (pending.size() > 2 * threads)
+				write(pending.poll());
+		}
+
+		/** Writes the chunks left and what follows the last puzzle. */
+		void finish() throws IOException {
+			while (!pending.isEmpty())
+				write(pending.poll());
+			if (to == Format.JSON)
+				out.write(boards ? "\n]\n".getBytes(StandardCharsets.US_ASCII) : new byte[] {']', '\n'});
+		}
+
+		/** Writes a chunk once it is processed. */
+		void write(Future<Chunk> future) throws IOException {
+			Chunk chunk;
+			try {
+				chunk = future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+			for (int i = 0; i < counts.length; i++)
+				counts[i] += chunk.counts[i];
+			if (chunk.out.size() == 0)
+				return;
+			if (to == Format.JSON) {
+				out.write(boards ? ',' : '\n');
+				if (boards)
+					out.write('\n');
+				boards = true;
+			}
+			chunk.out.writeTo(out);
+		}
+	}
+
+	/** @return bytes of a buffer from first to last, as a buffer of its own. */
+	private static ByteBuffer slice(ByteBuffer buffer, int first, int last) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(last);
+		slice.position(first);
+		return slice.slice();
+	}
+
+	/** Puzzles of a part of the input, checked and encoded by a worker thread. */
+	private final class Chunk implements Callable<Chunk> {
+		/** Lines of text or records of a bank, null for JSON input. */
+		final ByteBuffer in;
+		/** Length of the bank records, 0 for text. */
+		final int record;
+		/** Boards of JSON input. */
+		final List<JsonBoard> jsonBoards;
+		/** Size of the boards of a bank written. */
+		int size;
+		/** Puzzles encoded in the output format. */
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(CHUNK);
+		/** Puzzles read, written, invalid, without solution and with several; lines that are no puzzle. */
+		final long[] counts = new long[6];
+
+		Chunk(ByteBuffer in, int record, List<JsonBoard> jsonBoards) {
+			this.in = in;
+			this.record = record;
+			this.jsonBoards = jsonBoards;
+		}
+
+		@Override
+		public Chunk call() {
+			if (jsonBoards != null)
+				for (JsonBoard board : jsonBoards)
+					process(fromJson(board));
+			else if (record > 0)
+				while (in.remaining() >= record) {
+					int next = in.position() + record;
+					int[][] grid = new int[size][size];
+					for (int[] row : grid)
+						for (int j = 0; j < size; j++)
+							row[j] = in.get() & 0xFF;
+					in.position(next); // past the solution and rating, computed again if asked
+					process(grid);
+				}
+			else
+				while (in.hasRemaining())
+					process(nextLine());
+			return this;
+		}
+
+		/**
+		 * Reads the puzzle of the next line.
+		 * @return board, an empty array for a blank line, null if the line is no puzzle.
+		 */
+		private int[][] nextLine() {
+			int first = in.position(), end = first;
+			while (end < in.limit() && in.get(end) != '\n')
+				end++;
+			in.position(Math.min(in.limit(), end + 1));
+			int last = first;
+			while (last < end && !isSeparator(in.get(last)))
+				last++;
+			int length = last - first;
+			if (length == 0)
+				return new int[0][];
+			int n = (int) Math.round(Math.sqrt(length)), side = (int) Math.round(Math.sqrt(n));
+			if (n * n != length || side * side != n || n < 4 || n > TEXT_MAX_SIZE)
+				return null;
+			int[][] grid = new int[n][n];
+			for (int i = 0, c = first; i < n; i++)
+				for (int j = 0; j < n; j++, c++)
+					if ((grid[i][j] = AbstractSudokuSolver.fromChar(in.get(c))) < 0)
+						return null;
+			return grid;
+		}
+
+		/**
+		 * Reads the puzzle of a board.
+		 * @return board, null if the API refused to generate it or its size is not supported.
+		 */
+		private int[][] fromJson(JsonBoard board) {
+			int n = board.getSize(), side = (int) Math.round(Math.sqrt(n));
+			if (!board.isResponse() || side * side != n || n < 4 || n > AbstractSudokuSolver.MAX_SIZE)
+				return null;
+			int[][] grid = new int[n][n];
+			int[] squares = board.getSquareArray();
+			for (int i = 0; i < board.getSquareCount() * 3; i += 3) {
+				int x = squares[i], y = squares[i+1];
+				if (x < 0 || x >= n || y < 0 || y >= n)
+					grid[0][0] = -1; // caught as invalid
+				else
+					grid[x][y] = squares[i+2];
+			}
+			return grid;
+		}
+
+		/** Checks, solves and rates a puzzle as asked, and encodes it unless it is dropped. */
+		private void process(int[][] grid) {
+			if (grid == null) {
+				counts[5]++;
+				return;
+			}
+			if (grid.length == 0)
+				return;
+			counts[0]++;
+			if (!AbstractSudokuSolver.validateSudoku(grid)) {
+				counts[2]++;
+				return;
+			}
+			int[][] solution = null;
+			long rating = 0;
+			if (solve || rate) {
+				SudokuBitmask solver = SOLVERS.get();
+				solution = solver.solve(grid);
+				if (solution.length != grid.length) { // count of solutions found
+					counts[solution[0][0] == 0 ? 3 : 4]++;
+					return;
+				}
+				rating = solver.getNodes();
+			}
+			if (to == Format.BANK && grid.length != size) {
+				counts[5]++;
+				return;
+			}
+			if (to == Format.TEXT && grid.length > TEXT_MAX_SIZE) {
+				counts[5]++;
+				return;
+			}
+			counts[1]++;
+			switch (to) {
+			case TEXT: writeText(grid, solution, rating); break;
+			case JSON: writeJson(grid, solution, rating); break;
+			case BANK: writeBank(grid, solution, rating); break;
+			}
+		}
+
+		/** Writes the puzzle, then its solution and rating if asked, on a line. */
+		private void writeText(int[][] grid, int[][] solution, long rating) {
+			writeChars(grid);
+			if (solve) {
+				out.write(',');
+				writeChars(solution);
+			}
+			if (rate)
+				writeAscii("," + rating);
+			out.write('\n');
+		}
+
+		private void writeChars(int[][] grid) {
+			byte[] chars = new byte[grid.length * grid.length];
+			int c = 0;
+			for (int[] row : grid)
+				for (int n : row)
+					chars[c++] = (byte) AbstractSudokuSolver.toChar(n);
+			out.write(chars, 0, c);
+		}
+
+		/** Writes the board as the API would, with its solution and rating if asked. */
+		private void writeJson(int[][] grid, int[][] solution, long rating) {
+			StringBuilder json = new StringBuilder(32 * grid.length * grid.length);
+			if (out.size() > 0)
+				json.append(",\n");
+			json.append("{\"response\":true,\"size\":\"").append(grid.length).append("\",\"squares\":[");
+			boolean first = true;
+			for (int x = 0; x < grid.length; x++)
+				for (int y = 0; y < grid.length; y++)
+					if (grid[x][y] != 0) {
+						json.append(first ? "" : ",").append("{\"x\":").append(x).append(",\"y\":").append(y)
+								.append(",\"value\":").append(grid[x][y]).append('}');
+						first = false;
+					}
+			json.append(']');
+			if (solve) {
+				json.append(",\"solution\":[");
+				for (int x = 0; x < solution.length; x++)
+					for (int y = 0; y < solution.length; y++)
+						json.append(x + y == 0 ? "" : ",").append(solution[x][y]);
+				json.append(']');
+			}
+			if (rate)
+				json.append(",\"rating\":").append(rating);
+			writeAscii(json.append('}'));
+		}
+
+		/** Writes a record of the bank. */
+		private void writeBank(int[][] grid, int[][] solution, long rating) {
+			int cells = grid.length * grid.length;
+			ByteBuffer record = ByteBuffer.allocate(cells * (solve ? 2 : 1) + (rate ? 4 : 0));
+			for (int[] row : grid)
+				for (int n : row)
+					record.put((byte) n);
+			if (solve)
+				for (int[] row : solution)
+					for (int n : row)
+						record.put((byte) n);
+			if (rate)
+				record.putInt((int) Math.min(Integer.MAX_VALUE, rating));
+			out.write(record.array(), 0, record.capacity());
+		}
+
+		private void writeAscii(CharSequence text) {
+			byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+			out.write(bytes, 0, bytes.length);
+		}
+	}
+
+	/** @return whether a character ends the puzzle of a line. */
+	private static boolean isSeparator(byte c) {
+		return c == ',' || c == ';' || c == ' ' || c == '\t' || c == '\r' || c == '|';
+	}
+
+	/** Counts of a conversion. */
+	public static final class Report {
+
+		/** Puzzles read. */
+		public final long read;
+		/** Puzzles written. */
+		public final long written;
+		/** Puzzles whose givens break a rule. */
+		public final long invalid;
+		/** Puzzles without a solution. */
+		public final long unsolvable;
+		/** Puzzles with several solutions. */
+		public final long ambiguous;
+		/** Lines or boards that are no puzzle, and puzzles the output format cannot hold. */
+		public final long skipped;
+		/** Duration of the conversion, in milliseconds. */
+		public final long millis;
+
+		private Report(long[] counts, long nanos) {
+			read = counts[0];
+			written = counts[1];
+			invalid = counts[2];
+			unsolvable = counts[3];
+			ambiguous = counts[4];
+			skipped = counts[5];
+			millis = nanos / 1000000;
+		}
+
+		/**
+		 * @return puzzles read per minute.
+		 */
+		public double getThroughput() {
+			return millis == 0 ? 0 : read * 60000.0 / millis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("seconds=%.1f read=%d (%.0f/min) written=%d invalid=%d unsolvable=%d ambiguous=%d skipped=%d",
+					millis / 1000.0, read, getThroughput(), written, invalid, unsolvable, ambiguous, skipped);
+		}
+	}
+}
@@ -2,6 +2,7 @@ package edu.utep.cs.cs3331.ard.sudoku.model.solver;
 
 import java.util.List;
 
+import edu.utep.cs.cs3331.ard.sudoku.model.ConstraintSet;
 import edu.utep.cs.cs3331.ard.sudoku.model.solver.DancingLinks.DancingNode;
 
 /**
@@ -10,6 +11,15 @@ import edu.utep.cs.cs3331.ard.sudoku.model.solver.DancingLinks.DancingNode;
  */
 public interface SolutionHandler {
 	void handleSolution(List<DancingNode> solution);
+
+	/**
+	 * Checks constraints the exact cover cannot express before a solution is counted.
+	 * @param solution list of dancing nodes representing a solution.
+	 * @return true if the solution is acceptable, false to skip it.
+	 */
+	default boolean accept(List<DancingNode> solution) {
+		return true;
+	}
 }
 
 /**
@@ -18,6 +28,8 @@ public interface SolutionHandler {
  */
 class SudokuHandler implements SolutionHandler {
 	int size = 9;
+	/** Houses of the board, used to check killer cage sums. */
+	ConstraintSet constraints;
 
 	@Override
 	public void handleSolution(List<DancingNode> answer) {
@@ -32,30 +44,45 @@ class SudokuHandler implements SolutionHandler {
 	 */
 	protected int[][] parseBoard(List<DancingNode> answer) {
 		int[][] result = new int[size][size];
-		for (DancingNode n : answer) {
-			DancingNode rcNode = n;
-			int min = Integer.parseInt(rcNode.C.name);
-			for (DancingNode tmp = n.R; tmp != n; tmp = tmp.R) {
-				int val = Integer.parseInt(tmp.C.name);
-				if (val < min) {
-					min = val;
-					rcNode = tmp;
-				}
-			}
-			int ans1 = Integer.parseInt(rcNode.C.name);
-			int ans2 = Integer.parseInt(rcNode.R.C.name);
-			int r = ans1 / size;
-			int c = ans1 % size;
-			int num = (ans2 % size) + 1;
+		for (DancingNode n : answer) { // rows are laid out as (r, c, num), see SudokuDLX#getIdx
+			int r = n.row / (size * size);
+			int c = (n.row / size) % size;
+			int num = (n.row % size) + 1;
 			result[r][c] = num;
 		}
 		return result;
 	}
 
+	@Override
+	public boolean accept(List<DancingNode> answer) {
+		if (constraints == null || !constraints.hasSums())
+			return true;
+		int[] values = new int[size * size];
+		for (DancingNode n : answer)
+			values[n.row / size] = (n.row % size) + 1;
+		int[][] houses = constraints.getHouses();
+		int[] sums = constraints.getSums();
+		for (int h = 0; h < houses.length; h++) {
+			if (sums[h] == 0)
+				continue;
+			int sum = 0;
+			for (int i : houses[h])
+				sum += values[i];
+			if (sum != sums[h])
+				return false;
+		}
+		return true;
+	}
+
 	public SudokuHandler(int boardSize) {
 		size = boardSize;
 	}
 
+	public SudokuHandler(int boardSize, ConstraintSet constraints) {
+		size = boardSize;
+		this.constraints = constraints;
+	}
+
 }
 
 /**
@@ -83,6 +110,10 @@ class SudokuReturnHandler extends SudokuHandler {
 	public SudokuReturnHandler(int boardSize) {
 		super(boardSize);
 	}
+
+	public SudokuReturnHandler(int boardSize, ConstraintSet constraints) {
+		super(boardSize, constraints);
+	}
 	
 }
 
@@ -0,0 +1,362 @@
+package edu.utep.cs.cs3331.ard.sudoku.model.solver;
+
+import java.util.Random;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.ConstraintSet;
+
+/**
+ * Candidate bitmask based Sudoku solver.
+ * <p>
+ * Every house (row, column, region or variant house) keeps a 64-bit mask of the values
+ * it already holds, so the candidates of a cell are a few mask operations. The search always branches
+ * on a hidden single or on the cell with the fewest candidates, which keeps boards
+ * of 16x16 and larger tractable where the exact cover search becomes too slow.
+ * @author Anthony DesArmier
+ * @version     1.2
+ */
+public class SudokuBitmask extends AbstractSudokuSolver {
+
+	/** Random source for shuffling candidates while generating. */
+	private static final Random RANDOM = new Random();
+
+	/** Maximum number of search nodes before giving up, 0 for no limit. */
+	private long nodeLimit;
+	/** Number of search nodes visited in the current run. */
+	private long nodes;
+	/** Whether the current run was stopped by {@link #nodeLimit}. */
+	private boolean aborted;
+
+	/** Number of cells of the board. */
+	private int N;
+	/** Mask of every value of the board. */
+	private long full;
+	/** Cell values, row major. */
+	private int[] values;
+	/** Candidate masks of the empty cells, recomputed at every search node. */
+	private long[] cand;
+	/** Values held by every house. */
+	private long[] used;
+	/** Sum of the values held by every house. */
+	private int[] sum;
+	/** Number of empty cells of every house. */
+	private int[] empty;
+	/** Houses of the board the tables below were built for. */
+	private ConstraintSet loaded;
+	/** Cell indices of every house. */
+	private int[][] houses;
+	/** House indices of every cell. */
+	private int[][] housesOf;
+	/** Indices of the houses holding every value exactly once. */
+	private int[] exact;
+	/** Indices of the houses requiring a sum. */
+	private int[] cages;
+	/** Required sum of every house, 0 for none. */
+	private int[] sums;
+
+	/** Number of solutions to search for. */
+	private int limit;
+	/** Whether candidates are tried in random order. */
+	private boolean randomize;
+	/** Whether every solution found is printed. */
+	private boolean print;
+	/** Number of solutions found. */
+	private int solutions;
+	/** First solution found. */
+	private int[][] result;
+
+	/** Creates a solver with an unlimited search. */
+	public SudokuBitmask() {
+		this(0);
+	}
+
+	/**
+	 * Creates a solver with a bounded search.
+	 * @param nodeLimit {@link #nodeLimit}
+	 */
+	public SudokuBitmask(long nodeLimit) {
+		this.nodeLimit = nodeLimit;
+	}
+
+	/**
+	 * Getter for {@link #nodes}.
+	 * <p>
+	 * The number of nodes a board needs is a measure of how hard it is to solve.
+	 * @return search nodes visited by the last run.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Setter for {@link #nodeLimit}.
+	 * <p>
+	 * A run that reaches the limit reports the board as having no unique solution.
+	 */
+	public void setNodeLimit(long nodeLimit) {
+		this.nodeLimit = nodeLimit;
+	}
+
+	/** Prints all valid Sudoku board solutions. */
+	@Override
+	protected void runSolverAll(int[][] sudoku) {
+		run(sudoku, Integer.MAX_VALUE, false, true);
+	}
+
+	/**
+	 * Runs the solver in a specified mode.
+	 * @param sudoku valid sudoku board.
+	 * @mode mode to run algorithm in, 1 - search for 1 solution at random, 2 - search for a maximum of 2 solutions.
+	 * @return sudoku board solution, or error code array signifying how many solutions were found.
+	 */
+	@Override
+	protected int[][] runSolver(int[][] sudoku, int mode) {
+		switch (mode) {
+			case 1: run(sudoku, 1, true, false); break;
+			case 2: run(sudoku, 2, false, false); break;
+			default: throw new UnsupportedOperationException();
+		}
+		if (aborted && mode == 2)
+			solutions = 2; // uniqueness could not be proven
+		if (solutions == 1)
+			return result;
+		return new int[][] {{solutions}}; // Return a special error code array signifying how many solutions were found.
+	}
+
+	/**
+	 * Loads a board and searches it.
+	 * @param sudoku Sudoku board.
+	 * @param limit {@link #limit}
+	 * @param randomize {@link #randomize}
+	 * @param print {@link #print}
+	 */
+	private void run(int[][] sudoku, int limit, boolean randomize, boolean print) {
+		this.limit = limit;
+		this.randomize = randomize;
+		this.print = print;
+		solutions = 0;
+		nodes = 0;
+		aborted = false;
+		result = null;
+		if (load(sudoku))
+			search();
+	}
+
+	/**
+	 * Initializes the masks from a board.
+	 * @param sudoku Sudoku board.
+	 * @return false if a value is out of range or repeated within a house, true otherwise.
+	 */
+	private boolean load(int[][] sudoku) {
+		if (S > MAX_SIZE)
+			return false;
+		if (loaded != constraints) {
+			loaded = constraints;
+			N = S * S;
+			full = S == 64 ? -1L : (1L << S) - 1;
+			values = new int[N];
+			cand = new long[N];
+			houses = constraints.getHouses();
+			housesOf = constraints.getHousesOf();
+			sums = constraints.getSums();
+			used = new long[houses.length];
+			sum = new int[houses.length];
+			empty = new int[houses.length];
+			int exacts = 0, sumCount = 0;
+			for (int h = 0; h < houses.length; h++) {
+				if (constraints.isExact(h)) exacts++;
+				if (sums[h] != 0) sumCount++;
+			}
+			exact = new int[exacts];
+			cages = new int[sumCount];
+			for (int h = 0, e = 0, c = 0; h < houses.length; h++) {
+				if (constraints.isExact(h)) exact[e++] = h;
+				if (sums[h] != 0) cages[c++] = h;
+			}
+		}
+		for (int h = 0; h < houses.length; h++) {
+			used[h] = 0;
+			sum[h] = 0;
+			empty[h] = houses[h].length;
+		}
+		for (int i = 0; i < N; i++) {
+			values[i] = 0;
+			int n = sudoku[i / S][i % S];
+			if (n == 0)
+				continue;
+			if (n < 0 || n > S)
+				return false;
+			if ((usedBy(i) & (1L << (n - 1))) != 0)
+				return false;
+			place(i, n);
+		}
+		return true;
+	}
+
+	/** @return values held by the houses of a cell. */
+	private long usedBy(int i) {
+		long m = 0;
+		for (int h : housesOf[i])
+			m |= used[h];
+		return m;
+	}
+
+	/** Places a value into an empty cell. */
+	private void place(int i, int n) {
+		long b = 1L << (n - 1);
+		values[i] = n;
+		for (int h : housesOf[i]) {
+			used[h] |= b;
+			sum[h] += n;
+			empty[h]--;
+		}
+	}
+
+	/** Removes the value of a cell. */
+	private void remove(int i) {
+		int n = values[i];
+		long b = ~(1L << (n - 1));
+		values[i] = 0;
+		for (int h : housesOf[i]) {
+			used[h] &= b;
+			sum[h] -= n;
+			empty[h]++;
+		}
+	}
+
+	/**
+	 * Checks whether every killer cage can still reach its sum with distinct values.
+	 * @return true if the sums are still reachable, false otherwise.
+	 */
+	private boolean cagesFeasible() {
+		for (int h : cages) {
+			int k = empty[h];
+			int left = sums[h] - sum[h];
+			if (left < k * (k + 1) / 2 || left > k * S - k * (k - 1) / 2)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Narrows the candidates of a cell to the value completing any cage it is the last empty cell of.
+	 * @param i cell index.
+	 * @param m candidates of the cell.
+	 * @return narrowed candidates.
+	 */
+	private long cageCandidates(int i, long m) {
+		for (int h : housesOf[i]) {
+			if (sums[h] != 0 && empty[h] == 1) {
+				int left = sums[h] - sum[h];
+				m &= left >= 1 && left <= S ? 1L << (left - 1) : 0;
+			}
+		}
+		return m;
+	}
+
+	/** Searches for solutions by branching on the most constrained cell. */
+	private void search() {
+		if (solutions >= limit || aborted)
+			return;
+		if (++nodes > nodeLimit && nodeLimit > 0) {
+			aborted = true;
+			return;
+		}
+		if (cages.length > 0 && !cagesFeasible())
+			return;
+		int best = -1;
+		long mask = 0;
+		int count = Integer.MAX_VALUE;
+		for (int i = 0; i < N; i++) {
+			if (values[i] != 0) {
+				cand[i] = 0;
+				continue;
+			}
+			long m = full & ~usedBy(i);
+			if (cages.length > 0)
+				m = cageCandidates(i, m);
+			cand[i] = m;
+			int c = Long.bitCount(m);
+			if (c < count) {
+				if (c == 0)
+					return; // dead end
+				best = i;
+				mask = m;
+				count = c;
+			}
+		}
+		if (best < 0) {
+			handleSolution();
+			return;
+		}
+		if (count > 1) { // look for a value that fits only one cell of a house
+			long single = hiddenSingle();
+			if (single < 0)
+				return; // a house can no longer hold one of its values
+			if (single > 0) {
+				best = (int) ((single - 1) >>> 6);
+				mask = 1L << ((single - 1) & 63);
+			}
+		}
+		if (randomize && Long.bitCount(mask) > 1) {
+			long[] order = new long[Long.bitCount(mask)];
+			for (int k = 0; mask != 0; mask &= mask - 1)
+				order[k++] = Long.lowestOneBit(mask);
+			for (int k = order.length - 1; k > 0; k--) {
+				int j = RANDOM.nextInt(k + 1);
+				long t = order[k]; order[k] = order[j]; order[j] = t;
+			}
+			for (long b : order) {
+				place(best, Long.numberOfTrailingZeros(b) + 1);
+				search();
+				remove(best);
+			}
+			return;
+		}
+		for (; mask != 0; mask &= mask - 1) {
+			place(best, Long.numberOfTrailingZeros(mask) + 1);
+			search();
+			remove(best);
+		}
+	}
+
+	/**
+	 * Finds a value that has a single possible cell within a house, using the
+	 * candidates computed by the current search node.
+	 * @return (cell << 6 | bit) + 1 of the hidden single, 0 if there is none, -1 if a house is unsatisfiable.
+	 */
+	private long hiddenSingle() {
+		for (int h : exact) {
+			int[] house = houses[h];
+			long once = 0, twice = 0, placed = 0;
+			for (int i : house) {
+				long m = cand[i];
+				twice |= once & m;
+				once |= m;
+				if (values[i] != 0)
+					placed |= 1L << (values[i] - 1);
+			}
+			if ((once | placed) != full)
+				return -1;
+			long exact = once & ~twice;
+			if (exact != 0) {
+				long b = Long.lowestOneBit(exact);
+				for (int i : house)
+					if ((cand[i] & b) != 0)
+						return (((long) i << 6) | Long.numberOfTrailingZeros(b)) + 1;
+			}
+		}
+		return 0;
+	}
+
+	/** Records a complete board. */
+	private void handleSolution() {
+		if (result == null || print) {
+			result = new int[S][S];
+			for (int i = 0; i < N; i++)
+				result[i / S][i % S] = values[i];
+			if (print)
+				printSolution(result);
+		}
+		solutions++;
+	}
+}
@@ -1,86 +1,139 @@
 package edu.utep.cs.cs3331.ard.sudoku.model.solver;
 
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.ConstraintSet;
 
 /**
  * Dancing Links Algorithm X based Sudoku solver.
  * @author Rafal Szymanski
  * @author Anthony DesArmier
- * @version     1.1
+ * @version     1.4
  */
 public class SudokuDLX extends AbstractSudokuSolver {
 
 	/**
-	 * Generates the exact cover grid for a given Sudoku puzzle.
-	 * @return exact cover grid.
+	 * Pristine Dancing Links structures of the base exact cover, keyed by constraint set.
+	 * A structure is taken out while a search runs on it and put back afterwards.
+	 * Standard constraint sets are shared per size, so their structures are never dropped.
+	 */
+	private static final Map<ConstraintSet, Queue<DancingLinks>> CACHE =
+			Collections.synchronizedMap(new WeakHashMap<ConstraintSet, Queue<DancingLinks>>());
+
+	/**
+	 * Sets the houses of the boards to solve.
+	 * <p>
+	 * Killer cages are refused: the exact cover cannot express their sums, which would only be
+	 * checked on complete grids, leaving the search unpruned. {@link SudokuBitmask} solves them.
+	 * @param constraints houses of the board, null for standard boards.
+	 * @throws IllegalArgumentException if the houses include killer cages.
+	 */
+	@Override
+	public void setConstraints(ConstraintSet constraints) {
+		if (constraints != null && constraints.hasSums())
+			throw new IllegalArgumentException("Killer cages are not supported by Dancing Links");
+		super.setConstraints(constraints);
+	}
+
+	/**
+	 * Takes a pristine Dancing Links structure of the base exact cover out of {@link #CACHE},
+	 * building a new one only if none is available for the current constraints.
+	 * @return base Dancing Links structure for the current {@link #constraints}.
 	 */
-	private int[][] makeExactCoverGrid(int[][] sudoku) {
-		int[][] R = sudokuExactCover();
+	private DancingLinks borrow() {
+		DancingLinks dlx = CACHE.computeIfAbsent(constraints, k -> new ConcurrentLinkedQueue<>()).poll();
+		return dlx != null ? dlx : sudokuExactCover();
+	}
+
+	/**
+	 * Returns a Dancing Links structure to {@link #CACHE} once a search has restored it.
+	 * @param dlx structure to return.
+	 */
+	private void release(DancingLinks dlx) {
+		CACHE.get(constraints).offer(dlx);
+	}
+
+	/**
+	 * Collects the exact cover rows of the given clues of a Sudoku puzzle.
+	 * @param sudoku Sudoku puzzle.
+	 * @return row indices of the clues, or null if a clue is out of range.
+	 */
+	private int[] givenRows(int[][] sudoku) {
+		int count = 0;
+		int[] given = new int[S * S];
 		for (int i = 1; i <= S; i++) {
 			for (int j = 1; j <= S; j++) {
 				int n = sudoku[i - 1][j - 1];
-				if (n != 0) { // zero out in the constraint board
-					for (int num = 1; num <= S; num++) {
-						if (num != n) {
-							Arrays.fill(R[getIdx(i, j, num)], 0);
-						}
-					}
-				}
+				if (n < 0 || n > S)
+					return null;
+				if (n != 0)
+					given[count++] = getIdx(i, j, n);
 			}
 		}
-		return R;
+		int[] out = new int[count];
+		System.arraycopy(given, 0, out, 0, count);
+		return out;
 	}
 
 	/**
-	 * Generates the base exact cover grid for a Sudoku puzzle.
-	 * @return base exact cover grid.
+	 * Runs a search over a cached base exact cover with the given clues selected.
+	 * @param sudoku Sudoku puzzle.
+	 * @param mode mode to run algorithm in.
+	 * @param handler handler to decipher solutions with.
+	 * @return number of solutions found.
+	 * @see DancingLinks#runSolverMode(int, int[], SolutionHandler)
 	 */
-	private int[][] sudokuExactCover() {
-		//int[][] R = new int[9 * 9 * 9][9 * 9 * 4]; // 9x9 constraint matrix
-		int[][] R = new int[S * S * S][S * S * 4];
-
-		int hBase = 0;
-
-		// row-column constraints
-		for (int r = 1; r <= S; r++) {
-			for (int c = 1; c <= S; c++, hBase++) {
-				for (int n = 1; n <= S; n++) {
-					R[getIdx(r, c, n)][hBase] = 1;
-				}
-			}
-		}
+	private int search(int[][] sudoku, int mode, SolutionHandler handler) {
+		int[] given = givenRows(sudoku);
+		if (given == null)
+			return 0;
+		DancingLinks dlx = borrow();
+		int solutions = dlx.runSolverMode(mode, given, handler);
+		release(dlx);
+		return solutions;
+	}
 
-		// row-number constraints
-		for (int r = 1; r <= S; r++) {
-			for (int n = 1; n <= S; n++, hBase++) {
-				for (int c1 = 1; c1 <= S; c1++) {
-					R[getIdx(r, c1, n)][hBase] = 1;
-				}
+	/**
+	 * Generates the base exact cover grid for a Sudoku puzzle in sparse form.
+	 * <p>
+	 * Every row (r, c, num) fills one cell and places num once in every house of that cell,
+	 * so only those column indices are kept instead of a dense matrix. Houses smaller than
+	 * the board (killer cages) become secondary columns that may be left uncovered.
+	 * @return Dancing Links structure of the base exact cover grid.
+	 */
+	private DancingLinks sudokuExactCover() {
+		int[][] houses = constraints.getHouses();
+		int[][] housesOf = constraints.getHousesOf();
+		int[] first = new int[houses.length]; // first house-number column of every house
+		int cols = S * S; // row-column constraints come first
+		for (int h = 0; h < houses.length; h++)
+			if (constraints.isExact(h)) {
+				first[h] = cols;
+				cols += S;
 			}
-		}
-
-		// column-number constraints
-		for (int c = 1; c <= S; c++) {
-			for (int n = 1; n <= S; n++, hBase++) {
-				for (int r1 = 1; r1 <= S; r1++) {
-					R[getIdx(r1, c, n)][hBase] = 1;
-				}
+		int primary = cols;
+		for (int h = 0; h < houses.length; h++)
+			if (!constraints.isExact(h)) {
+				first[h] = cols;
+				cols += S;
 			}
-		}
 
-		// box-number constraints
-		for (int br = 1; br <= S; br += side) {
-			for (int bc = 1; bc <= S; bc += side) {
-				for (int n = 1; n <= S; n++, hBase++) {
-					for (int rDelta = 0; rDelta < side; rDelta++) {
-						for (int cDelta = 0; cDelta < side; cDelta++) {
-							R[getIdx(br + rDelta, bc + cDelta, n)][hBase] = 1;
-						}
-					}
-				}
+		int[][] R = new int[S * S * S][];
+		for (int cell = 0; cell < S * S; cell++) {
+			int[] of = housesOf[cell];
+			for (int n = 1; n <= S; n++) {
+				int[] row = new int[of.length + 1];
+				row[0] = cell; // row-column constraint
+				for (int k = 0; k < of.length; k++)
+					row[k + 1] = first[of[k]] + (n - 1); // house-number constraints
+				R[cell * S + (n - 1)] = row;
 			}
 		}
-		return R;
+		return new DancingLinks(primary, cols, R, null);
 	}
 
 	/**
@@ -95,16 +148,12 @@ public class SudokuDLX extends AbstractSudokuSolver {
 
 	/** Prints all valid Sudoku boards. Will not stop any time soon. */
 	public void generateAllSolutions() {
-		int[][] cover = sudokuExactCover();
-		DancingLinks dlx = new DancingLinks(cover, new SudokuHandler(S));
-		dlx.runSolver();
+		search(new int[S][S], 0, new SudokuHandler(S, constraints));
 	}
 
 	/** Prints all valid Sudoku board solutions. */
 	protected void runSolverAll(int[][] sudoku){
-        int[][] cover = makeExactCoverGrid(sudoku);
-        DancingLinks dlx = new DancingLinks(cover, new SudokuHandler(S));
-        dlx.runSolver();
+		search(sudoku, 0, new SudokuHandler(S, constraints));
 	}
 	
 	/**
@@ -116,10 +165,8 @@ public class SudokuDLX extends AbstractSudokuSolver {
 	 */
 	@Override
 	protected int[][] runSolver(int[][] sudoku, int mode){
-        int[][] cover = makeExactCoverGrid(sudoku);
-        SudokuReturnHandler s = new SudokuReturnHandler(S);
-        DancingLinks dlx = new DancingLinks(cover, s);
-        int i = dlx.runSolverMode(mode);
+        SudokuReturnHandler s = new SudokuReturnHandler(S, constraints);
+        int i = search(sudoku, mode, s);
         if(i==1)
         	return s.getResult();
         else {
@@ -0,0 +1,386 @@
+package edu.utep.cs.cs3331.ard.sudoku.net.json;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.SudokuGenerator;
+
+/**
+ * Bounded cache of remote boards in front of a {@link JsonClient}, kept filled in the background.
+ * <p>
+ * For every (size, level) asked for, the cache prefetches a few boards, so that a new game
+ * takes a board already there. Boards expire after a time to live, and the (size, level)
+ * pairs least recently asked for are dropped beyond a bound. When no board is cached and the
+ * remote does not answer in time, or fails, a board is generated locally by
+ * {@link SudokuGenerator}; the remote board, if it comes later, is cached for the next game.
+ * A request that fails pauses the remote requests of its (size, level) for a delay doubled
+ * with every failure in a row, boards being generated locally meanwhile, so that a remote
+ * that is down is not asked again for every game.
+ * The cache can be saved to and loaded from a file, so that boards outlive the program.
+ * <p>
+ * The game does not use it yet: new games are generated locally, and a caller that does
+ * fetch remote boards completes the future off the event dispatch thread.
+ *
+ * @author Anthony DesArmier
+ * @version 1.3
+ */
+public class BoardCache {
+
+	/** Default number of boards kept per (size, level). */
+	public static final int DEFAULT_DEPTH = 3;
+	/** Default number of (size, level) pairs kept. */
+	public static final int DEFAULT_PAIRS = 8;
+	/** Default time to live of a cached board, in milliseconds. */
+	public static final long DEFAULT_TTL = TimeUnit.DAYS.toMillis(7);
+	/** Default time the remote is waited for before generating a board locally, in milliseconds. */
+	public static final long DEFAULT_FALLBACK = 1500;
+	/** Pause of the remote requests of a pair after a first failure, in milliseconds. */
+	private static final long BACKOFF = 1000;
+	/** Longest pause of the remote requests of a pair, in milliseconds. */
+	private static final long MAX_BACKOFF = TimeUnit.MINUTES.toMillis(1);
+
+	/** First bytes of a cache file, "SDKC". */
+	private static final int MAGIC = 0x53444B43;
+	/** Layout version of cache files. */
+	private static final short VERSION = 1;
+
+	private final JsonClient client;
+	private final int depth;
+	private final int pairs;
+	private final long ttl;
+	private volatile long fallback = DEFAULT_FALLBACK;
+	/** Boards of every (size, level), oldest first, the pair least recently asked for first. */
+	private final LinkedHashMap<Long, Deque<Cached>> boards;
+	/** Number of boards being fetched for every (size, level), on demand or not. */
+	private final Map<Long, Integer> fetching = new LinkedHashMap<>();
+	/** Pauses of the (size, level) pairs whose last request failed. */
+	private final Map<Long, Backoff> backoffs = new LinkedHashMap<>();
+	/** Runs the fallbacks. */
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "Board_Cache");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/** Number of boards taken from the cache, fetched on demand and generated locally. */
+	private long hits, misses, fallbacks;
+
+	/** Board with the time it was fetched. */
+	private static final class Cached {
+		final JsonBoard board;
+		/** Time the board was fetched, in milliseconds since the epoch. */
+		final long fetched;
+
+		Cached(JsonBoard board, long fetched) {
+			this.board = board;
+			this.fetched = fetched;
+		}
+	}
+
+	/** Failures in a row of the requests of a pair. */
+	private static final class Backoff {
+		int failures;
+		/** Time before which the remote is not asked, in milliseconds since the epoch. */
+		long until;
+	}
+
+	/**
+	 * Creates a cache with the default bounds.
+	 * @param client client fetching the boards.
+	 */
+	public BoardCache(JsonClient client) {
+		this(client, DEFAULT_DEPTH, DEFAULT_PAIRS, DEFAULT_TTL);
+	}
+
+	/**
+	 * Creates a cache.
+	 * @param client client fetching the boards.
+	 * @param depth number of boards kept per (size, level).
+	 * @param pairs number of (size, level) pairs kept.
+	 * @param ttl time to live of a cached board, in milliseconds.
+	 */
+	public BoardCache(JsonClient client, int depth, int pairs, long ttl) {
+		this.client = client;
+		this.depth = Math.max(1, depth);
+		this.pairs = Math.max(1, pairs);
+		this.ttl = ttl;
+		boards = new LinkedHashMap<Long, Deque<Cached>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Deque<Cached>> eldest) {
+				return size() > BoardCache.this.pairs;
+			}
+		};
+	}
+
+	/**
+	 * Sets how long the remote is waited for before generating a board locally.
+	 * @param fallback time in milliseconds, 0 to generate at once when no board is cached.
+	 */
+	public void setFallback(long fallback) {
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Takes a board, cached if possible, and prefetches boards of the same size and level.
+	 * @param size dimension of the desired Sudoku board.
+	 * @param level difficulty level of the desired Sudoku board.
+	 * @return future of the board, completed at once if a board is cached and within
+	 *   the fallback time otherwise.
+	 */
+	public CompletableFuture<JsonBoard> take(int size, int level) {
+		Long key = key(size, level);
+		CompletableFuture<JsonBoard> result = new CompletableFuture<>();
+		synchronized (this) {
+			Cached cached = poll(key);
+			if (cached != null) {
+				hits++;
+				result.complete(cached.board);
+				prefetch(key, size, level);
+				return result;
+			}
+			misses++;
+			if (isPaused(key)) {
+				executor.execute(() -> generate(result, size, level));
+				return result;
+			}
+			fetching.merge(key, 1, Integer::sum); // one of the boards prefetched
+			prefetch(key, size, level);
+		}
+		client.fetchBoard(size, level).whenComplete((board, e) -> {
+			fetched(key, board);
+			if (board != null && !result.complete(board)) // already generated locally
+				store(key, board);
+			else if (board == null)
+				executor.execute(() -> generate(result, size, level));
+		});
+		executor.schedule(() -> generate(result, size, level), fallback, TimeUnit.MILLISECONDS);
+		return result;
+	}
+
+	/**
+	 * Starts fetching boards of a size and level, so that the next games take them from the cache.
+	 * @param size dimension of the boards.
+	 * @param level difficulty level of the boards.
+	 */
+	public synchronized void prefetch(int size, int level) {
+		prefetch(key(size, level), size, level);
+	}
+
+	/** Fetches the boards missing to fill a pair up to {@link #depth}, unless the pair is paused. */
+	private void prefetch(Long key, int size, int level) {
+		if (isPaused(key))
+			return;
+		Deque<Cached> cached = boards.get(key);
+		int missing = depth - (cached == null ? 0 : cached.size()) - fetching.getOrDefault(key, 0);
+		for (int i = 0; i < missing; i++) {
+			fetching.merge(key, 1, Integer::sum);
+			client.fetchBoard(size, level).whenComplete((board, e) -> {
+				fetched(key, board);
+				if (board != null)
+					store(key, board);
+			});
+		}
+	}
+
+	/** @return whether the remote requests of a pair are paused after a failure. */
+	private boolean isPaused(Long key) {
+		Backoff backoff = backoffs.get(key);
+		return backoff != null && System.currentTimeMillis() < backoff.until;
+	}
+
+	/**
+	 * Accounts for the end of a request, pausing the pair if it failed.
+	 * @param board board fetched, null if the request failed.
+	 */
+	private synchronized void fetched(Long key, JsonBoard board) {
+		fetching.merge(key, -1, Integer::sum);
+		if (board != null) {
+			backoffs.remove(key);
+			return;
+		}
+		long now = System.currentTimeMillis();
+		Backoff backoff = backoffs.computeIfAbsent(key, k -> new Backoff());
+		if (now < backoff.until) // failed with others of the same batch
+			return;
+		backoff.until = now + Math.min(MAX_BACKOFF, BACKOFF << Math.min(backoff.failures++, 16));
+	}
+
+	/** Completes a request with a locally generated board, unless it is already complete. */
+	private void generate(CompletableFuture<JsonBoard> result, int size, int level) {
+		if (result.isDone())
+			return;
+		try {
+			JsonBoard board = local(size, level);
+			if (result.complete(board))
+				synchronized (this) {
+					fallbacks++;
+				}
+		} catch (RuntimeException e) { // size or level the generator does not support
+			result.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Generates a board locally.
+	 * @param size dimension of the board.
+	 * @param level difficulty level of the board.
+	 * @return board, as the API would return it.
+	 */
+	static JsonBoard local(int size, int level) {
+		int[][] grid = SudokuGenerator.generate(size, level);
+		JsonBoard board = new JsonBoard();
+		board.setResponse(true);
+		board.setSize(size);
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				if (grid[x][y] != 0)
+					board.addSquare(x, y, grid[x][y]);
+		return board;
+	}
+
+	/** Caches a board fetched now, unless its pair is full. */
+	private synchronized void store(Long key, JsonBoard board) {
+		Deque<Cached> cached = boards.get(key);
+		if (cached == null)
+			boards.put(key, cached = new ArrayDeque<>());
+		if (cached.size() < depth)
+			cached.add(new Cached(board, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Takes the oldest board of a pair that has not expired, dropping the expired ones.
+	 * @return board, or null if none.
+	 */
+	private Cached poll(Long key) {
+		Deque<Cached> cached = boards.get(key);
+		if (cached == null)
+			return null;
+		long now = System.currentTimeMillis();
+		Cached board;
+		while ((board = cached.poll()) != null)
+			if (now - board.fetched < ttl)
+				return board;
+		return null;
+	}
+
+	/**
+	 * @return number of boards cached, expired ones included.
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (Deque<Cached> cached : boards.values())
+			size += cached.size();
+		return size;
+	}
+
+	/**
+	 * @return boards taken from the cache, fetched on demand and generated locally, in this order.
+	 */
+	public synchronized long[] getCounts() {
+		return new long[] {hits, misses, fallbacks};
+	}
+
+	/**
+	 * Saves the boards that have not expired.
+	 * @param file file to save to, replaced if it exists.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void save(Path file) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			synchronized (this) {
+				long now = System.currentTimeMillis();
+				for (Map.Entry<Long, Deque<Cached>> pair : boards.entrySet())
+					for (Cached cached : pair.getValue()) {
+						if (now - cached.fetched >= ttl)
+							continue;
+						out.writeByte(cached.board.getSize());
+						out.writeByte((int) (long) pair.getKey());
+						out.writeLong(cached.fetched);
+						int[] squares = cached.board.getSquareArray();
+						int count = cached.board.getSquareCount();
+						out.writeShort(count);
+						for (int i = 0; i < count*3; i++)
+							out.writeByte(squares[i]);
+					}
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Loads boards saved by {@link #save(Path)}, dropping the expired ones and those beyond the bounds.
+	 * @param file saved cache.
+	 * @return number of boards loaded and kept.
+	 * @throws IOException if the file cannot be read or is not a saved cache.
+	 */
+	public int load(Path file) throws IOException {
+		int before = size();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readShort() != VERSION)
+				throw new IOException("Not a saved board cache");
+			long now = System.currentTimeMillis();
+			while (true) {
+				int size;
+				try {
+					size = in.readUnsignedByte();
+				} catch (EOFException e) {
+					break;
+				}
+				int level = in.readUnsignedByte();
+				long fetched = in.readLong();
+				JsonBoard board = new JsonBoard();
+				board.setResponse(true);
+				board.setSize(size);
+				for (int n = in.readUnsignedShort(); n > 0; n--)
+					board.addSquare(in.readUnsignedByte(), in.readUnsignedByte(), in.readUnsignedByte());
+				if (now - fetched >= ttl)
+					continue;
+				synchronized (this) {
+					Long key = key(size, level);
+					Deque<Cached> cached = boards.get(key);
+					if (cached == null)
+						boards.put(key, cached = new ArrayDeque<>());
+					if (cached.size() < depth)
+						cached.add(new Cached(board, fetched));
+				}
+			}
+		}
+		return size() - before;
+	}
+
+	/** Drops the expired boards. */
+	public synchronized void purge() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Deque<Cached>> i = boards.values().iterator(); i.hasNext(); ) {
+			Deque<Cached> cached = i.next();
+			cached.removeIf(board -> now - board.fetched >= ttl);
+			if (cached.isEmpty())
+				i.remove();
+		}
+	}
+
+	/** @return key of a (size, level) pair, holding the level in its low bits. */
+	private static Long key(int size, int level) {
+		return (long) size << 32 | (level & 0xFFFFFFFFL);
+	}
+}
@@ -1,23 +1,29 @@
 package edu.utep.cs.cs3331.ard.sudoku.net.json;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Sudoku game board from a Sudoku Web Service API.
  * <p>
  * See <a href="http://www.cs.utep.edu/cheon/ws/sudoku/">http://www.cs.utep.edu/cheon/ws/sudoku/</a>
+ * <p>
+ * Squares are kept packed as {x, y, value} triples in a single array, so that a board
+ * decoded from a stream holds no object per square.
  * 
  * @author		Anthony DesArmier
- * @version     1.1
+ * @version     1.2
  */
 public class JsonBoard {
 	/** True if API produced a valid response, false otherwise. */
 	private boolean response;
 	/** Size of the Sudoku game board. */
  	private int size;
- 	/** Sudoku game board squares. @see {@link JsonSquare} */
-	private List<JsonSquare> squares = new ArrayList<>();
+ 	/** Sudoku game board squares, as {x, y, value} triples. @see {@link JsonSquare} */
+	private int[] squares = new int[3*16];
+	/** Number of squares. */
+	private int count;
 	/** Message for why response was false. */
 	private String reason;
 
@@ -52,18 +58,46 @@ public class JsonBoard {
 	}
 
 	/**
-	 * Getter for {@link #squares}.
-	 * @return {@link #squares}
+	 * Getter for {@link #squares}, as objects created on every access; prefer {@link #getSquareArray()}.
+	 * @return read-only view of {@link #squares}
 	 */
 	public List<JsonSquare> getSquares() {
-		return squares;
+		return new AbstractList<JsonSquare>() {
+			@Override
+			public JsonSquare get(int index) {
+				if(index<0 || index>=count)
+					throw new IndexOutOfBoundsException(String.valueOf(index));
+				return new JsonSquare(squares[3*index], squares[3*index+1], squares[3*index+2]);
+			}
+
+			@Override
+			public int size() {
+				return count;
+			}
+		};
 	}
 
 	/**
 	 * Setter for {@link #squares}.
 	 */
 	public void setSquares(List<JsonSquare> squares) {
-		this.squares = squares;
+		count = 0;
+		for(JsonSquare square : squares)
+			addSquare(square.getX(), square.getY(), square.getValue());
+	}
+	
+	/**
+	 * @return {x, y, value} triples of the squares, to be read up to {@link #getSquareCount()}.
+	 */
+	public int[] getSquareArray() {
+		return squares;
+	}
+	
+	/**
+	 * @return {@link #count}
+	 */
+	public int getSquareCount() {
+		return count;
 	}
 	
 	/**
@@ -88,6 +122,11 @@ public class JsonBoard {
 	 * @param value {@link JsonSquare#value}
 	 */
 	public void addSquare(int x, int y, int value) {
-		squares.add(new JsonSquare(x, y, value));
+		if(3*count==squares.length)
+			squares = Arrays.copyOf(squares, 2*squares.length);
+		squares[3*count] = x;
+		squares[3*count+1] = y;
+		squares[3*count+2] = value;
+		count++;
 	}
 }
@@ -0,0 +1,152 @@
+package edu.utep.cs.cs3331.ard.sudoku.net.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Consumer;
+
+import com.eclipsesource.json.JsonHandler;
+import com.eclipsesource.json.JsonParser;
+import com.eclipsesource.json.ParseException;
+
+/**
+ * Decodes boards in the layout of the Sudoku Web Service API as the JSON tokens are read.
+ * <p>
+ * Unlike {@link com.eclipsesource.json.Json#parse(Reader)}, no document tree is built:
+ * the decoder follows the tokens of the minimal-json {@link JsonParser} and writes every
+ * square straight into the packed array of its {@link JsonBoard} when the square ends.
+ * Either a single board object or an array of them, such as a puzzle set, is decoded,
+ * every board being handed over as soon as it ends. Unknown members are skipped, and
+ * a member of a square that is missing or not a number is read as -1.
+ *
+ * @author Anthony DesArmier
+ * @version 1.0
+ */
+public class JsonBoardDecoder extends JsonHandler<Object, Object> {
+
+	/** Receives the boards decoded. */
+	private final Consumer<JsonBoard> consumer;
+	/** Number of objects the parser is in: 1 in a board, 2 in a square. */
+	private int depth;
+	/** Number of arrays the parser is in within the current board. */
+	private int arrays;
+	/** Whether the parser is in the squares array of the current board. */
+	private boolean inSquares;
+	/** Name of the member being read. */
+	private String member;
+	/** Board being decoded. */
+	private JsonBoard board;
+	/** x, y and value of the square being decoded. */
+	private int x, y, value;
+	/** Number of boards decoded. */
+	private int boards;
+
+	private JsonBoardDecoder(Consumer<JsonBoard> consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Decodes a single board.
+	 * @param in JSON text of a board object.
+	 * @return board decoded, null if the text holds no board or several.
+	 * @throws IOException if the text cannot be read.
+	 * @throws ParseException if the text is not valid JSON.
+	 */
+	public static JsonBoard decode(Reader in) throws IOException {
+		JsonBoard[] board = new JsonBoard[1];
+		return decodeAll(in, b -> board[0] = b) == 1 ? board[0] : null;
+	}
+
+	/**
+	 * Decodes a board, or an array of boards, handing each one over as soon as it is decoded.
+	 * @param in JSON text of a board object or of an array of them.
+	 * @param consumer receives the boards, in order.
+	 * @return number of boards decoded.
+	 * @throws IOException if the text cannot be read.
+	 * @throws ParseException if the text is not valid JSON.
+	 */
+	public static int decodeAll(Reader in, Consumer<JsonBoard> consumer) throws IOException {
+		JsonBoardDecoder decoder = new JsonBoardDecoder(consumer);
+		new JsonParser(decoder).parse(in);
+		return decoder.boards;
+	}
+
+	@Override
+	public Object startObject() {
+		if (++depth == 1) {
+			board = new JsonBoard();
+			board.setSize(-1);
+			arrays = 0;
+		}
+		else if (depth == 2 && inSquares)
+			x = y = value = -1;
+		return null;
+	}
+
+	@Override
+	public void endObject(Object object) {
+		if (depth-- == 1) {
+			boards++;
+			consumer.accept(board);
+			board = null;
+		}
+		else if (depth == 1 && inSquares)
+			board.addSquare(x, y, value);
+	}
+
+	@Override
+	public Object startArray() {
+		if (depth == 1 && ++arrays == 1)
+			inSquares = "squares".equals(member);
+		return null;
+	}
+
+	@Override
+	public void endArray(Object array) {
+		if (depth == 1 && --arrays == 0)
+			inSquares = false;
+	}
+
+	@Override
+	public void endObjectName(Object object, String name) {
+		member = name;
+	}
+
+	@Override
+	public void endBoolean(boolean bool) {
+		if (depth == 1 && arrays == 0 && "response".equals(member))
+			board.setResponse(bool);
+	}
+
+	@Override
+	public void endString(String string) {
+		if (depth == 1 && arrays == 0) {
+			if ("size".equals(member)) // API returns size as a String
+				board.setSize(parseInt(string));
+			else if ("reason".equals(member))
+				board.setReason(string);
+		}
+	}
+
+	@Override
+	public void endNumber(String string) {
+		if (depth == 1 && arrays == 0 && "size".equals(member))
+			board.setSize(parseInt(string));
+		else if (depth == 2 && inSquares) {
+			switch (member) {
+			case "x": x = parseInt(string); break;
+			case "y": y = parseInt(string); break;
+			case "value": value = parseInt(string); break;
+			default: break;
+			}
+		}
+	}
+
+	/** @return integer of a number token, or -1 if it is not one. */
+	private static int parseInt(String string) {
+		try {
+			return Integer.parseInt(string);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -1,53 +1,280 @@
 package edu.utep.cs.cs3331.ard.sudoku.net.json;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-
-import javax.swing.JOptionPane;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonArray;
 import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
-
-import edu.utep.cs.cs3331.ard.sudoku.dialog.SudokuDialog;
+import com.eclipsesource.json.ParseException;
 
 /**
  * Retrieves and parses information provided by a Sudoku Web Service API.
  * <p>
  * See <a href="http://www.cs.utep.edu/cheon/ws/sudoku/">http://www.cs.utep.edu/cheon/ws/sudoku/</a>
- * Occasionally the API will hang on size 9 difficulty 3.
- * 
+ * <p>
+ * Requests run on the client's own threads and return futures, so that the caller, such as
+ * the event dispatch thread, never waits on the network. Every request has connect and
+ * read timeouts, since the API occasionally hangs on size 9 difficulty 3, and is retried
+ * with exponential backoff when the connection fails, times out or the server errs.
+ * A failed request completes its future exceptionally with an {@link IOException}.
+ * The API information, which does not change, is fetched once and kept.
+ *
  * @author      Anthony DesArmier
- * @version     1.2.1
+ * @version     1.4
+ * @see LocalSudokuService
  */
 public class JsonClient {
-	
+
+	/** Address of the Sudoku Web Service API. */
+	public static final String DEFAULT_URL = "http://www.cs.utep.edu/cheon/ws/sudoku/";
+	/** Default connect timeout, in milliseconds. */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 3000;
+	/** Default read timeout, in milliseconds. */
+	public static final int DEFAULT_READ_TIMEOUT = 5000;
+	/** Default number of retries of a failed request. */
+	public static final int DEFAULT_RETRIES = 2;
+	/** Default delay before the first retry, in milliseconds, doubled for every retry. */
+	public static final long DEFAULT_BACKOFF = 250;
+
+	/** Client of the Sudoku Web Service API, created on first use. */
+	private static JsonClient defaultClient;
+
+	/** Address of the API, ending with a slash. */
+	private final String baseUrl;
+	/** Runs the requests and delays the retries. */
+	private final ScheduledExecutorService executor;
+	private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+	private volatile int retries = DEFAULT_RETRIES;
+	private volatile long backoff = DEFAULT_BACKOFF;
+	/** API information, null until fetched successfully. */
+	private CompletableFuture<JsonInfo> info;
+
+	/**
+	 * Creates a client of an API.
+	 * @param baseUrl address of the API, such as {@link #DEFAULT_URL}.
+	 */
+	public JsonClient(String baseUrl) {
+		this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+		AtomicInteger threads = new AtomicInteger();
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2, r -> {
+			Thread thread = new Thread(r, "Json_Client-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+		executor.allowCoreThreadTimeOut(true);
+		this.executor = executor;
+	}
+
+	/**
+	 * @return client of the Sudoku Web Service API at {@link #DEFAULT_URL}.
+	 */
+	public static synchronized JsonClient getDefault() {
+		if (defaultClient == null)
+			defaultClient = new JsonClient(DEFAULT_URL);
+		return defaultClient;
+	}
+
+	/**
+	 * Sets the connect and read timeouts of the requests.
+	 * @param connectTimeout connect timeout, in milliseconds.
+	 * @param readTimeout read timeout, in milliseconds.
+	 */
+	public void setTimeouts(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Sets how failed requests are retried.
+	 * @param retries number of retries, 0 for none.
+	 * @param backoff delay before the first retry, in milliseconds, doubled for every retry.
+	 */
+	public void setRetries(int retries, long backoff) {
+		this.retries = Math.max(0, retries);
+		this.backoff = Math.max(0, backoff);
+	}
+
+	/**
+	 * Fetches the API information, at most once.
+	 * @return future of the API information.
+	 * @see JsonInfo
+	 */
+	public synchronized CompletableFuture<JsonInfo> fetchInfo() {
+		if (info == null) {
+			CompletableFuture<JsonInfo> fetch = request("info/", JsonClient::parseInfo);
+			fetch.whenComplete((result, e) -> {
+				if (e != null)
+					forgetInfo(fetch); // fetched again on next call
+			});
+			info = fetch;
+		}
+		return info;
+	}
+
+	/** Drops a failed fetch of the API information. */
+	private synchronized void forgetInfo(CompletableFuture<JsonInfo> fetch) {
+		if (info == fetch)
+			info = null;
+	}
+
+	/**
+	 * Fetches a new Sudoku game board.
+	 * @param size dimension of the desired Sudoku board.
+	 * @param level difficulty level of the desired Sudoku board.
+	 * @return future of the board, failing with an {@link IOException} if the API
+	 *   did not generate one.
+	 * @see JsonBoard
+	 */
+	public CompletableFuture<JsonBoard> fetchBoard(int size, int level) {
+		return request(String.format("new/?size=%d&level=%d", size, level), JsonClient::parseBoard);
+	}
+
 	/**
 	 * Retrieves and parses a JSON object supplied by a Sudoku Web Service API that provides various information.
+	 * Blocks until the information is fetched; prefer {@link #fetchInfo()}.
 	 * @return JSONInfo containing various Sudoku Web Service API information, null if error occurred.
 	 * @see JsonInfo
 	 */
 	public static JsonInfo getInfo() {
-		URL url;
-		InputStreamReader in = null;
-		JsonObject info = null;
 		try {
-			url = new URL("http://www.cs.utep.edu/cheon/ws/sudoku/info/");
-			in = new InputStreamReader(url.openStream());
-			info = Json.parse(in).asObject();
-		} catch (MalformedURLException e) {
-			printError("Malformed URL.\n", e);
-		} catch (IOException e) {
-			printError("Failed to connect to server.\n", e);
+			return getDefault().fetchInfo().join();
+		} catch (CompletionException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Retrieves and parses a JSON object supplied by a Sudoku Web Service API that provides a Sudoku game board based on given parameters.
+	 * Blocks until the board is fetched; prefer {@link #fetchBoard(int, int)}.
+	 * @param size dimension of the desired Sudoku board.
+	 * @param level difficulty level of the desired Sudoku board.
+	 * @return JSONBoard containing information representing a Sudoku game board, null if error occurred.
+	 * @see JsonBoard
+	 */
+	public static JsonBoard requestBoard(int size, int level) {
+		try {
+			return getDefault().fetchBoard(size, level).join();
+		} catch (CompletionException e) {
+			return null;
+		}
+	}
+
+	/** Parses the body of a response. */
+	private interface Parser<T> {
+		T parse(Reader body) throws IOException;
+	}
+
+	/**
+	 * Requests a resource of the API on the client's threads.
+	 * @param path path of the resource, relative to the API address.
+	 * @param parser parser of the response body.
+	 * @return future of the parsed response.
+	 */
+	private <T> CompletableFuture<T> request(String path, Parser<T> parser) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		executor.execute(() -> attempt(path, parser, result, 0));
+		return result;
+	}
+
+	/**
+	 * Makes an attempt at a request, scheduling the next one if it fails and may be retried.
+	 * @param attempt number of attempts already failed.
+	 */
+	private <T> void attempt(String path, Parser<T> parser, CompletableFuture<T> result, int attempt) {
+		if (result.isDone()) // cancelled by the caller
+			return;
+		try {
+			result.complete(get(path, parser));
+		} catch (RetryableException e) {
+			if (attempt >= retries) {
+				result.completeExceptionally(e.getCause());
+				return;
+			}
+			long delay = backoff << attempt;
+			delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1); // keep clients apart
+			executor.schedule(() -> attempt(path, parser, result, attempt + 1), delay, TimeUnit.MILLISECONDS);
+		} catch (IOException | RuntimeException e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Requests a resource of the API and parses it.
+	 * @throws RetryableException if the connection failed, timed out or the server erred.
+	 * @throws RefusedException if the request is refused or the response cannot be parsed.
+	 */
+	private <T> T get(String path, Parser<T> parser) throws IOException {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+			connection.setConnectTimeout(connectTimeout);
+			connection.setReadTimeout(readTimeout);
+			int status = connection.getResponseCode();
+			if (status >= 500)
+				throw new RetryableException(new IOException("Server error " + status));
+			if (status != HttpURLConnection.HTTP_OK)
+				throw new RefusedException("Request refused with " + status, null);
+			try (Reader body = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+				return parser.parse(body);
+			}
+		} catch (ParseException | UnsupportedOperationException | NullPointerException | NumberFormatException e) { // not the JSON expected
+			throw new RefusedException("Malformed response", e);
+		} catch (RetryableException | RefusedException | MalformedURLException e) {
+			throw e;
+		} catch (IOException e) { // connection failed or timed out
+			throw new RetryableException(e);
 		} finally {
-			closeStream(in);
+			if (connection != null)
+				connection.disconnect();
 		}
+	}
+
+	/** Failure of a request that would fail again. */
+	@SuppressWarnings("serial")
+	private static class RefusedException extends IOException {
+		RefusedException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	/** Failure of a request that may succeed if made again. */
+	@SuppressWarnings("serial")
+	private static class RetryableException extends IOException {
+		RetryableException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+	/**
+	 * Parses the API information.
+	 * @param body response body.
+	 * @return API information.
+	 */
+	static JsonInfo parseInfo(Reader body) throws IOException {
+		JsonObject info = Json.parse(body).asObject();
 		JsonInfo jsonInfo = new JsonInfo();
 		JsonArray jsonSizes = info.get("sizes").asArray();
 		JsonArray jsonLevels = info.get("levels").asArray();
@@ -65,69 +292,19 @@ public class JsonClient {
 	}
 
 	/**
-	 * Retrieves and parses a JSON object supplied by a Sudoku Web Service API that provides a Sudoku game board based on given parameters.
-	 * @param size dimension of the desired Sudoku board.
-	 * @param level difficulty level of the desired Sudoku board.
-	 * @return JSONBoard containing information representing a Sudoku game board.
-	 * @see JsonBoard
+	 * Parses a board as it is read, without building the JSON document.
+	 * @param body response body.
+	 * @return board.
+	 * @throws IOException if the API did not generate a board.
+	 * @see JsonBoardDecoder
 	 */
-	public static JsonBoard requestBoard(int size, int level) {
-		URL url;
-		InputStreamReader in = null;
-		JsonObject board = null;
-		try {
-			url = new URL(String.format("http://www.cs.utep.edu/cheon/ws/sudoku/new/?size=%d&level=%d", size, level));
-			in = new InputStreamReader(url.openStream());
-			board = Json.parse(in).asObject();
-		} catch (MalformedURLException e) {
-			printError("Malformed URL.\n", e);
-		} catch (IOException e) {
-			printError("Failed to connect to server.\n", e);
-		} finally {
-			closeStream(in);
-		}
-		JsonBoard jsonBoard = new JsonBoard();
-		JsonArray jsonList;
-		boolean response = board.getBoolean("response", false);
-		if(!response)
-			printError("API did not generate request.\n", new Exception());
-		jsonBoard.setResponse(response);
-		jsonBoard.setSize(Integer.valueOf(board.getString("size", "-1"))); // API returns size as a String
-		jsonList = board.get("squares").asArray();
-		for(JsonValue square:jsonList) {
-			int x = square.asObject().getInt("x", -1);
-			int y = square.asObject().getInt("y", -1);
-			int value = square.asObject().getInt("value", -1);
-			jsonBoard.addSquare(x, y, value);
-		}
+	static JsonBoard parseBoard(Reader body) throws IOException {
+		JsonBoard jsonBoard = JsonBoardDecoder.decode(body);
+		if(jsonBoard == null)
+			throw new RefusedException("Malformed response", null);
+		if(!jsonBoard.isResponse())
+			throw new RefusedException("API did not generate request: "
+					+ (jsonBoard.getReason() == null ? "no reason given" : jsonBoard.getReason()), null);
 		return jsonBoard;
 	}
-	
-	/** 
-	 * Closes an IO reader.
-	 * @param reader IO reader to close.
-	 * */
-	private static void closeStream(Closeable thing) {
-		try {
-			if(thing != null)
-				thing.close();
-		} catch (IOException e) {
-			printError("Unable to close stream.", e);
-		}
-	}
-	
-    /**
-     * Prints a message and stack trace to an error log.
-     * 
-     * @param message relevant message to be printed.
-     * @param e exception whose stacktrace is to be printed.
-     */
-    private static void printError(String message, Exception e) {
-    	int x = JOptionPane.showConfirmDialog(null, message+"\nRestart?", "Error", JOptionPane.ERROR_MESSAGE);
-    	if(x==0)
-    		SudokuDialog.main(null);
-    	else
-    		System.exit(0);
-    }
-	
 }
@@ -0,0 +1,168 @@
+package edu.utep.cs.cs3331.ard.sudoku.net.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.SudokuGenerator;
+
+/**
+ * Stand-in for the Sudoku Web Service API, answering on the loopback interface with
+ * boards generated locally.
+ * <p>
+ * It serves the same resources in the same JSON layout as the API, so that a
+ * {@link JsonClient} can be tested, or used offline, against it. Failures can be
+ * injected: a number of requests answered with a server error, and a delay before
+ * every answer to trigger read timeouts.
+ *
+ * @author Anthony DesArmier
+ * @version 1.0
+ */
+public class LocalSudokuService implements AutoCloseable {
+
+	/** Sizes of the boards served. */
+	private static final int[] SIZES = {4, 9};
+	/** Difficulty levels of the boards served. */
+	private static final int[] LEVELS = {1, 2, 3};
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	/** Number of requests answered. */
+	private final AtomicInteger requests = new AtomicInteger();
+	/** Number of requests still to answer with a server error. */
+	private final AtomicInteger failures = new AtomicInteger();
+	/** Milliseconds to wait before answering. */
+	private volatile long delay;
+
+	/**
+	 * Starts a service on an ephemeral port of the loopback interface.
+	 * @throws IOException if the service cannot bind.
+	 */
+	public LocalSudokuService() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/info/", exchange -> answer(exchange, info()));
+		server.createContext("/new/", exchange -> answer(exchange, board(exchange.getRequestURI())));
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "Local_Sudoku_Service");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return address of the service, to give to {@link JsonClient#JsonClient(String)}.
+	 */
+	public String getUrl() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+	}
+
+	/**
+	 * @return number of requests answered, failed ones included.
+	 */
+	public int getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Answers the next requests with a server error.
+	 * @param failures number of requests to fail.
+	 */
+	public void failNext(int failures) {
+		this.failures.set(failures);
+	}
+
+	/**
+	 * Setter for {@link #delay}.
+	 */
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+
+	/** Stops the service. */
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/** @return API information. */
+	private static String info() {
+		return "{\"sizes\":" + list(SIZES) + ",\"levels\":" + list(LEVELS)
+				+ ",\"defaultSize\":" + SIZES[SIZES.length - 1] + ",\"defaultLevel\":" + LEVELS[0] + "}";
+	}
+
+	/**
+	 * Generates a board as asked by a request.
+	 * @param uri URI of the request, with size and level parameters.
+	 * @return board, or a refusal with its reason.
+	 */
+	private static String board(URI uri) {
+		int size = -1, level = -1;
+		String query = uri.getRawQuery();
+		for (String parameter : query == null ? new String[0] : query.split("&")) {
+			String[] pair = parameter.split("=", 2);
+			try {
+				if (pair[0].equals("size"))
+					size = Integer.parseInt(pair[1]);
+				else if (pair[0].equals("level"))
+					level = Integer.parseInt(pair[1]);
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {}
+		}
+		if (!contains(SIZES, size) || !contains(LEVELS, level))
+			return "{\"response\":false,\"reason\":\"Invalid size or level\"}";
+		int[][] grid = SudokuGenerator.generate(size, level);
+		StringBuilder json = new StringBuilder("{\"response\":true,\"size\":\"").append(size).append("\",\"squares\":[");
+		boolean first = true;
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				if (grid[x][y] != 0) {
+					json.append(first ? "" : ",").append("{\"x\":").append(x).append(",\"y\":").append(y)
+							.append(",\"value\":").append(grid[x][y]).append('}');
+					first = false;
+				}
+		return json.append("]}").toString();
+	}
+
+	/** Sends a JSON answer, or a server error if one is to be injected. */
+	private void answer(HttpExchange exchange, String json) throws IOException {
+		requests.incrementAndGet();
+		try {
+			if (delay > 0)
+				Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		boolean fail = failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0;
+		byte[] body = (fail ? "{}" : json).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(fail ? 503 : 200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static String list(int[] values) {
+		StringBuilder list = new StringBuilder("[");
+		for (int i = 0; i < values.length; i++)
+			list.append(i == 0 ? "" : ",").append(values[i]);
+		return list.append(']').toString();
+	}
+
+	private static boolean contains(int[] values, int value) {
+		for (int v : values)
+			if (v == value)
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,130 @@
+package edu.utep.cs.cs3331.ard.sudoku.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utep.cs.cs3331.ard.sudoku.net.json.BoardCache;
+import edu.utep.cs.cs3331.ard.sudoku.net.json.JsonBoard;
+import edu.utep.cs.cs3331.ard.sudoku.net.json.JsonClient;
+import edu.utep.cs.cs3331.ard.sudoku.net.json.LocalSudokuService;
+
+public class BoardCacheTest {
+
+	private LocalSudokuService service;
+	private JsonClient client;
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		service = new LocalSudokuService();
+		client = new JsonClient(service.getUrl());
+		client.setTimeouts(1000, 1000);
+		client.setRetries(0, 0);
+		file = Files.createTempFile("board-cache", ".bin");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		service.close();
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testHit() throws Exception {
+		BoardCache cache = new BoardCache(client);
+		assertEquals(9, cache.take(9, 1).get().getSize()); // miss
+		awaitSize(cache, BoardCache.DEFAULT_DEPTH - 1);
+		CompletableFuture<JsonBoard> hit = cache.take(9, 1);
+		assertTrue(hit.isDone());
+		assertEquals(9, hit.get().getSize());
+		assertArrayEquals(new long[] {1, 1, 0}, cache.getCounts());
+	}
+
+	@Test
+	public void testMissRequestsDepth() throws Exception {
+		BoardCache cache = new BoardCache(client);
+		cache.take(4, 1).get();
+		awaitSize(cache, BoardCache.DEFAULT_DEPTH - 1);
+		assertEquals(BoardCache.DEFAULT_DEPTH, service.getRequests()); // the board taken is one of them
+	}
+
+	@Test
+	public void testFallback() throws Exception {
+		service.setDelay(2000);
+		BoardCache cache = new BoardCache(client);
+		cache.setFallback(200);
+		long start = System.nanoTime();
+		JsonBoard board = cache.take(4, 1).get(1000, TimeUnit.MILLISECONDS);
+		assertEquals(4, board.getSize());
+		assertTrue(System.nanoTime() - start < 1000000000L); // generated before the remote answers
+		assertEquals(1, cache.getCounts()[1]);
+	}
+
+	@Test
+	public void testPauseAfterFailure() throws Exception {
+		service.failNext(Integer.MAX_VALUE);
+		BoardCache cache = new BoardCache(client);
+		cache.setFallback(200);
+		assertEquals(4, cache.take(4, 1).get(1000, TimeUnit.MILLISECONDS).getSize());
+		Thread.sleep(100); // the failed prefetches complete
+		int requests = service.getRequests();
+		for (int i = 0; i < 5; i++) {
+			CompletableFuture<JsonBoard> board = cache.take(4, 1);
+			assertEquals(4, board.get(100, TimeUnit.MILLISECONDS).getSize()); // generated without waiting
+		}
+		assertEquals(requests, service.getRequests());
+		assertEquals(6, cache.getCounts()[1]);
+	}
+
+	@Test
+	public void testSaveLoad() throws Exception {
+		BoardCache cache = new BoardCache(client);
+		cache.prefetch(9, 1);
+		cache.prefetch(4, 2);
+		awaitSize(cache, 2 * BoardCache.DEFAULT_DEPTH);
+		cache.save(file);
+		BoardCache loaded = new BoardCache(client);
+		assertEquals(2 * BoardCache.DEFAULT_DEPTH, loaded.load(file));
+		assertTrue(loaded.take(4, 2).isDone());
+	}
+
+	@Test
+	public void testLoadExpired() throws Exception {
+		BoardCache cache = new BoardCache(client);
+		cache.prefetch(9, 1);
+		awaitSize(cache, BoardCache.DEFAULT_DEPTH);
+		cache.save(file);
+		Thread.sleep(10);
+		assertEquals(0, new BoardCache(client, BoardCache.DEFAULT_DEPTH, BoardCache.DEFAULT_PAIRS, 5).load(file));
+	}
+
+	@Test
+	public void testLoadPairBound() throws Exception {
+		BoardCache cache = new BoardCache(client);
+		cache.prefetch(9, 1);
+		cache.prefetch(4, 2);
+		awaitSize(cache, 2 * BoardCache.DEFAULT_DEPTH);
+		cache.save(file);
+		BoardCache bounded = new BoardCache(client, BoardCache.DEFAULT_DEPTH, 1, BoardCache.DEFAULT_TTL);
+		assertEquals(BoardCache.DEFAULT_DEPTH, bounded.load(file));
+		assertEquals(BoardCache.DEFAULT_DEPTH, bounded.size());
+	}
+
+	/** Waits for the prefetched boards to arrive. */
+	private static void awaitSize(BoardCache cache, int size) throws InterruptedException {
+		for (int i = 0; i < 200 && cache.size() < size; i++)
+			Thread.sleep(10);
+		assertEquals(size, cache.size());
+	}
+}
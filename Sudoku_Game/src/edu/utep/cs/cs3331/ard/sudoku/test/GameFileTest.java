@@ -0,0 +1,104 @@
+package edu.utep.cs.cs3331.ard.sudoku.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.Board;
+import edu.utep.cs.cs3331.ard.sudoku.model.ConstraintSet;
+import edu.utep.cs.cs3331.ard.sudoku.model.GameFile;
+
+public class GameFileTest {
+
+	private Board board;
+
+	@Before
+	public void setUp() throws InterruptedException {
+		board = new Board(4, 0, 0, 1, 1, 1, 1, 2, 1);
+		board.setGuideMode(0);
+		board.select(1, 2);
+		board.update(3, true, false);
+		board.select(2, 3);
+		board.toggleNote(4);
+		board.toggleNote(2);
+		board.select(3, 0);
+		board.update(2, true, false);
+		board.undo(); // leaves a redo action
+		board.setGuideMode(2);
+		Thread.sleep(20);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		long elapsed = board.getElapsedMillis();
+		Board loaded = GameFile.decode(GameFile.encode(board));
+		assertTrue(loaded.getElapsedMillis() >= elapsed);
+		assertEquals(2, loaded.getGuideMode());
+		assertSameGame(board, loaded);
+		board.redo();
+		loaded.redo();
+		assertSameGame(board, loaded);
+		for (int i = 0; i < 4; i++) { // back to the start, notes included
+			board.undo();
+			loaded.undo();
+			assertSameGame(board, loaded);
+		}
+	}
+
+	@Test
+	public void testSaveLoad() throws IOException {
+		Path file = Files.createTempFile("game-file", ".sdk");
+		try {
+			GameFile.save(board, file);
+			assertSameGame(board, GameFile.load(file));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testTruncated() {
+		ByteBuffer data = GameFile.encode(board);
+		for (int length = 0; length < data.limit(); length++) {
+			ByteBuffer cut = data.duplicate();
+			cut.limit(length);
+			try {
+				GameFile.decode(cut);
+				fail("Decoded " + length + " of " + data.limit() + " bytes");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testJigsawRejected() {
+		int[] regions = new int[16];
+		for (int i = 0; i < 16; i++) // boxes shifted by one column every other row
+			regions[i] = (i / 8) * 2 + ((i % 4 + i / 4 % 2) % 4) / 2;
+		Board jigsaw = new Board(new ConstraintSet(4).addRegions(regions).compile(), 0);
+		try {
+			GameFile.encode(jigsaw);
+			fail("Encoded a jigsaw board");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/** Checks that two boards hold the same values and notes. */
+	private static void assertSameGame(Board expected, Board actual) {
+		assertArrayEquals(expected.toArr(), actual.toArr());
+		for (int x = 0; x < 4; x++)
+			for (int y = 0; y < 4; y++)
+				assertEquals(expected.getNotes(x, y), actual.getNotes(x, y));
+	}
+}
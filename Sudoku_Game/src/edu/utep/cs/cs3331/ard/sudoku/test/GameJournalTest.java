@@ -0,0 +1,93 @@
+package edu.utep.cs.cs3331.ard.sudoku.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.Board;
+import edu.utep.cs.cs3331.ard.sudoku.model.GameJournal;
+
+public class GameJournalTest {
+
+	private static final int MOVES = 11;
+
+	private Path file;
+	private Board board;
+	/** Cell tuples of the board after every move, from move 0. */
+	private List<int[]> states;
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("game-journal", ".bin");
+		Files.delete(file); // created by the journal
+		board = new Board(4, 0, 0, 1, 1, 1, 1, 2, 1);
+		board.setGuideMode(0);
+		states = new ArrayList<>();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testSeek() throws IOException {
+		try (GameJournal journal = GameJournal.open(file, 4)) {
+			board.setRecorder(journal);
+			play(MOVES);
+			assertEquals(MOVES, journal.getMoveCount());
+			assertFalse(journal.checkError());
+		}
+		assertReplays(MOVES);
+	}
+
+	@Test
+	public void testReopenAfterPartialRecord() throws IOException {
+		try (GameJournal journal = GameJournal.open(file, 4)) {
+			board.setRecorder(journal);
+			play(MOVES);
+		}
+		long length = Files.size(file);
+		Files.write(file, new byte[] {3, 0, 0, 0}, StandardOpenOption.APPEND); // move record cut short
+		try (GameJournal journal = GameJournal.open(file, 4)) {
+			assertEquals(length, Files.size(file));
+			assertEquals(MOVES, journal.getMoveCount());
+			board.setRecorder(journal);
+			play(3);
+			assertEquals(MOVES + 3, journal.getMoveCount());
+		}
+		assertReplays(MOVES + 3);
+	}
+
+	/** Makes moves on the empty cells of the board, recording the board after each one. */
+	private void play(int moves) {
+		if (states.isEmpty())
+			states.add(board.toArr());
+		for (int n = 0; n < moves; n++) {
+			int cell = 6 + states.size() % 10; // cells 0 and 5 are given
+			board.select(cell / 4, cell % 4);
+			board.update(1 + states.size() % 4, true, false);
+			states.add(board.toArr());
+		}
+	}
+
+	/** Checks that the journal replays every board recorded. */
+	private void assertReplays(int moves) throws IOException {
+		try (GameJournal.Replay replay = GameJournal.read(file)) {
+			assertEquals(moves, replay.getMoveCount());
+			for (int k = moves; k >= 0; k--)
+				assertArrayEquals(states.get(k), replay.seek(k).toArr());
+		}
+	}
+}
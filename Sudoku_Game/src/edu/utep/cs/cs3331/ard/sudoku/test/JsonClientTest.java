@@ -0,0 +1,91 @@
+package edu.utep.cs.cs3331.ard.sudoku.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.Board;
+import edu.utep.cs.cs3331.ard.sudoku.net.json.JsonBoard;
+import edu.utep.cs.cs3331.ard.sudoku.net.json.JsonClient;
+import edu.utep.cs.cs3331.ard.sudoku.net.json.LocalSudokuService;
+
+public class JsonClientTest {
+
+	private LocalSudokuService service;
+	private JsonClient client;
+
+	@Before
+	public void setUp() throws IOException {
+		service = new LocalSudokuService();
+		client = new JsonClient(service.getUrl());
+		client.setTimeouts(1000, 500);
+		client.setRetries(2, 10);
+	}
+
+	@After
+	public void tearDown() {
+		service.close();
+	}
+
+	@Test
+	public void testFetchBoard() throws Exception {
+		JsonBoard board = client.fetchBoard(9, 1).get();
+		assertTrue(board.isResponse());
+		assertEquals(9, board.getSize());
+		assertEquals(9, new Board(board).getSize());
+	}
+
+	@Test
+	public void testInfoCached() throws Exception {
+		assertEquals(9, client.fetchInfo().get().getDefaultSize());
+		assertSame(client.fetchInfo(), client.fetchInfo());
+		assertEquals(1, service.getRequests());
+	}
+
+	@Test
+	public void testRetry() throws Exception {
+		service.failNext(2);
+		assertEquals(4, client.fetchBoard(4, 1).get().getSize());
+		assertEquals(3, service.getRequests());
+	}
+
+	@Test
+	public void testRetriesExhausted() throws Exception {
+		service.failNext(3);
+		assertFails(client.fetchBoard(4, 1).thenApply(JsonBoard::getSize));
+		assertEquals(3, service.getRequests());
+	}
+
+	@Test
+	public void testRefused() throws Exception {
+		assertFails(client.fetchBoard(5, 1).thenApply(JsonBoard::getSize));
+		assertEquals(1, service.getRequests()); // not retried
+	}
+
+	@Test
+	public void testReadTimeout() throws Exception {
+		service.setDelay(1000);
+		client.setRetries(0, 0);
+		long start = System.nanoTime();
+		assertFails(client.fetchBoard(4, 1).thenApply(JsonBoard::getSize));
+		assertTrue(System.nanoTime() - start < 1000000000L);
+	}
+
+	private static void assertFails(Future<?> future) throws InterruptedException {
+		try {
+			future.get();
+			fail("Request did not fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+}
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
 import java.util.Map;
 
 import javax.swing.BorderFactory;
@@ -32,7 +33,7 @@ import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkManager;
  * Provides networking control.
  * 
  * @author Anthony DesArmier
- * @version 1.5
+ * @version 1.6
  */
 public class NetworkWindow extends JFrame {
 	private static final long serialVersionUID = -3450758535260468131L;
@@ -254,6 +255,18 @@ public class NetworkWindow extends JFrame {
 		floorScrollBar();
 	}
 
+	/**
+	 * Logs messages to the log TextArea at once, scrolling down once.
+	 * @param messages messages to log, in order.
+	 */
+	public void logMessages(List<String> messages) {
+		StringBuilder lines = new StringBuilder();
+		for (String message : messages)
+			lines.append('>').append(message).append('\n');
+		log.append(lines.toString());
+		floorScrollBar();
+	}
+
 	/** Sets the scroll bar of the logPane to the bottom. */
 	public void floorScrollBar() {
 		JScrollBar vertical = logPane.getVerticalScrollBar();
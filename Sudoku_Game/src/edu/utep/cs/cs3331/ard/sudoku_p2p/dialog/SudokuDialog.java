@@ -20,7 +20,7 @@ import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkManager;
  * @author		Yoonsik Cheon
  * @author		Anthony DesArmier
  * @author 		Trevor McCarthy
- * @version     1.5
+ * @version     1.7
  */
 public class SudokuDialog extends edu.utep.cs.cs3331.ard.sudoku.dialog.SudokuDialog {
 	private static final long serialVersionUID = -7356364696389964682L;
@@ -95,7 +95,8 @@ public class SudokuDialog extends edu.utep.cs.cs3331.ard.sudoku.dialog.SudokuDia
 	@Override
     protected void numberClicked(int number) {
     	super.numberClicked(number);
-    	writeFill();
+    	if(!isNoteMode() || number==0) // notes stay local
+    		writeFill();
     }
 	
 	@Override
@@ -149,7 +150,13 @@ public class SudokuDialog extends edu.utep.cs.cs3331.ard.sudoku.dialog.SudokuDia
 	@Override
 	public void startNewBoard(int size, int difficulty) {
 		super.startNewBoard(size, difficulty);
-		netMan.writeNew(size, board.toArr());
+		netMan.writeNew(board);
+	}
+	
+	@Override
+	public void startNewBoard(Board board) {
+		super.startNewBoard(board);
+		netMan.writeNew(board);
 	}
 	
 	/**
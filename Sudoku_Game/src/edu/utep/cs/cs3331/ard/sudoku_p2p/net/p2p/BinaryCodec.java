@@ -0,0 +1,135 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageType;
+
+/**
+ * Encodes and decodes the binary framing of the Sudoku game messages.
+ * <p>
+ * A frame is a varint length followed by that many bytes: a one-byte opcode
+ * ({@link MessageType#opcode()}) and the message arguments as unsigned LEB128 varints.
+ * Argument lists of unknown length (the squares of join_ack and new) are
+ * prefixed with their count. Every board value fits in a single byte,
+ * so a fill frame is 5 bytes against the 10 to 16 characters of its text form.
+ *
+ * @author Anthony DesArmier
+ * @version 1.1
+ * @see NetworkAdapter
+ */
+final class BinaryCodec {
+
+	/** Largest accepted frame, enough for a full 64x64 board. */
+	static final int MAX_FRAME = 1 << 16;
+	/** Message types by opcode, UNKNOWN for opcodes not in use. */
+	private static final MessageType[] TYPES = new MessageType[256];
+	
+	static {
+		Arrays.fill(TYPES, MessageType.UNKNOWN);
+		for (MessageType type : MessageType.values())
+			if (type.opcode() != 0)
+				TYPES[type.opcode()] = type;
+	}
+
+	private BinaryCodec() {}
+
+	/**
+	 * Encodes a message into a frame ready to be written.
+	 * @param type type of the message.
+	 * @param args fixed arguments of the message.
+	 * @param list variable argument list written after its count, or null for none.
+	 * @return flipped buffer holding the frame.
+	 */
+	static ByteBuffer frame(MessageType type, int[] args, int[] list) {
+		int length = 1;
+		for (int v : args)
+			length += varintSize(v);
+		if (list != null) {
+			length += varintSize(list.length);
+			for (int v : list)
+				length += varintSize(v);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(varintSize(length) + length);
+		putVarint(buffer, length);
+		buffer.put((byte) type.opcode());
+		for (int v : args)
+			putVarint(buffer, v);
+		if (list != null) {
+			putVarint(buffer, list.length);
+			for (int v : list)
+				putVarint(buffer, v);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Returns the message type of an opcode.
+	 * @param opcode opcode read from a frame.
+	 * @return message type, or {@link MessageType#UNKNOWN} if the opcode is not known.
+	 */
+	static MessageType type(int opcode) {
+		return opcode >= 0 && opcode < TYPES.length ? TYPES[opcode] : MessageType.UNKNOWN;
+	}
+
+	/**
+	 * Writes an unsigned LEB128 varint.
+	 * @param buffer buffer to write to.
+	 * @param value value to write, negative values taking 5 bytes.
+	 */
+	static void putVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads an unsigned LEB128 varint.
+	 * @param buffer buffer to read from.
+	 * @return value read.
+	 * @throws BufferUnderflowException if the buffer ends within the varint.
+	 */
+	static int getVarint(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new BufferUnderflowException(); // malformed, more than 5 bytes
+	}
+
+	/**
+	 * Reads a count-prefixed argument list.
+	 * @param buffer buffer to read from.
+	 * @return arguments read.
+	 * @throws BufferUnderflowException if the buffer holds fewer arguments than announced.
+	 */
+	static int[] getList(ByteBuffer buffer) {
+		int count = getVarint(buffer);
+		if (count < 0 || count > buffer.remaining())
+			throw new BufferUnderflowException();
+		int[] list = new int[count];
+		for (int i = 0; i < count; i++)
+			list[i] = getVarint(buffer);
+		return list;
+	}
+
+	/**
+	 * @param value value to encode.
+	 * @return number of bytes of the varint encoding of a value.
+	 */
+	static int varintSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+}
@@ -0,0 +1,87 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.Board;
+
+/**
+ * Boards generated ahead of time by a background thread.
+ * <p>
+ * Generating a 9x9 board takes several milliseconds, and a 16x16 one tens of
+ * them: done on an {@link EventLoop} thread when a room opens, it would stall every
+ * other player of that loop. The pool keeps a few boards ready instead, and only
+ * generates one on the spot when a burst of new rooms empties it.
+ *
+ * @author Anthony DesArmier
+ * @version 1.1
+ */
+final class BoardPool {
+
+	/** Size of the boards. */
+	private final int size;
+	/** Difficulty of the boards. */
+	private final int difficulty;
+	/** Boards ready to be taken. */
+	private final BlockingQueue<Board> ready;
+	/** Thread filling the pool, null if not started. */
+	private Thread filler;
+
+	/**
+	 * Creates an empty pool.
+	 * @param size size of the boards.
+	 * @param difficulty difficulty of the boards.
+	 * @param capacity number of boards to keep ready.
+	 */
+	BoardPool(int size, int difficulty, int capacity) {
+		this.size = size;
+		this.difficulty = difficulty;
+		ready = new ArrayBlockingQueue<>(Math.max(1, capacity));
+	}
+
+	/** Starts filling the pool in the background. */
+	synchronized void start() {
+		if (filler != null)
+			return;
+		filler = new Thread(() -> {
+			try {
+				while (!Thread.currentThread().isInterrupted())
+					ready.put(new Board(size, difficulty));
+			} catch (InterruptedException e) {}
+		}, "Board_Pool");
+		filler.setDaemon(true);
+		filler.setPriority(Thread.MIN_PRIORITY);
+		filler.start();
+	}
+
+	/** Stops filling the pool. */
+	synchronized void stop() {
+		if (filler != null)
+			filler.interrupt();
+		filler = null;
+	}
+
+	/**
+	 * Takes a ready board, or generates one if none is ready.
+	 * @return new board.
+	 */
+	Board take() {
+		Board board = ready.poll();
+		return board != null ? board : new Board(size, difficulty);
+	}
+
+	/**
+	 * Gives back a board taken and not used, unless the pool is full.
+	 * @param board unused board.
+	 */
+	void give(Board board) {
+		ready.offer(board);
+	}
+
+	/**
+	 * @return number of boards ready.
+	 */
+	int getReady() {
+		return ready.size();
+	}
+}
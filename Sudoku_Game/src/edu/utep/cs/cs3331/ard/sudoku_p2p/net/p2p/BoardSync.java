@@ -0,0 +1,129 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.util.List;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.Board;
+import edu.utep.cs.cs3331.ard.sudoku.model.Cell;
+import edu.utep.cs.cs3331.ard.sudoku.model.Cell.State;
+import edu.utep.cs.cs3331.ard.sudoku.model.solver.AbstractSudokuSolver;
+
+/**
+ * Encodes the board state carried by {@link NetworkAdapter.MessageType#SYNC} messages.
+ * <p>
+ * Every payload starts with the sender's board {@link Board#getId() id} and
+ * {@link Board#getSequence() sequence}, which the receiver keeps to ask for a delta
+ * when it reconnects. A {@link #SNAPSHOT} then holds a bitset of the filled cells, a
+ * bitset of the given cells and the value of every filled cell in index order; the
+ * bitsets are cut into {@value #WORD_BITS}-bit words so that each one stays a short
+ * varint. A {@link #DELTA} holds the {index, value} pairs changed since the sequence
+ * the receiver already had.
+ *
+ * @author Anthony DesArmier
+ * @version 1.0
+ */
+final class BoardSync {
+
+	/** Kind of a sync answering a join with the whole board. */
+	static final int SNAPSHOT = 0;
+	/** Kind of a sync answering a join with the changes since a known sequence. */
+	static final int DELTA = 1;
+	/** Kind of a sync proposing a new game, to be answered with a new_ack. */
+	static final int NEW = 2;
+	/** Bits of a cell bitset per argument. */
+	static final int WORD_BITS = 28;
+	/** Position of the first argument after the board id and sequence. */
+	static final int HEADER = 2;
+
+	private BoardSync() {}
+
+	/**
+	 * Encodes the whole board.
+	 * @param board board to encode.
+	 * @return snapshot payload.
+	 */
+	static int[] snapshot(Board board) {
+		List<Cell> grid = board.getGrid();
+		int cells = grid.size();
+		int words = words(cells);
+		int filled = 0;
+		for (Cell cell : grid)
+			if (cell.getValue() != 0)
+				filled++;
+		int[] sync = new int[HEADER + 2 * words + filled];
+		sync[0] = board.getId();
+		sync[1] = board.getSequence();
+		int v = HEADER + 2 * words;
+		for (int i = 0; i < cells; i++) {
+			Cell cell = grid.get(i);
+			if (cell.getValue() == 0)
+				continue;
+			sync[HEADER + i / WORD_BITS] |= 1 << (i % WORD_BITS);
+			if (cell.getState(State.FIXED))
+				sync[HEADER + words + i / WORD_BITS] |= 1 << (i % WORD_BITS);
+			sync[v++] = cell.getValue();
+		}
+		return sync;
+	}
+
+	/**
+	 * Encodes the changes made to a board since a point a peer already has.
+	 * @param board board to encode.
+	 * @param id board id the peer synced with.
+	 * @param since board sequence the peer synced with.
+	 * @return delta payload, or null if the peer's point is not of this board or too old.
+	 */
+	static int[] delta(Board board, int id, int since) {
+		if (id != board.getId())
+			return null;
+		int[] changes = board.changesSince(since);
+		if (changes == null)
+			return null;
+		int[] sync = new int[HEADER + changes.length];
+		sync[0] = board.getId();
+		sync[1] = board.getSequence();
+		System.arraycopy(changes, 0, sync, HEADER, changes.length);
+		return sync;
+	}
+
+	/**
+	 * Decodes a snapshot into the {x, y, z, state} tuples accepted by {@link Board#Board(int, int...)}.
+	 * @param size size of the board.
+	 * @param sync snapshot payload.
+	 * @return tuples of the filled cells, or null if the payload is malformed.
+	 */
+	static int[] tuples(int size, int[] sync) {
+		if (size < 1 || size > AbstractSudokuSolver.MAX_SIZE)
+			return null;
+		int cells = size * size;
+		int words = words(cells);
+		if (sync.length < HEADER + 2 * words)
+			return null;
+		int filled = 0;
+		for (int i = 0; i < cells; i++)
+			if ((sync[HEADER + i / WORD_BITS] & 1 << (i % WORD_BITS)) != 0)
+				filled++;
+		if (sync.length != HEADER + 2 * words + filled)
+			return null;
+		int[] tuples = new int[4 * filled];
+		int v = HEADER + 2 * words;
+		int t = 0;
+		for (int i = 0; i < cells; i++) {
+			int bit = 1 << (i % WORD_BITS);
+			if ((sync[HEADER + i / WORD_BITS] & bit) == 0)
+				continue;
+			tuples[t++] = i % size; // x, as written by Board.toArr()
+			tuples[t++] = i / size; // y
+			tuples[t++] = sync[v++];
+			tuples[t++] = (sync[HEADER + words + i / WORD_BITS] & bit) != 0 ? 1 : 0;
+		}
+		return tuples;
+	}
+
+	/**
+	 * @param cells number of cells of a board.
+	 * @return number of arguments of one cell bitset.
+	 */
+	private static int words(int cells) {
+		return (cells + WORD_BITS - 1) / WORD_BITS;
+	}
+}
@@ -0,0 +1,161 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Starts and tracks the threads serving connections: accept loops, readers and writers.
+ * <p>
+ * In virtual mode every thread is a virtual thread, so an idle peer costs a few
+ * kilobytes of heap instead of a platform thread and its stack. Virtual threads are
+ * looked up reflectively; on a runtime without them the mode quietly falls back to
+ * platform threads, see {@link #isVirtual()}.
+ * <p>
+ * Threads started here are owned by this object until they finish. {@link #shutdown(long)}
+ * refuses new threads, interrupts the running ones and waits for them, which gives
+ * every connection a single structured way out.
+ *
+ * @author Anthony DesArmier
+ * @version 1.0
+ */
+public final class ConnectionThreads {
+
+	/** Thread.ofVirtual(), null if virtual threads are not available. */
+	private static final Method OF_VIRTUAL;
+	/** Thread.Builder.name(String). */
+	private static final Method NAME;
+	/** Thread.Builder.unstarted(Runnable). */
+	private static final Method UNSTARTED;
+
+	static {
+		Method ofVirtual = null, name = null, unstarted = null;
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class);
+			unstarted = builder.getMethod("unstarted", Runnable.class);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		UNSTARTED = unstarted;
+	}
+
+	/** Whether threads are virtual. */
+	private final boolean virtual;
+	/** Threads started and not finished yet. */
+	private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+	/** Whether {@link #shutdown(long)} was called. */
+	private volatile boolean shutdown;
+
+	/**
+	 * Creates a thread owner.
+	 * @param virtual true to start virtual threads when the runtime supports them.
+	 */
+	public ConnectionThreads(boolean virtual) {
+		this.virtual = virtual && OF_VIRTUAL != null;
+	}
+
+	/**
+	 * @return true if the running JVM supports virtual threads, false otherwise.
+	 */
+	public static boolean isVirtualSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * @return true if threads started here are virtual, false otherwise.
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * @return true if {@link #shutdown(long)} was called, false otherwise.
+	 */
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	/**
+	 * @return number of threads started here that did not finish yet.
+	 */
+	public int getActiveCount() {
+		return threads.size();
+	}
+
+	/**
+	 * Starts a thread running the given task.
+	 * @param name name of the thread.
+	 * @param task task to run.
+	 * @return the started thread.
+	 * @throws IllegalStateException if this object was shut down.
+	 */
+	public Thread start(String name, Runnable task) {
+		if (shutdown)
+			throw new IllegalStateException("Connection threads are shut down");
+		Thread[] self = new Thread[1];
+		Thread thread = newThread(name, () -> {
+			try {
+				task.run();
+			} finally {
+				threads.remove(self[0]);
+			}
+		});
+		self[0] = thread;
+		threads.add(thread);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Refuses new threads, interrupts the running ones and waits for them to finish.
+	 * Sockets should be closed first: a platform thread blocked reading a socket
+	 * does not wake up on interruption.
+	 * @param timeoutMillis maximum time to wait, in milliseconds.
+	 * @return true if every thread finished in time, false otherwise.
+	 */
+	public boolean shutdown(long timeoutMillis) {
+		shutdown = true;
+		Thread current = Thread.currentThread();
+		for (Thread thread : threads)
+			if (thread != current)
+				thread.interrupt();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		try {
+			for (Thread thread : threads) {
+				long left = deadline - System.currentTimeMillis();
+				if (thread == current)
+					continue;
+				if (left <= 0)
+					return false;
+				thread.join(left);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		for (Thread thread : threads)
+			if (thread != current)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Creates an unstarted thread of the configured kind.
+	 * @param name name of the thread.
+	 * @param task task to run.
+	 * @return unstarted thread.
+	 */
+	private Thread newThread(String name, Runnable task) {
+		if (virtual) {
+			try {
+				Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name);
+				return (Thread) UNSTARTED.invoke(builder, task);
+			} catch (ReflectiveOperationException e) {} // fall back to a platform thread
+		}
+		return new Thread(task, name);
+	}
+}
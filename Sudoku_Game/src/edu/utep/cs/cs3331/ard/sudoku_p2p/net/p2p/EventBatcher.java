@@ -0,0 +1,84 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Hands events published by any thread to a consumer running on another one,
+ * by default the event dispatch thread, in batches.
+ * <p>
+ * Publishing appends to a lock-free queue and, if no batch is scheduled yet,
+ * schedules one; a burst of events published while the consumer thread is busy
+ * is therefore handled in a single batch, followed by a single call of the
+ * end of batch action, such as a repaint. Publishers never wait for the consumer.
+ *
+ * @author Anthony DesArmier
+ * @version 1.0
+ * @param <E> type of the events.
+ */
+final class EventBatcher<E> {
+
+	/** Most events handled per batch, so that a flood leaves the consumer thread room to breathe. */
+	static final int MAX_BATCH = 512;
+
+	/** Events published and not handled yet. */
+	private final Queue<E> events = new ConcurrentLinkedQueue<>();
+	/** Whether a batch is scheduled. */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	/** Thread, or threads, running the batches. */
+	private final Executor executor;
+	/** Handler of each event. */
+	private final Consumer<E> handler;
+	/** Called after each batch. */
+	private final Runnable endOfBatch;
+
+	/**
+	 * Creates a batcher handling events on the event dispatch thread.
+	 * @param handler handler of each event.
+	 * @param endOfBatch called after each batch.
+	 */
+	EventBatcher(Consumer<E> handler, Runnable endOfBatch) {
+		this(SwingUtilities::invokeLater, handler, endOfBatch);
+	}
+
+	/**
+	 * Creates a batcher.
+	 * @param executor runs the batches, one at a time.
+	 * @param handler handler of each event.
+	 * @param endOfBatch called after each batch.
+	 */
+	EventBatcher(Executor executor, Consumer<E> handler, Runnable endOfBatch) {
+		this.executor = executor;
+		this.handler = handler;
+		this.endOfBatch = endOfBatch;
+	}
+
+	/**
+	 * Queues an event, scheduling a batch if none is.
+	 * @param event event to handle.
+	 */
+	void publish(E event) {
+		events.add(event);
+		if (scheduled.compareAndSet(false, true))
+			executor.execute(this::drain);
+	}
+
+	/** Handles a batch of events, scheduling another batch if more are left. */
+	private void drain() {
+		scheduled.set(false); // events published from now on schedule a new batch
+		try {
+			E event;
+			for (int n = 0; n < MAX_BATCH && (event = events.poll()) != null; n++)
+				handler.accept(event);
+		} finally {
+			endOfBatch.run();
+			if (!events.isEmpty() && scheduled.compareAndSet(false, true))
+				executor.execute(this::drain);
+		}
+	}
+}
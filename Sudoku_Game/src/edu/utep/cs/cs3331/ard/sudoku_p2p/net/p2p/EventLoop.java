@@ -0,0 +1,131 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * A single thread multiplexing many non-blocking channels with a {@link Selector}.
+ * <p>
+ * Every {@link GameSession} belongs to exactly one loop and its channel is only
+ * read and written on that loop's thread. Other threads hand work to the loop
+ * through {@link #execute(Runnable)}, which wakes the selector up.
+ *
+ * @author Anthony DesArmier
+ * @version 1.1
+ * @see GameServer
+ */
+class EventLoop implements Runnable {
+
+	/** Receives the events of a registered channel. */
+	interface Handler {
+
+		/**
+		 * Called on the loop thread when the channel is ready.
+		 * @param key selection key of the channel.
+		 */
+		void handle(SelectionKey key);
+	}
+
+	/** Selector of this loop. */
+	private final Selector selector;
+	/** Tasks to run on the loop thread. */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	/** Thread running this loop. */
+	private volatile Thread thread;
+	/** Whether this loop should keep running. */
+	private volatile boolean running = true;
+
+	/**
+	 * Creates a new event loop. The loop runs once {@link #run()} is called on a thread.
+	 * @throws IOException if the selector cannot be opened.
+	 */
+	EventLoop() throws IOException {
+		selector = Selector.open();
+	}
+
+	/**
+	 * Registers a channel with this loop. May be called from any thread.
+	 * @param channel non-blocking channel.
+	 * @param ops interest set of the channel.
+	 * @param handler receiver of the channel events.
+	 * @param registered called on the loop thread with the new key, may be null.
+	 */
+	void register(SelectableChannel channel, int ops, Handler handler, Consumer<SelectionKey> registered) {
+		execute(() -> {
+			try {
+				SelectionKey key = channel.register(selector, ops, handler);
+				if (registered != null)
+					registered.accept(key);
+			} catch (IOException e) {
+				try { channel.close(); } catch (IOException ignored) {}
+			}
+		});
+	}
+
+	/**
+	 * Runs a task on the loop thread, immediately if already on it.
+	 * @param task task to run.
+	 */
+	void execute(Runnable task) {
+		if (inLoop()) {
+			task.run();
+			return;
+		}
+		schedule(task);
+	}
+
+	/**
+	 * Queues a task for the loop thread, even when called from it. Used by callers
+	 * holding locks the task may need, so that it runs once they are released.
+	 * @param task task to run.
+	 */
+	void schedule(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * @return true if the caller is the loop thread, false otherwise.
+	 */
+	boolean inLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	@Override
+	public void run() {
+		thread = Thread.currentThread();
+		while (running) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				break;
+			}
+			Runnable task;
+			while ((task = tasks.poll()) != null)
+				task.run();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (key.isValid())
+					((Handler) key.attachment()).handle(key);
+			}
+		}
+		for (SelectionKey key : selector.keys()) {
+			try { key.channel().close(); } catch (IOException ignored) {}
+		}
+		try { selector.close(); } catch (IOException ignored) {}
+	}
+
+	/** Stops this loop and closes every channel registered with it. */
+	void stop() {
+		running = false;
+		selector.wakeup();
+	}
+}
@@ -0,0 +1,171 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sliding window of fill messages sent to a peer and not acknowledged yet.
+ * <p>
+ * Every fill gets the next sequence number and stays outstanding until a fill_ack
+ * carrying that number or a later one arrives; acks are cumulative, so one ack may
+ * retire many fills and a lost or coalesced ack is covered by the next one. Peers
+ * that do not echo sequence numbers are matched on the fill itself instead. Once
+ * {@link #getSize()} fills are outstanding, further fills wait in a backlog, where a
+ * newer fill of the same square replaces an older one, and are released as acks arrive.
+ * The window outlives a connection resumed with the same peer, whose outstanding
+ * fills are then sent again.
+ *
+ * @author Anthony DesArmier
+ * @version 1.1
+ */
+final class FillWindow {
+
+	/** Default number of fills that may be outstanding at once. */
+	static final int DEFAULT_SIZE = 64;
+
+	/** Number of fills that may be outstanding at once. */
+	private final int size;
+	/** Sent fills waiting for an ack, as {seq, x, y, v}, oldest first. */
+	private final ArrayDeque<int[]> outstanding = new ArrayDeque<>();
+	/** Fills waiting for room in the window, as {x, y, v}, oldest first. */
+	private final ArrayDeque<int[]> backlog = new ArrayDeque<>();
+	/** Sequence number of the next fill. */
+	private int nextSeq = 1;
+
+	/**
+	 * Creates a window.
+	 * @param size {@link #size}
+	 */
+	FillWindow(int size) {
+		this.size = Math.max(1, size);
+	}
+
+	/**
+	 * @return {@link #size}
+	 */
+	int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of fills sent and not acknowledged yet.
+	 */
+	synchronized int getOutstanding() {
+		return outstanding.size();
+	}
+
+	/**
+	 * Registers a new fill.
+	 * @param x 0-based column index of the square.
+	 * @param y 0-based row index of the square.
+	 * @param v filled-in number.
+	 * @return {seq, x, y, v} to send now, or null if the fill waits in the backlog.
+	 */
+	synchronized int[] offer(int x, int y, int v) {
+		if (backlog.isEmpty() && outstanding.size() < size)
+			return send(x, y, v);
+		for (int[] fill : backlog)
+			if (fill[0] == x && fill[1] == y) {
+				fill[2] = v; // only the latest value of a square matters
+				return null;
+			}
+		backlog.add(new int[] {x, y, v});
+		return null;
+	}
+
+	/**
+	 * Retires every outstanding fill up to a sequence number.
+	 * @param seq sequence number carried by a fill_ack.
+	 * @return true if the ack matches a sent fill, false if it acknowledges nothing ever sent.
+	 */
+	synchronized boolean acknowledge(int seq) {
+		if (seq <= 0 || seq >= nextSeq)
+			return false;
+		while (!outstanding.isEmpty() && outstanding.peek()[0] <= seq)
+			outstanding.poll();
+		return true;
+	}
+
+	/**
+	 * Retires the oldest outstanding fill matching a fill_ack without sequence number,
+	 * and every fill sent before it.
+	 * @param x 0-based column index of the square.
+	 * @param y 0-based row index of the square.
+	 * @param v filled-in number.
+	 * @return true if an outstanding fill matched, false otherwise.
+	 */
+	synchronized boolean acknowledge(int x, int y, int v) {
+		for (int[] fill : outstanding)
+			if (fill[1] == x && fill[2] == y && fill[3] == v)
+				return acknowledge(fill[0]);
+		return false;
+	}
+
+	/**
+	 * Moves backlogged fills into the window while there is room.
+	 * @return {seq, x, y, v} of every fill to send now, oldest first.
+	 */
+	synchronized List<int[]> release() {
+		List<int[]> released = new ArrayList<>();
+		Iterator<int[]> it = backlog.iterator();
+		while (it.hasNext() && outstanding.size() < size) {
+			int[] fill = it.next();
+			it.remove();
+			released.add(send(fill[0], fill[1], fill[2]));
+		}
+		return released;
+	}
+
+	/**
+	 * Determines whether a square was filled again after a given fill.
+	 * @param x 0-based column index of the square.
+	 * @param y 0-based row index of the square.
+	 * @param seq sequence number of the given fill.
+	 * @return true if a later fill of the square is outstanding or backlogged, false otherwise.
+	 */
+	synchronized boolean hasNewerFill(int x, int y, int seq) {
+		for (int[] fill : outstanding)
+			if (fill[0] > seq && fill[1] == x && fill[2] == y)
+				return true;
+		for (int[] fill : backlog)
+			if (fill[0] == x && fill[1] == y)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return {seq, x, y, v} of every outstanding fill, oldest first, to be sent again.
+	 */
+	synchronized List<int[]> outstanding() {
+		List<int[]> fills = new ArrayList<>();
+		for (int[] fill : outstanding)
+			fills.add(fill.clone());
+		return fills;
+	}
+	
+	/**
+	 * @return {x, y, v} of every fill not acknowledged yet, outstanding or backlogged, oldest first.
+	 */
+	synchronized List<int[]> unacknowledged() {
+		List<int[]> fills = new ArrayList<>();
+		for (int[] fill : outstanding)
+			fills.add(new int[] {fill[1], fill[2], fill[3]});
+		for (int[] fill : backlog)
+			fills.add(fill.clone());
+		return fills;
+	}
+
+	/** Drops the backlog, whose fills belong to a board being replaced. */
+	synchronized void discardBacklog() {
+		backlog.clear();
+	}
+
+	/** Assigns the next sequence number to a fill and makes it outstanding. */
+	private int[] send(int x, int y, int v) {
+		int[] fill = {nextSeq++, x, y, v};
+		outstanding.add(fill);
+		return fill;
+	}
+}
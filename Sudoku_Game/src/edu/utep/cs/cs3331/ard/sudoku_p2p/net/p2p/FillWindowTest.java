@@ -0,0 +1,73 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FillWindowTest {
+
+	private FillWindow window;
+
+	@Before
+	public void setUp() {
+		window = new FillWindow(2);
+	}
+
+	@Test
+	public void testCumulativeAck() {
+		window = new FillWindow(8);
+		for (int i = 1; i <= 5; i++)
+			assertArrayEquals(new int[] {i, i, 0, i}, window.offer(i, 0, i));
+		assertTrue(window.acknowledge(3));
+		assertEquals(2, window.getOutstanding());
+		assertEquals(4, window.outstanding().get(0)[0]);
+		assertTrue(window.acknowledge(2)); // late ack of fills already retired
+		assertEquals(2, window.getOutstanding());
+		assertTrue(window.acknowledge(5));
+		assertEquals(0, window.getOutstanding());
+	}
+
+	@Test
+	public void testAckNeverSent() {
+		window.offer(0, 0, 1);
+		assertFalse(window.acknowledge(0));
+		assertFalse(window.acknowledge(2));
+		assertFalse(window.acknowledge(0, 0, 2));
+		assertEquals(1, window.getOutstanding());
+		assertTrue(window.acknowledge(0, 0, 1));
+		assertEquals(0, window.getOutstanding());
+	}
+
+	@Test
+	public void testBacklog() {
+		window.offer(0, 0, 1);
+		window.offer(0, 1, 2);
+		assertNull(window.offer(1, 1, 3));
+		assertNull(window.offer(2, 2, 4));
+		assertNull(window.offer(1, 1, 5)); // replaces the backlogged fill of the square
+		assertNull(window.offer(3, 3, 6));
+		List<int[]> pending = window.unacknowledged();
+		assertEquals(5, pending.size());
+		assertArrayEquals(new int[] {1, 1, 5}, pending.get(2));
+		assertTrue(window.hasNewerFill(1, 1, 0));
+		assertTrue(window.release().isEmpty());
+
+		window.acknowledge(1);
+		List<int[]> released = window.release();
+		assertEquals(1, released.size());
+		assertArrayEquals(new int[] {3, 1, 1, 5}, released.get(0));
+		window.acknowledge(3);
+		released = window.release();
+		assertEquals(2, released.size());
+		assertArrayEquals(new int[] {4, 2, 2, 4}, released.get(0));
+		assertArrayEquals(new int[] {5, 3, 3, 6}, released.get(1));
+		assertTrue(window.release().isEmpty());
+	}
+}
@@ -0,0 +1,209 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.Board;
+import edu.utep.cs.cs3331.ard.sudoku.model.solver.AbstractSudokuSolver;
+import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageType;
+
+/**
+ * A game of one or more players hosted by a {@link GameServer}.
+ * <p>
+ * The room owns the authoritative {@link Board}: a fill is validated once against it
+ * and then fanned out to every other player as a single {@link Outbound} message, and
+ * a joining player receives the board in the join_ack. A new board proposal takes effect
+ * once every other player accepted it. Players may live on different event loops,
+ * so every method is synchronized.
+ *
+ * @author Anthony DesArmier
+ * @version 1.4
+ */
+class GameRoom {
+
+	/** Messages without arguments. */
+	private static final int[] NO_ARGS = new int[0];
+
+	/** Name of this room in the registry. */
+	private final String name;
+	/** Maximum number of players. */
+	private final int capacity;
+	/** Board being played. */
+	private Board board;
+	/** Seated players. */
+	private final List<GameSession> players = new ArrayList<>();
+	/** Player waiting for a new game answer, null if none. */
+	private GameSession newRequester;
+	/** Players yet to answer the new game proposal. */
+	private final Set<GameSession> newPending = new HashSet<>();
+	/** Board proposed by {@link #newRequester}. */
+	private int newSize;
+	/** Squares proposed by {@link #newRequester}. */
+	private int[] newSquares;
+
+	/**
+	 * Creates a room.
+	 * @param name {@link #name}
+	 * @param capacity {@link #capacity}
+	 * @param board {@link #board}
+	 */
+	GameRoom(String name, int capacity, Board board) {
+		this.name = name;
+		this.capacity = capacity;
+		this.board = board;
+	}
+
+	/**
+	 * @return {@link #name}
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Seats a player and sends it the board.
+	 * @param player joining player.
+	 * @return true if seated, false if the room is full.
+	 */
+	synchronized boolean join(GameSession player) {
+		if (players.size() >= capacity)
+			return false;
+		players.add(player);
+		player.setRoom(this);
+		player.send(new Outbound(MessageType.JOIN_ACK, new int[] {1, board.getSize()}, board.toArr()));
+		return true;
+	}
+
+	/**
+	 * Removes a player. In a two player room the other player is told its partner quit.
+	 * @param player leaving player.
+	 * @return true if the room is now empty, false otherwise.
+	 */
+	synchronized boolean leave(GameSession player) {
+		if (!players.remove(player))
+			return players.isEmpty();
+		if (capacity == 2)
+			broadcast(new Outbound(MessageType.QUIT, NO_ARGS, null), null);
+		if (newRequester == player) {
+			newRequester = null;
+			newPending.clear();
+		} else if (newPending.remove(player))
+			concludeNew();
+		return players.isEmpty();
+	}
+
+	/**
+	 * @return true if a seat is free, false otherwise.
+	 */
+	synchronized boolean hasSeat() {
+		return players.size() < capacity;
+	}
+
+	/**
+	 * Applies a fill to the board if it breaks no rule, acknowledges it and fans it out
+	 * to the other players. Fills are ordered by their arrival at the room.
+	 * @param from player who filled.
+	 * @param x 0-based column index of the square.
+	 * @param y 0-based row index of the square.
+	 * @param number filled-in number.
+	 * @param seq sequence number of the fill, echoed in the ack, or -1 for none.
+	 */
+	synchronized void fill(GameSession from, int x, int y, int number, int seq) {
+		boolean inside = x >= 0 && y >= 0 && x < board.getSize() && y < board.getSize();
+		boolean accepted = inside && board.isLegal(x, y, number)
+				&& board.update(new int[] {x, y, number}, false, true); // no undo history on the server
+		if (seq > 0 && inside) // the room owns the board: answer with the value the square resolved to
+			from.send(new Outbound(MessageType.FILL_ACK, new int[] {x, y, board.getValue(x, y), seq, 1}, null));
+		else
+			from.send(new Outbound(MessageType.FILL_ACK, new int[] {x, y, number}, null));
+		if (accepted)
+			broadcast(new Outbound(MessageType.FILL, new int[] {x, y, number}, null), from);
+	}
+
+	/**
+	 * Solves the board and fans the request out to the other players.
+	 * @param from player who used the solver.
+	 */
+	synchronized void solve(GameSession from) {
+		try {
+			board.solve(true);
+		} catch (UnsupportedOperationException e) {} // more than one solution, the players' boards are not changed either
+		broadcast(new Outbound(MessageType.SOLVE, NO_ARGS, null), from);
+	}
+
+	/**
+	 * Proposes a new board to every other player.
+	 * @param from player proposing the board.
+	 * @param size size of the board.
+	 * @param squares {x, y, v, f} tuples of the board.
+	 */
+	synchronized void requestNew(GameSession from, int size, int[] squares) {
+		if (!isValid(size, squares) || newRequester != null) {
+			from.send(new Outbound(MessageType.NEW_ACK, new int[] {0}, null));
+			return;
+		}
+		newRequester = from;
+		newSize = size;
+		newSquares = squares;
+		for (GameSession player : players)
+			if (player != from)
+				newPending.add(player);
+		broadcast(new Outbound(MessageType.NEW, new int[] {size}, squares), from);
+		concludeNew(); // a lone player gets the board at once
+	}
+
+	/**
+	 * Answers a pending new board proposal. A single refusal cancels it.
+	 * @param from player answering.
+	 * @param accepted whether the new board was accepted.
+	 */
+	synchronized void answerNew(GameSession from, boolean accepted) {
+		if (!newPending.remove(from))
+			return;
+		if (!accepted) {
+			newRequester.send(new Outbound(MessageType.NEW_ACK, new int[] {0}, null));
+			newRequester = null;
+			newPending.clear();
+			return;
+		}
+		concludeNew();
+	}
+
+	/** Applies the proposed board once nobody is left to answer. */
+	private void concludeNew() {
+		if (newRequester == null || !newPending.isEmpty())
+			return;
+		board = new Board(newSize, newSquares);
+		newRequester.send(new Outbound(MessageType.NEW_ACK, new int[] {1}, null));
+		newRequester = null;
+	}
+
+	/**
+	 * Sends one message to every player but one.
+	 * @param message message, serialized once for all players.
+	 * @param except player to skip, may be null.
+	 */
+	private void broadcast(Outbound message, GameSession except) {
+		for (GameSession player : players.toArray(new GameSession[players.size()])) // a player may leave meanwhile
+			if (player != except)
+				player.send(message);
+	}
+
+	/**
+	 * Checks that a proposed board can be built.
+	 * @param size size of the board, a perfect square.
+	 * @param squares {x, y, v, f} tuples within the board.
+	 * @return true if valid, false otherwise.
+	 */
+	private static boolean isValid(int size, int[] squares) {
+		int side = (int) Math.sqrt(size);
+		if (size < 1 || side * side != size || size > AbstractSudokuSolver.MAX_SIZE || squares.length % 4 != 0)
+			return false;
+		for (int i = 0; i < squares.length; i += 4)
+			if (squares[i] < 0 || squares[i] >= size || squares[i+1] < 0 || squares[i+1] >= size)
+				return false;
+		return true;
+	}
+}
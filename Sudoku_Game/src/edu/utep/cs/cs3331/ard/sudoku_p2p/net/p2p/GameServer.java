@@ -0,0 +1,322 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.Board;
+import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageType;
+
+/**
+ * A multiplayer server hosting many two player games at once.
+ * <p>
+ * Unlike {@link NetworkManager}, which pairs a single peer and blocks a thread on it,
+ * the server accepts any number of players on non-blocking channels spread over a few
+ * {@link EventLoop} threads. Players speak the regular {@link MessageType} protocol:
+ * a "join:" seats them in a {@link GameRoom}, either the one named by a "room=name"
+ * token of the join body or the first matched room with a free seat. Rooms seat
+ * {@link #setRoomCapacity(int)} players, two by default.
+ * <p>
+ * The server needs no display: {@link #main(String[])} runs it on its own, without
+ * loading any AWT class, for example on a plain Linux box to be loaded with many
+ * simulated clients. Boards of new rooms come from a {@link BoardPool} filled in the
+ * background, so that opening a room does not stall an event loop.
+ *
+ * @author Anthony DesArmier
+ * @version 1.4
+ */
+public class GameServer {
+
+	/** Port to listen on, 0 for any. */
+	private final int port;
+	/** Event loops, the first one also accepting connections. */
+	private final EventLoop[] loops;
+	/** Size of the board of a new room. */
+	private final int size;
+	/** Difficulty of the board of a new room. */
+	private final int difficulty;
+	/** Rooms by name. */
+	private final Map<String, GameRoom> rooms = new ConcurrentHashMap<>();
+	/** Number of connected players. */
+	private final AtomicInteger sessions = new AtomicInteger();
+	/** Counter naming the matched rooms. */
+	private final AtomicInteger roomNumber = new AtomicInteger();
+	/** Room waiting for a second matched player, null if none. Guarded by this server. */
+	private GameRoom waiting;
+	/** Listening channel. */
+	private ServerSocketChannel acceptor;
+	/** Counter spreading accepted channels over {@link #loops}. */
+	private int nextLoop;
+	/** If not null, log connections and rooms. */
+	private PrintStream logger;
+	/** Number of players seated in a room. */
+	private volatile int roomCapacity = 2;
+	/** Number of messages waiting for a player before it is dropped as too slow. */
+	private volatile int maxQueued = 1024;
+	/** Boards of the new rooms. */
+	private final BoardPool boards;
+	
+	/** Number of boards kept ready per event loop. */
+	private static final int POOLED_BOARDS = 4;
+	/** Usage of {@link #main(String[])}. */
+	private static final String USAGE = "Usage: GameServer [-port n] [-loops n] [-size n] [-difficulty n]"
+			+ " [-capacity n] [-maxQueued n] [-status seconds] [-quiet]";
+
+	/**
+	 * Creates a server with a single event loop hosting 9x9 games.
+	 * @param port port to listen on, 0 for any.
+	 * @throws IOException if a selector cannot be opened.
+	 */
+	public GameServer(int port) throws IOException {
+		this(port, 1, 9, 1);
+	}
+
+	/**
+	 * Creates a server.
+	 * @param port port to listen on, 0 for any.
+	 * @param loops number of event loop threads.
+	 * @param size size of the board of a new room.
+	 * @param difficulty difficulty of the board of a new room.
+	 * @throws IOException if a selector cannot be opened.
+	 */
+	public GameServer(int port, int loops, int size, int difficulty) throws IOException {
+		this.port = port;
+		this.size = size;
+		this.difficulty = difficulty;
+		this.loops = new EventLoop[Math.max(1, loops)];
+		for (int i = 0; i < this.loops.length; i++)
+			this.loops[i] = new EventLoop();
+		boards = new BoardPool(size, difficulty, POOLED_BOARDS * this.loops.length);
+	}
+	
+	/**
+	 * Runs a server with no display until the process is stopped.
+	 * @param args options, see {@link #USAGE}; the port defaults to 8000, the loops
+	 *   to one per processor, the board to a 9x9 of difficulty 1.
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		int port = 8000, loops = Runtime.getRuntime().availableProcessors(), size = 9, difficulty = 1;
+		int capacity = 2, maxQueued = 1024, status = 0;
+		boolean quiet = false;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "-port": port = Integer.parseInt(args[++i]); break;
+				case "-loops": loops = Integer.parseInt(args[++i]); break;
+				case "-size": size = Integer.parseInt(args[++i]); break;
+				case "-difficulty": difficulty = Integer.parseInt(args[++i]); break;
+				case "-capacity": capacity = Integer.parseInt(args[++i]); break;
+				case "-maxQueued": maxQueued = Integer.parseInt(args[++i]); break;
+				case "-status": status = Integer.parseInt(args[++i]); break;
+				case "-quiet": quiet = true; break;
+				default: throw new IllegalArgumentException(args[i]);
+				}
+			}
+		} catch (RuntimeException e) { // unknown option, missing or malformed value
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		try {
+			GameServer server = new GameServer(port, loops, size, difficulty);
+			server.setRoomCapacity(capacity);
+			server.setMaxQueued(maxQueued);
+			if (!quiet)
+				server.setLogger(System.out);
+			server.start();
+			Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "Game_Stop"));
+			System.out.printf("Serving %dx%d games on port %d with %d loops%n", size, size, server.getPort(), loops);
+			while (status > 0) {
+				Thread.sleep(status * 1000L);
+				System.out.printf("%d players in %d rooms%n", server.getSessionCount(), server.getRoomCount());
+			}
+		} catch (IOException e) {
+			System.err.println("Cannot start the server: " + e.getMessage());
+			System.exit(1);
+		} catch (InterruptedException e) {}
+	}
+
+	/**
+	 * Setter for {@link #logger}.
+	 */
+	public void setLogger(PrintStream logger) {
+		this.logger = logger;
+	}
+
+	/**
+	 * Setter for {@link #roomCapacity}, applying to rooms created afterwards.
+	 */
+	public void setRoomCapacity(int roomCapacity) {
+		this.roomCapacity = Math.max(1, roomCapacity);
+	}
+
+	/**
+	 * @return {@link #maxQueued}
+	 */
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * Setter for {@link #maxQueued}.
+	 */
+	public void setMaxQueued(int maxQueued) {
+		this.maxQueued = Math.max(1, maxQueued);
+	}
+
+	/**
+	 * Binds the listening channel and starts the event loop threads.
+	 * @throws IOException if the port cannot be bound.
+	 */
+	public void start() throws IOException {
+		acceptor = ServerSocketChannel.open();
+		acceptor.configureBlocking(false);
+		acceptor.bind(new InetSocketAddress(port));
+		for (int i = 0; i < loops.length; i++) {
+			Thread thread = new Thread(loops[i], "Game_Loop-" + i);
+			thread.start();
+		}
+		boards.start();
+		loops[0].register(acceptor, SelectionKey.OP_ACCEPT, key -> accept(), null);
+		log("Server started on port %d", getPort());
+	}
+
+	/** Stops the event loops, closing every connection. */
+	public void stop() {
+		boards.stop();
+		for (EventLoop loop : loops)
+			loop.stop();
+		try {
+			if (acceptor != null)
+				acceptor.close();
+		} catch (IOException ignored) {}
+	}
+
+	/**
+	 * @return port the server listens on, or -1 if not started.
+	 */
+	public int getPort() {
+		try {
+			return ((InetSocketAddress) acceptor.getLocalAddress()).getPort();
+		} catch (IOException | NullPointerException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return number of connected players.
+	 */
+	public int getSessionCount() {
+		return sessions.get();
+	}
+
+	/**
+	 * @return number of open rooms.
+	 */
+	public int getRoomCount() {
+		return rooms.size();
+	}
+
+	/** Accepts every pending connection. Runs on the first loop. */
+	private void accept() {
+		SocketChannel channel;
+		try {
+			while ((channel = acceptor.accept()) != null) {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				EventLoop loop = loops[nextLoop++ % loops.length];
+				GameSession session = new GameSession(this, loop, channel);
+				sessions.incrementAndGet();
+				loop.register(channel, SelectionKey.OP_READ, session, session::setKey);
+				log("%s has connected", session.address());
+			}
+		} catch (IOException e) {
+			log("Accept failed: %s", e.getMessage());
+		}
+	}
+
+	/**
+	 * Seats a player in a room, answering its join request.
+	 * <p>
+	 * When a room must be opened, its board is taken outside the server lock, since the pool
+	 * may have to generate it, and the seat is looked for again: if another player opened the
+	 * room meanwhile, the board goes back to the pool.
+	 * @param session joining player.
+	 * @param name requested room, or null to be matched with a waiting player.
+	 */
+	void join(GameSession session, String name) {
+		if (session.getRoom() != null) // already seated
+			return;
+		Board board = null;
+		try {
+			while (true) {
+				synchronized (this) { // as left(), so that a room is not dropped while a player is seated
+					if (name != null) {
+						GameRoom room = rooms.get(name);
+						if (room == null && board != null) {
+							rooms.put(name, room = new GameRoom(name, roomCapacity, board));
+							board = null;
+						}
+						if (room != null) {
+							if (!room.join(session))
+								session.send(new Outbound(MessageType.JOIN_ACK, new int[] {0}, null));
+							return;
+						}
+					} else if (waiting != null && waiting.join(session)) {
+						if (!waiting.hasSeat())
+							waiting = null;
+						return;
+					} else if (board != null) {
+						GameRoom room = new GameRoom("match-" + roomNumber.incrementAndGet(), roomCapacity, board);
+						board = null;
+						rooms.put(room.getName(), room);
+						room.join(session);
+						waiting = room.hasSeat() ? room : null;
+						return;
+					}
+				}
+				board = newBoard();
+			}
+		} finally {
+			if (board != null) // not needed after all
+				boards.give(board);
+		}
+	}
+
+	/**
+	 * Removes a closed player from its room, dropping the room once empty.
+	 * @param session closed player.
+	 */
+	void left(GameSession session) {
+		sessions.decrementAndGet();
+		log("%s has disconnected", session.address());
+		GameRoom room = session.getRoom();
+		if (room == null)
+			return;
+		synchronized (this) {
+			if (room.leave(session)) {
+				rooms.remove(room.getName(), room);
+				if (waiting == room)
+					waiting = null;
+			} else if (room.hasSeat() && waiting == null && room.getName().startsWith("match-"))
+				waiting = room; // let the next player take the free seat
+		}
+	}
+
+	/** @return board of a new room. */
+	private Board newBoard() {
+		return boards.take();
+	}
+
+	/** Logs a formatted message if a logger is set. */
+	void log(String format, Object... args) {
+		if (logger != null)
+			logger.println(String.format(format, args));
+	}
+}
@@ -0,0 +1,318 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageListener;
+import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageType;
+
+/**
+ * One player connected to a {@link GameServer}.
+ * <p>
+ * Speaks the same text and binary protocol as {@link NetworkAdapter}, but over a
+ * non-blocking channel owned by an {@link EventLoop}: incoming bytes are parsed as
+ * soon as a full line or frame is buffered, and outgoing messages are queued and
+ * written whenever the channel accepts them. Messages may be sent from any thread.
+ * <p>
+ * The outbound queue is bounded: a player that stops reading while
+ * {@link GameServer#getMaxQueued()} messages are waiting is disconnected, so a slow
+ * consumer can neither stall its room nor grow the server's memory.
+ *
+ * @author Anthony DesArmier
+ * @version 1.4
+ */
+class GameSession implements EventLoop.Handler, MessageListener {
+
+	/** Server this session is connected to. */
+	private final GameServer server;
+	/** Loop owning the channel. */
+	private final EventLoop loop;
+	/** Channel to the player. */
+	private final SocketChannel channel;
+	/** Selection key of {@link #channel}, set once registered. */
+	private SelectionKey key;
+	/** Bytes read but not parsed yet. */
+	private ByteBuffer in = ByteBuffer.allocate(1024);
+	/** Encoded messages waiting to be written. */
+	private final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+	/** Number of messages in {@link #out}. */
+	private final AtomicInteger queued = new AtomicInteger();
+	/** Whether incoming messages are binary frames. Only touched by the loop thread. */
+	private boolean binaryIn;
+	/** Whether outgoing messages are binary frames. Guarded by this session. */
+	private boolean binaryOut;
+	/** Room requested by the pending join, null to be matched with anyone. */
+	private String requestedRoom;
+	/** Room this session plays in, null until joined. */
+	private volatile GameRoom room;
+	/** Whether this session was closed. */
+	private volatile boolean closed;
+	/** Remote address of the player, kept to be logged once closed. */
+	private String address;
+
+	/**
+	 * Creates a session for an accepted channel.
+	 * @param server server the channel was accepted by.
+	 * @param loop loop the channel is registered with.
+	 * @param channel non-blocking channel to the player.
+	 */
+	GameSession(GameServer server, EventLoop loop, SocketChannel channel) {
+		this.server = server;
+		this.loop = loop;
+		this.channel = channel;
+	}
+
+	/**
+	 * Setter for {@link #key}, called on the loop thread once registered.
+	 */
+	void setKey(SelectionKey key) {
+		this.key = key;
+		flush(); // anything queued before registration
+	}
+
+	/**
+	 * @return {@link #room}
+	 */
+	GameRoom getRoom() {
+		return room;
+	}
+
+	/**
+	 * Setter for {@link #room}.
+	 */
+	void setRoom(GameRoom room) {
+		this.room = room;
+	}
+
+	/**
+	 * @return remote address of the player, for logging.
+	 */
+	String address() {
+		if (address == null) {
+			try {
+				address = String.valueOf(channel.getRemoteAddress());
+			} catch (IOException e) {
+				return "?";
+			}
+		}
+		return address;
+	}
+
+	@Override
+	public void handle(SelectionKey key) {
+		try {
+			if (key.isReadable())
+				read();
+			if (key.isValid() && key.isWritable())
+				flush();
+		} catch (RuntimeException e) { // a bad message must not take the loop down
+			close();
+		}
+	}
+
+	/** Reads whatever is available and parses every complete message. */
+	private void read() {
+		int n;
+		try {
+			n = channel.read(in);
+		} catch (IOException e) {
+			n = -1;
+		}
+		if (n < 0) {
+			close();
+			return;
+		}
+		in.flip();
+		while (!closed && (binaryIn ? nextFrame() : nextLine())) {}
+		in.compact();
+		if (!in.hasRemaining()) { // a single message fills the buffer
+			if (in.capacity() > BinaryCodec.MAX_FRAME) {
+				close();
+				return;
+			}
+			ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+			in.flip();
+			larger.put(in);
+			in = larger;
+		}
+	}
+
+	/**
+	 * Parses the next text line of {@link #in}, if complete.
+	 * @return true if a line was parsed, false if more bytes are needed.
+	 */
+	private boolean nextLine() {
+		int start = in.position();
+		for (int i = start; i < in.limit(); i++) {
+			if (in.get(i) != '\n')
+				continue;
+			int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+			String msg = new String(in.array(), in.arrayOffset() + start, end - start, StandardCharsets.ISO_8859_1);
+			in.position(i + 1);
+			onLine(msg);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the next binary frame of {@link #in}, if complete.
+	 * @return true if a frame was parsed, false if more bytes are needed.
+	 */
+	private boolean nextFrame() {
+		int p = in.position();
+		int length = 0;
+		for (int shift = 0; ; shift += 7) {
+			if (p >= in.limit())
+				return false;
+			int b = in.get(p++) & 0xFF;
+			length |= (b & 0x7F) << shift;
+			if (b < 0x80)
+				break;
+			if (shift >= 21) {
+				close();
+				return false;
+			}
+		}
+		if (length == 0 || length > BinaryCodec.MAX_FRAME) {
+			close();
+			return false;
+		}
+		if (in.limit() - p < length)
+			return false;
+		ByteBuffer frame = in.duplicate();
+		frame.position(p);
+		frame.limit(p + length);
+		in.position(p + length);
+		NetworkAdapter.parseFrame(frame.slice(), this);
+		return true;
+	}
+
+	/**
+	 * Handles a text line, negotiating binary framing like {@link NetworkAdapter} does.
+	 * @param msg text line without its terminator.
+	 */
+	private void onLine(String msg) {
+		if (msg.startsWith(MessageType.JOIN.header())) {
+			requestedRoom = null;
+			for (String token : msg.substring(MessageType.JOIN.header().length()).split(",")) {
+				if (token.equals("binary"))
+					switchOutput();
+				else if (token.startsWith("room="))
+					requestedRoom = token.substring(5);
+			}
+		} else if (msg.startsWith(MessageType.BINARY.header())) {
+			binaryIn = true;
+			switchOutput();
+			return;
+		}
+		NetworkAdapter.parseText(msg, this);
+	}
+
+	/** Announces binary framing and frames every later message, if not already done. */
+	private synchronized void switchOutput() {
+		if (binaryOut)
+			return;
+		out.add(ByteBuffer.wrap((MessageType.BINARY.header() + "\n").getBytes(StandardCharsets.ISO_8859_1)));
+		queued.incrementAndGet();
+		binaryOut = true;
+	}
+
+	@Override
+	public void messageReceived(MessageType type, int x, int y, int z, int[] others) {
+		switch (type) {
+		case JOIN:
+			server.join(this, requestedRoom);
+			break;
+		case FILL:
+			if (room != null)
+				room.fill(this, x, y, z, others.length > 0 ? others[0] : -1);
+			break;
+		case NEW:
+			if (room != null)
+				room.requestNew(this, x, others);
+			break;
+		case NEW_ACK:
+			if (room != null)
+				room.answerNew(this, x == 1);
+			break;
+		case SOLVE:
+			if (room != null)
+				room.solve(this);
+			break;
+		case QUIT:
+			close();
+			break;
+		default: // FILL_ACK needs no answer, UNKNOWN is ignored
+			break;
+		}
+	}
+
+	/**
+	 * Sends a message to the player. May be called from any thread.
+	 * @param message message to send, possibly shared with other players.
+	 */
+	void send(Outbound message) {
+		if (closed)
+			return;
+		if (queued.incrementAndGet() > server.getMaxQueued()) {
+			server.log("%s is too slow, dropping it", address());
+			close(); // deferred, the caller may hold its room's lock
+			return;
+		}
+		synchronized (this) {
+			out.add(message.encoded(binaryOut));
+		}
+		loop.execute(this::flush);
+	}
+
+	/** Writes queued messages until the channel is full. Runs on the loop thread. */
+	private void flush() {
+		if (key == null || !key.isValid())
+			return;
+		try {
+			ByteBuffer buffer;
+			while ((buffer = out.peek()) != null) {
+				channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+				out.poll();
+				queued.decrementAndGet();
+			}
+			key.interestOps(SelectionKey.OP_READ);
+		} catch (IOException e) {
+			close();
+		}
+	}
+
+	/**
+	 * Closes the channel and leaves the room. May be called from any thread.
+	 * <p>
+	 * Always deferred to the loop, since the caller may be a room sending to its players
+	 * with their list and its lock held, which leaving the room would take in the
+	 * opposite order of {@link GameServer#join(GameSession, String)}.
+	 */
+	void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		loop.schedule(() -> {
+			if (key != null)
+				key.cancel();
+			try {
+				channel.close();
+			} catch (IOException ignored) {}
+			server.left(this);
+		});
+	}
+}
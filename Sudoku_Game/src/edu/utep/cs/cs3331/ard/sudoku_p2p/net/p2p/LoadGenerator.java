@@ -0,0 +1,487 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.utep.cs.cs3331.ard.sudoku.model.Board;
+import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageListener;
+import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageType;
+
+/**
+ * Load generator driving simulated players against a {@link GameServer} or the
+ * server of a {@link NetworkManager}.
+ * <p>
+ * Every simulated player is a {@link NetworkAdapter} that joins, solves the board it is
+ * given and fills its empty squares with the solution at a fixed rate, now and then
+ * undoing its last fill by clearing the square. Once the board is full, or now and then
+ * before, it proposes a new game, which the other simulated players accept. Fills sent
+ * by other players are acknowledged like the game does.
+ * <p>
+ * The generator records the fill to fill_ack latency, the throughput, and the number of
+ * fills resolved to another value, protocol errors and unexpected disconnections. With
+ * no host given, it starts a {@link GameServer} of its own, so that a whole run stays
+ * on the loopback interface, for example in a CI job: {@link #main(String[])} exits
+ * with status 1 if any error or disconnection was seen. The server of a
+ * {@link NetworkManager} takes a single player, whose new game proposals wait for
+ * the user to answer them.
+ *
+ * @author Anthony DesArmier
+ * @version 1.0
+ */
+public class LoadGenerator {
+
+	/** Usage of {@link #main(String[])}. */
+	private static final String USAGE = "Usage: LoadGenerator [-host h -port n] [-peers n] [-rate fills/s]"
+			+ " [-seconds n] [-undo ratio] [-new ratio] [-size n] [-text] [-virtual] [-quiet]";
+	/** Number of recent fills of a player whose send time is kept, a power of two. */
+	private static final int TIMED_FILLS = 1024;
+	/** Milliseconds left for the last acks to arrive once the run is over. */
+	private static final long DRAIN_MILLIS = 500;
+
+	/** Host to connect to, null for a server of our own. */
+	private final String host;
+	/** Port to connect to. */
+	private final int port;
+	/** Number of simulated players. */
+	private final int peers;
+	/** Fills per second of each player. */
+	private volatile double rate = 10;
+	/** Fraction of the steps undoing the previous fill. */
+	private volatile double undoRatio = 0.05;
+	/** Fraction of the steps proposing a new game before the board is full. */
+	private volatile double newRatio = 0.001;
+	/** Size of the boards of our own server. */
+	private volatile int size = 9;
+	/** Whether the players offer binary framing. */
+	private volatile boolean binary = true;
+	/** Whether the players run on virtual threads, where supported. */
+	private volatile boolean virtualThreads;
+	/** If not null, a line of statistics is printed every second. */
+	private volatile PrintStream logger;
+
+	private final NetworkStats.Histogram latency = new NetworkStats.Histogram();
+	private final LongAdder fills = new LongAdder();
+	private final LongAdder acks = new LongAdder();
+	private final LongAdder received = new LongAdder();
+	private final LongAdder conflicts = new LongAdder();
+	private final LongAdder newGames = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder disconnects = new LongAdder();
+	/** Whether the run is in progress, so that a closed connection is unexpected. */
+	private volatile boolean running;
+
+	/**
+	 * Creates a load generator.
+	 * @param host host to connect to, or null to start a server of our own on the loopback interface.
+	 * @param port port to connect to, ignored without a host.
+	 * @param peers number of simulated players.
+	 */
+	public LoadGenerator(String host, int port, int peers) {
+		this.host = host;
+		this.port = port;
+		this.peers = Math.max(1, peers);
+	}
+
+	/**
+	 * Runs a load from the command line and prints its report.
+	 * @param args options, see {@link #USAGE}; by default 100 players fill 10 squares
+	 *   per second each for 10 seconds against a server of our own.
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		String host = null;
+		int port = 8000, peers = 100, seconds = 10, size = 9;
+		double rate = 10, undo = 0.05, nw = 0.001;
+		boolean binary = true, virtual = false, quiet = false;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "-host": host = args[++i]; break;
+				case "-port": port = Integer.parseInt(args[++i]); break;
+				case "-peers": peers = Integer.parseInt(args[++i]); break;
+				case "-seconds": seconds = Integer.parseInt(args[++i]); break;
+				case "-rate": rate = Double.parseDouble(args[++i]); break;
+				case "-undo": undo = Double.parseDouble(args[++i]); break;
+				case "-new": nw = Double.parseDouble(args[++i]); break;
+				case "-size": size = Integer.parseInt(args[++i]); break;
+				case "-text": binary = false; break;
+				case "-virtual": virtual = true; break;
+				case "-quiet": quiet = true; break;
+				default: throw new IllegalArgumentException(args[i]);
+				}
+			}
+		} catch (RuntimeException e) { // unknown option, missing or malformed value
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		LoadGenerator generator = new LoadGenerator(host, port, peers);
+		generator.setRate(rate);
+		generator.setUndoRatio(undo);
+		generator.setNewRatio(nw);
+		generator.setBoardSize(size);
+		generator.setBinaryEnabled(binary);
+		generator.setVirtualThreads(virtual);
+		generator.setLogger(quiet ? null : System.out);
+		try {
+			Report report = generator.run(seconds * 1000L);
+			System.out.println(report);
+			System.exit(report.errors == 0 && report.disconnects == 0 ? 0 : 1);
+		} catch (IOException e) {
+			System.err.println("Cannot run the load: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Setter for {@link #rate}.
+	 */
+	public void setRate(double rate) {
+		this.rate = Math.max(0.001, rate);
+	}
+
+	/**
+	 * Setter for {@link #undoRatio}.
+	 */
+	public void setUndoRatio(double undoRatio) {
+		this.undoRatio = undoRatio;
+	}
+
+	/**
+	 * Setter for {@link #newRatio}.
+	 */
+	public void setNewRatio(double newRatio) {
+		this.newRatio = newRatio;
+	}
+
+	/**
+	 * Setter for {@link #size}.
+	 */
+	public void setBoardSize(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Setter for {@link #binary}.
+	 */
+	public void setBinaryEnabled(boolean binary) {
+		this.binary = binary;
+	}
+
+	/**
+	 * Setter for {@link #virtualThreads}.
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Setter for {@link #logger}.
+	 */
+	public void setLogger(PrintStream logger) {
+		this.logger = logger;
+	}
+
+	/**
+	 * Connects the simulated players, drives them for a while and disconnects them.
+	 * @param millis duration of the load, connections excluded.
+	 * @return statistics of the run.
+	 * @throws IOException if a player cannot connect or our own server cannot start.
+	 */
+	public Report run(long millis) throws IOException {
+		GameServer server = null;
+		String host = this.host;
+		int port = this.port;
+		if (host == null) {
+			server = new GameServer(0, 1, size, 1);
+			server.start();
+			host = InetAddress.getLoopbackAddress().getHostAddress();
+			port = server.getPort();
+		}
+		ConnectionThreads threads = new ConnectionThreads(virtualThreads);
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+				Math.min(4, Runtime.getRuntime().availableProcessors()), r -> {
+					Thread thread = new Thread(r, "Load_Scheduler");
+					thread.setDaemon(true);
+					return thread;
+				});
+		List<Peer> players = new ArrayList<>();
+		running = true;
+		try {
+			for (int i = 0; i < peers; i++)
+				players.add(new Peer(new Socket(host, port), threads));
+			long period = (long) (1e9 / rate);
+			for (Peer peer : players)
+				scheduler.scheduleAtFixedRate(peer::step, ThreadLocalRandom.current().nextLong(period), period, TimeUnit.NANOSECONDS);
+			long start = System.nanoTime();
+			long[] last = {0, 0};
+			scheduler.scheduleAtFixedRate(() -> {
+				PrintStream logger = this.logger;
+				long sent = fills.sum(), acked = acks.sum();
+				if (logger != null)
+					logger.printf("%5.1fs %8d fills/s %8d acks/s  p50=%.2fms p99=%.2fms  errors=%d disconnects=%d%n",
+							(System.nanoTime() - start) / 1e9, sent - last[0], acked - last[1],
+							latency.percentile(0.5) / 1e6, latency.percentile(0.99) / 1e6,
+							errors.sum(), disconnects.sum());
+				last[0] = sent;
+				last[1] = acked;
+			}, 1, 1, TimeUnit.SECONDS);
+			Thread.sleep(millis);
+			scheduler.shutdownNow();
+			long elapsed = System.nanoTime() - start;
+			Thread.sleep(DRAIN_MILLIS);
+			return new Report(this, players.size(), elapsed);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new Report(this, players.size(), 0);
+		} finally {
+			running = false;
+			scheduler.shutdownNow();
+			for (Peer peer : players)
+				peer.close();
+			threads.shutdown(1000);
+			if (server != null)
+				server.stop();
+		}
+	}
+
+	/** One simulated player. */
+	private class Peer implements MessageListener {
+
+		private final Socket socket;
+		private final NetworkAdapter network;
+		/** Size of the current board, 0 until joined. */
+		private int size;
+		/** Values of the squares as this player sees them, by x * size + y. */
+		private int[] view;
+		/** Solution of the current board. */
+		private int[] solution;
+		/** Squares to fill, in the order this player fills them. */
+		private List<Integer> order = Collections.emptyList();
+		/** Position in {@link #order} of the next square to look at. */
+		private int next;
+		/** Square of the last fill, -1 if none to undo. */
+		private int lastFill = -1;
+		/** Sequence number of the last fill. */
+		private int seq;
+		/** Sequence numbers of the recent fills, by sequence number modulo {@link #TIMED_FILLS}. */
+		private final int[] sentSeq = new int[TIMED_FILLS];
+		/** Send times of the fills of {@link #sentSeq}. */
+		private final long[] sentAt = new long[TIMED_FILLS];
+		/** Values of the fills of {@link #sentSeq}. */
+		private final int[] sentValue = new int[TIMED_FILLS];
+		/** Board proposed as a new game and not answered yet, null if none. */
+		private Board proposed;
+
+		Peer(Socket socket, ConnectionThreads threads) {
+			this.socket = socket;
+			network = new NetworkAdapter(socket, null, threads);
+			network.setBinaryEnabled(binary);
+			network.setSyncEnabled(false); // boards as join_ack tuples, which any server sends
+			network.setMessageListener(this);
+			network.recieveMessagesAsync();
+			network.writeJoin();
+		}
+
+		@Override
+		public synchronized void messageReceived(MessageType type, int x, int y, int z, int[] others) {
+			received.increment();
+			switch (type) {
+			case JOIN_ACK:
+				if (x == 1)
+					load(y, others);
+				else
+					errors.increment();
+				break;
+			case FILL:
+				if (size > 0 && inside(x, y))
+					view[x * size + y] = z;
+				network.writeFillAck(x, y, z, others.length > 0 ? others[0] : 0);
+				break;
+			case FILL_ACK:
+				acknowledged(x, y, z, others);
+				break;
+			case NEW:
+				network.writeNewAck(true);
+				load(x, others);
+				newGames.increment();
+				break;
+			case NEW_ACK:
+				if (x == 1 && proposed != null) {
+					load(proposed.getSize(), proposed.toArr());
+					newGames.increment();
+				}
+				proposed = null;
+				break;
+			case SOLVE:
+				if (solution != null)
+					System.arraycopy(solution, 0, view, 0, view.length);
+				break;
+			case CLOSE:
+				if (running)
+					disconnects.increment();
+				break;
+			case UNKNOWN:
+				errors.increment();
+				break;
+			default:
+				break;
+			}
+		}
+
+		/** Records the latency of an acknowledged fill and adopts the value it resolved to. */
+		private void acknowledged(int x, int y, int z, int[] others) {
+			acks.increment();
+			if (others.length == 0 || others[0] <= 0)
+				return;
+			int slot = others[0] & (TIMED_FILLS - 1);
+			if (sentSeq[slot] == others[0]) {
+				sentSeq[slot] = 0;
+				latency.record(System.nanoTime() - sentAt[slot]);
+				if (others.length > 1 && others[1] == 1 && sentValue[slot] != z)
+					conflicts.increment(); // another player filled the square first
+			}
+			if (others.length > 1 && others[1] == 1 && size > 0 && inside(x, y))
+				view[x * size + y] = z;
+		}
+
+		/** Starts playing a board given as {x, y, z, state} tuples. */
+		private void load(int size, int[] tuples) {
+			Board board = new Board(size, tuples);
+			int[] view = new int[size * size];
+			for (int x = 0; x < size; x++)
+				for (int y = 0; y < size; y++)
+					view[x * size + y] = board.getValue(x, y);
+			if (!board.solve(true)) {
+				errors.increment(); // unsolvable board
+				this.size = 0;
+				return;
+			}
+			int[] solution = new int[size * size];
+			List<Integer> order = new ArrayList<>();
+			for (int x = 0; x < size; x++)
+				for (int y = 0; y < size; y++) {
+					solution[x * size + y] = board.getValue(x, y);
+					if (view[x * size + y] == 0)
+						order.add(x * size + y);
+				}
+			Collections.shuffle(order);
+			this.size = size;
+			this.view = view;
+			this.solution = solution;
+			this.order = order;
+			next = 0;
+			lastFill = -1;
+		}
+
+		/** Makes the next move: a fill, an undo or a new game proposal. */
+		synchronized void step() {
+			if (size == 0 || proposed != null)
+				return;
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			if (lastFill >= 0 && random.nextDouble() < undoRatio) {
+				fill(lastFill, 0);
+				next = Math.max(0, order.indexOf(lastFill)); // fill it again later
+				lastFill = -1;
+				return;
+			}
+			while (next < order.size() && view[order.get(next)] == solution[order.get(next)])
+				next++;
+			if (next == order.size() || random.nextDouble() < newRatio) {
+				proposed = new Board(size, 1);
+				network.writeNew(size, proposed.toArr());
+				return;
+			}
+			int square = order.get(next++);
+			fill(square, solution[square]);
+			lastFill = square;
+		}
+
+		/** Sends a numbered fill and keeps its send time. */
+		private void fill(int square, int value) {
+			int slot = ++seq & (TIMED_FILLS - 1);
+			sentSeq[slot] = seq;
+			sentValue[slot] = value;
+			sentAt[slot] = System.nanoTime();
+			view[square] = value;
+			network.writeFill(square / size, square % size, value, seq);
+			fills.increment();
+		}
+
+		private boolean inside(int x, int y) {
+			return x >= 0 && y >= 0 && x < size && y < size;
+		}
+
+		void close() {
+			network.close();
+			try {
+				socket.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	/** Statistics of a run. */
+	public static final class Report {
+
+		/** Number of simulated players connected. */
+		public final int peers;
+		/** Duration of the load, in milliseconds. */
+		public final long millis;
+		/** Fills sent. */
+		public final long fills;
+		/** Fill_acks received. */
+		public final long acks;
+		/** Messages received. */
+		public final long received;
+		/** Fills resolved to another player's value. */
+		public final long conflicts;
+		/** New games started. */
+		public final long newGames;
+		/** Protocol errors: refused joins, unknown messages and unsolvable boards. */
+		public final long errors;
+		/** Connections closed during the run. */
+		public final long disconnects;
+		/** Fill to fill_ack latency percentiles, in milliseconds. */
+		public final double p50, p90, p99;
+
+		private Report(LoadGenerator generator, int peers, long nanos) {
+			this.peers = peers;
+			millis = nanos / 1000000;
+			fills = generator.fills.sum();
+			acks = generator.acks.sum();
+			received = generator.received.sum();
+			conflicts = generator.conflicts.sum();
+			newGames = generator.newGames.sum();
+			errors = generator.errors.sum();
+			disconnects = generator.disconnects.sum();
+			p50 = generator.latency.percentile(0.5) / 1e6;
+			p90 = generator.latency.percentile(0.9) / 1e6;
+			p99 = generator.latency.percentile(0.99) / 1e6;
+		}
+
+		/**
+		 * @return acks received per second.
+		 */
+		public double getThroughput() {
+			return millis == 0 ? 0 : acks * 1000.0 / millis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("peers=%d seconds=%.1f fills=%d acks=%d (%.0f/s) received=%d"
+					+ " latency p50=%.2fms p90=%.2fms p99=%.2fms conflicts=%d newGames=%d errors=%d disconnects=%d",
+					peers, millis / 1000.0, fills, acks, getThroughput(), received,
+					p50, p90, p99, conflicts, newGames, errors, disconnects);
+		}
+	}
+}
@@ -0,0 +1,314 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageListener;
+import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageType;
+
+/**
+ * Decodes text lines and binary frames straight from the bytes read, and notifies
+ * a listener of the messages decoded.
+ * <p>
+ * Headers are matched byte by byte and arguments are parsed into a scratch array
+ * that grows to the largest message seen, so that no string is built for anything
+ * but a join. A decoder created to reuse payloads also hands the listener arrays
+ * that it keeps for the next message of the same length: after warming up, fills,
+ * acks and heartbeats are decoded without allocating. Such a listener must copy
+ * the arguments it keeps past its call.
+ *
+ * @author Anthony DesArmier
+ * @version 1.0
+ * @see NetworkAdapter
+ * @see BinaryCodec
+ */
+final class MessageDecoder {
+
+	/** Payload lengths whose arrays are kept by a reusing decoder. */
+	private static final int CACHED_LENGTHS = 16;
+	private static final int[] EMPTY_INT_ARRAY = new int[0];
+
+	/** Whether payload arrays are reused from one message to the next. */
+	private final boolean reuse;
+	/** Arguments of the message being decoded. */
+	private int[] args = new int[16];
+	/** Reused payloads, by length. */
+	private final int[][] payloads = new int[CACHED_LENGTHS][];
+	/** Reused payload longer than the cached lengths, such as a board. */
+	private int[] large;
+
+	/**
+	 * Creates a decoder.
+	 * @param reuse true to hand the listener reused payload arrays, false for fresh ones.
+	 */
+	MessageDecoder(boolean reuse) {
+		this.reuse = reuse;
+	}
+
+	/**
+	 * Returns the type of a text line from its header, the bytes before the first colon.
+	 * @param line bytes of the line.
+	 * @param length length of the line, terminator excluded.
+	 * @return message type, or {@link MessageType#UNKNOWN} if the header is not known.
+	 */
+	static MessageType type(byte[] line, int length) {
+		int colon = colon(line, length);
+		if (colon < 0)
+			return MessageType.UNKNOWN;
+		MessageType type;
+		switch (line[0]) {
+		case 'b': type = MessageType.BINARY; break;
+		case 'f': type = colon == 4 ? MessageType.FILL : MessageType.FILL_ACK; break;
+		case 'j': type = colon == 4 ? MessageType.JOIN : MessageType.JOIN_ACK; break;
+		case 'n': type = colon == 3 ? MessageType.NEW : MessageType.NEW_ACK; break;
+		case 'p': type = colon > 1 && line[1] == 'i' ? MessageType.PING : MessageType.PONG; break;
+		case 'q': type = MessageType.QUIT; break;
+		case 'r': type = MessageType.RESUME; break;
+		case 's': type = colon == 4 ? MessageType.SYNC : MessageType.SOLVE; break;
+		default: return MessageType.UNKNOWN;
+		}
+		return matches(line, colon, type.header()) ? type : MessageType.UNKNOWN;
+	}
+
+	/**
+	 * Decodes a text line and notifies the listener. Binary announcements, handled by
+	 * the caller, are notified as unknown.
+	 * @param type type of the line, as returned by {@link #type(byte[], int)}.
+	 * @param line bytes of the line.
+	 * @param length length of the line, terminator excluded.
+	 * @param listener listener to notify.
+	 */
+	void decode(MessageType type, byte[] line, int length, MessageListener listener) {
+		if (type == MessageType.UNKNOWN || type == MessageType.BINARY) {
+			notify(listener, MessageType.UNKNOWN);
+			return;
+		}
+		int from = colon(line, length) + 1;
+		if (type == MessageType.JOIN) { // only once per connection, its tokens are parsed as a string
+			String msg = new String(line, 0, length, StandardCharsets.ISO_8859_1);
+			int[] sync = NetworkAdapter.syncOffer(msg);
+			int resume = NetworkAdapter.resumeOffer(msg);
+			int[] others = resume > 0 ? new int[] {resume} : EMPTY_INT_ARRAY; // token of the session to resume
+			if (sync != null) // x: 1 if sync is offered, y and z: board id and sequence the peer has
+				listener.messageReceived(type, 1, sync[0], sync[1], others);
+			else
+				listener.messageReceived(type, 0, 0, 0, others);
+			return;
+		}
+		int count = fields(line, from, length);
+		int[] args = this.args;
+		switch (type) {
+		case FILL:
+		case FILL_ACK:
+			// message: fill x y v [seq [time]], extra arguments ignored by older peers
+			if (count >= 3)
+				listener.messageReceived(type, args[0], args[1], args[2],
+						payload(Math.min(count - 3, NetworkAdapter.MAX_FILL_EXTRA), args, 3));
+			else
+				notify(listener, MessageType.UNKNOWN);
+			break;
+		case JOIN_ACK:
+			// message: join_ack 0 | join_ack 1 size squares
+			if (count >= 1 && args[0] == 0)
+				listener.messageReceived(type, 0, 0, 0, EMPTY_INT_ARRAY);
+			else if (count >= 2 && args[0] == 1 && args[1] > 0)
+				listener.messageReceived(type, 1, args[1], 0, payload(count - 2, args, 2));
+			else
+				notify(listener, MessageType.UNKNOWN);
+			break;
+		case NEW:
+			// message: new size squares
+			if (count >= 1 && args[0] > 0)
+				listener.messageReceived(type, args[0], 0, 0, payload(count - 1, args, 1));
+			else
+				notify(listener, MessageType.UNKNOWN);
+			break;
+		case NEW_ACK:
+			// message: new_ack response
+			if (count >= 1)
+				listener.messageReceived(type, args[0] == 0 ? 0 : 1, 0, 0, EMPTY_INT_ARRAY);
+			else
+				notify(listener, MessageType.UNKNOWN);
+			break;
+		case SYNC:
+			// message: sync kind size id sequence payload
+			if (count >= 2 + BoardSync.HEADER)
+				listener.messageReceived(type, args[0], args[1], 0, payload(count - 2, args, 2));
+			else
+				notify(listener, MessageType.UNKNOWN);
+			break;
+		case RESUME:
+			// message: resume token
+			if (count >= 1 && args[0] > 0)
+				listener.messageReceived(type, args[0], 0, 0, EMPTY_INT_ARRAY);
+			else
+				notify(listener, MessageType.UNKNOWN);
+			break;
+		default: // quit, solve, ping and pong carry no argument
+			notify(listener, type);
+		}
+	}
+
+	/**
+	 * Decodes a binary frame and notifies the listener.
+	 * @param frame frame positioned at its opcode, limited to its end.
+	 * @param listener listener to notify.
+	 */
+	void decode(ByteBuffer frame, MessageListener listener) {
+		MessageType type = BinaryCodec.type(frame.get() & 0xFF);
+		try {
+			switch (type) {
+			case FILL:
+			case FILL_ACK:
+				int x = BinaryCodec.getVarint(frame), y = BinaryCodec.getVarint(frame), v = BinaryCodec.getVarint(frame);
+				int n = 0;
+				while (frame.hasRemaining() && n < NetworkAdapter.MAX_FILL_EXTRA) // sequence number and more, ignored by older peers
+					args[n++] = BinaryCodec.getVarint(frame);
+				listener.messageReceived(type, x, y, v, payload(n, args, 0));
+				break;
+			case JOIN_ACK:
+				int response = BinaryCodec.getVarint(frame);
+				if (response == 1)
+					listener.messageReceived(type, 1, BinaryCodec.getVarint(frame), 0, list(frame));
+				else
+					listener.messageReceived(type, 0, 0, 0, EMPTY_INT_ARRAY);
+				break;
+			case NEW:
+				int size = BinaryCodec.getVarint(frame);
+				listener.messageReceived(type, size, 0, 0, list(frame));
+				break;
+			case NEW_ACK:
+				listener.messageReceived(type, BinaryCodec.getVarint(frame) == 0 ? 0 : 1, 0, 0, EMPTY_INT_ARRAY);
+				break;
+			case SYNC:
+				int kind = BinaryCodec.getVarint(frame);
+				int side = BinaryCodec.getVarint(frame);
+				listener.messageReceived(type, kind, side, 0, list(frame));
+				break;
+			case RESUME:
+				listener.messageReceived(type, BinaryCodec.getVarint(frame), 0, 0, EMPTY_INT_ARRAY);
+				break;
+			default:
+				notify(listener, type);
+			}
+		} catch (BufferUnderflowException e) {
+			notify(listener, MessageType.UNKNOWN);
+		}
+	}
+
+	/**
+	 * Reads a count-prefixed argument list, like {@link BinaryCodec#getList(ByteBuffer)}.
+	 * @throws BufferUnderflowException if the frame holds fewer arguments than announced.
+	 */
+	private int[] list(ByteBuffer frame) {
+		int count = BinaryCodec.getVarint(frame);
+		if (count < 0 || count > frame.remaining())
+			throw new BufferUnderflowException();
+		int[] list = payload(count, null, 0);
+		for (int i = 0; i < count; i++)
+			list[i] = BinaryCodec.getVarint(frame);
+		return list;
+	}
+
+	/**
+	 * Parses the comma separated integers of a line body into {@link #args}, the way
+	 * splitting on commas would: trailing empty fields are dropped, and other empty
+	 * or malformed fields are read as -1.
+	 * @return number of fields parsed.
+	 */
+	private int fields(byte[] line, int from, int to) {
+		if (from >= to) {
+			args[0] = -1;
+			return 1;
+		}
+		int count = 0;
+		int filled = 0;
+		for (int i = from; ; i++) {
+			int start = i;
+			while (i < to && line[i] != ',')
+				i++;
+			if (count == args.length)
+				args = Arrays.copyOf(args, count * 2);
+			args[count++] = parseInt(line, start, i);
+			if (i > start)
+				filled = count;
+			if (i >= to)
+				return filled;
+		}
+	}
+
+	/**
+	 * Parses a decimal integer, ignoring surrounding blanks.
+	 * @return integer parsed, or -1 if the field is empty, malformed or out of range.
+	 */
+	private static int parseInt(byte[] line, int from, int to) {
+		while (from < to && line[from] <= ' ')
+			from++;
+		while (to > from && line[to-1] <= ' ')
+			to--;
+		if (from == to)
+			return -1;
+		boolean negative = line[from] == '-';
+		if (negative || line[from] == '+')
+			if (++from == to)
+				return -1;
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			int digit = line[i] - '0';
+			if (digit < 0 || digit > 9)
+				return -1;
+			value = value * 10 + digit;
+			if (value > (long) Integer.MAX_VALUE + 1)
+				return -1;
+		}
+		value = negative ? -value : value;
+		return value > Integer.MAX_VALUE ? -1 : (int) value;
+	}
+
+	/**
+	 * Returns a payload array holding some arguments, reused if this decoder reuses payloads.
+	 * @param length number of arguments.
+	 * @param source arguments to copy, or null to leave the array to be filled by the caller.
+	 * @param from position of the first argument in the source.
+	 * @return payload array of the given length.
+	 */
+	private int[] payload(int length, int[] source, int from) {
+		int[] payload;
+		if (length == 0)
+			return EMPTY_INT_ARRAY;
+		else if (!reuse)
+			payload = new int[length];
+		else if (length < CACHED_LENGTHS)
+			payload = payloads[length] != null ? payloads[length] : (payloads[length] = new int[length]);
+		else
+			payload = large != null && large.length == length ? large : (large = new int[length]);
+		if (source != null)
+			System.arraycopy(source, from, payload, 0, length);
+		return payload;
+	}
+
+	/** @return position of the first colon of a line, -1 if none. */
+	private static int colon(byte[] line, int length) {
+		for (int i = 0; i < length; i++)
+			if (line[i] == ':')
+				return i;
+		return -1;
+	}
+
+	/** @return true if the line starts with a header, colon included. */
+	private static boolean matches(byte[] line, int colon, String header) {
+		if (colon + 1 != header.length())
+			return false;
+		for (int i = 0; i < colon; i++)
+			if (line[i] != header.charAt(i))
+				return false;
+		return true;
+	}
+
+	/** Notify the listener the receipt of the given message type. */
+	private static void notify(MessageListener listener, MessageType type) {
+		listener.messageReceived(type, 0, 0, 0, EMPTY_INT_ARRAY);
+	}
+}
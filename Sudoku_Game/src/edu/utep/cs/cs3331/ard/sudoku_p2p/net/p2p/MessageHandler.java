@@ -1,19 +1,33 @@
 package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
 
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JDialog;
 import javax.swing.JOptionPane;
 
 import edu.utep.cs.cs3331.ard.sudoku.dialog.BoardPanel;
 import edu.utep.cs.cs3331.ard.sudoku.model.Board;
+import edu.utep.cs.cs3331.ard.sudoku.model.GameJournal;
 import edu.utep.cs.cs3331.ard.sudoku_p2p.dialog.NetworkWindow;
 import edu.utep.cs.cs3331.ard.sudoku_p2p.dialog.SudokuDialog;
 import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageType;
 
 /**
  * Handles network messages.
+ * <p>
+ * Messages are received on the socket thread, which only queues them: they are
+ * handled on the event dispatch thread in batches, with a single repaint and a
+ * single log update per batch, and a new game request is answered from a dialog
+ * that does not block. A burst of fills thus never holds up reading the socket.
+ * Messages are recorded in the game journal, if any, as events coded by their type ordinal.
  * 
  * @author Anthony DesArmier
  * @author Trevor McCarthy
- * @version 1.0
+ * @version 1.6
  * @see edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageType
  */
 public class MessageHandler implements edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageListener {
@@ -24,6 +38,14 @@ public class MessageHandler implements edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p
 	private NetworkAdapter network;
 	private NetworkWindow netWin;
 	private NetworkManager netMan;
+	/** Received messages waiting for the event dispatch thread. */
+	private final EventBatcher<Received> events = new EventBatcher<>(this::handle, this::endOfBatch);
+	/** Whether the board changed during the current batch. Only touched on the event dispatch thread. */
+	private boolean repaint;
+	/** Log lines of the current batch. Only touched on the event dispatch thread. */
+	private final List<String> log = new ArrayList<>();
+	/** Dialog of the new game request being asked, null if none. Only touched on the event dispatch thread. */
+	private JDialog newDialog;
 	
 	/**
 	 * Create a new MessageHandler.
@@ -39,103 +61,282 @@ public class MessageHandler implements edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p
 	}
 
 	/**
-	 * Handles incoming messages. 
+	 * Queues incoming messages to be handled on the event dispatch thread.
 	 * @see edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageListener#messageReceived​(MessageType, int, int, int, int[])
 	 */
 	public void messageReceived(MessageType type, int x, int y, int z, int[] others) {
-		switch (type) {
+		events.publish(new Received(type, x, y, z, others.length == 0 ? others : others.clone()));
+	}
+	
+	/** Handles a queued message on the event dispatch thread. */
+	private void handle(Received msg) {
+		network.getStats().dispatched(System.nanoTime() - msg.time);
+		int x = msg.x, y = msg.y, z = msg.z;
+		int[] others = msg.others;
+		GameJournal journal = root.getJournal();
+		if(journal != null)
+			journal.event(msg.type.ordinal(), x, y, z);
+		if(msg.type != MessageType.FILL && msg.type != MessageType.FILL_ACK)
+			endOfBatch(); // keep the log in order with what the network manager logs
+		switch (msg.type) {
 		case CLOSE:
+			if(newDialog != null)
+				newDialog.dispose(); // answers no to a peer that is gone
 			if(netMan.isConnected()) {
-				netWin.logMessage("Peer has disconnected.");
+				if(x==1 && netMan.resume(network)) { // x: 1 if the connection was lost rather than closed
+					log("Connection lost, resuming the session...");
+					break;
+				}
+				log("Peer has disconnected.");
 				if(network != null)
 					netMan.disconnect(false);
 			}
 			break;
 		case FILL:
-			if(board.update(new int[] {x, y, z}, true, true)) {
-				boardPanel.repaint();
-				netWin.logMessage(String.format("FILL accepted: x:%d, y:%d, z:%d.", x, y, z));
-			}
-			else
-				netWin.logMessage(String.format("FILL rejected: x:%d, y:%d, z:%d.", x, y, z));
-			network.writeFillAck(x, y, z);
+			fillReceived(x, y, z, others);
 			break;
 		case FILL_ACK:
-			if(netMan.checkLastFill(x, y, z))
-				netWin.logMessage(String.format("FILL_ACK accepted: x:%d, y:%d, z:%d.", x, y, z));
+			if(netMan.acknowledgeFill(x, y, z, others.length>0 ? others[0] : -1)) {
+				log(String.format("FILL_ACK accepted: x:%d, y:%d, z:%d.", x, y, z));
+				if(others.length>1 && others[1]==1 && !netMan.isHost())
+					resolveFill(x, y, z, others[0]);
+			}
 			else {
-				netWin.logMessage(String.format("FILL_ACK rejected: x:%d, y:%d, z:%d.", x, y, z));
+				log(String.format("FILL_ACK rejected: x:%d, y:%d, z:%d.", x, y, z));
 				netMan.disconnect(false);
 			}
 			break;
 		case JOIN:
-			netWin.logMessage("Join request was recieved.");
-			network.writeJoinAck(board.getSize(), board.toArr());
+			if(netMan.joined(network, others.length>0 ? others[0] : -1))
+				log("Peer has resumed the session.");
+			else
+				log("Join request was recieved.");
+			if(x==1 && network.isPeerSync()) { // y and z: the peer's last synced board id and sequence
+				int[] delta = BoardSync.delta(board, y, z);
+				if(delta!=null)
+					network.writeSync(BoardSync.DELTA, board.getSize(), delta);
+				else
+					network.writeSync(BoardSync.SNAPSHOT, board.getSize(), BoardSync.snapshot(board));
+			}
+			else
+				network.writeJoinAck(board.getSize(), board.toArr());
 			break;
 		case JOIN_ACK:
 			if(x==1) {
-				netWin.logMessage("Join request was accepted.");
+				log("Join request was accepted.");
 				startNewBoard(y, others);
 			}
 			else if (x==0) {
-				netWin.logMessage("Join request was refused.");
+				log("Join request was refused.");
 				netMan.disconnect(false);
 			}
 			break;
 		case NEW:
-			int n = JOptionPane.showConfirmDialog(null,
-				    String.format("Peer has requested a new %dx%d game. Accept?", x, x),
-				    "Start New Game",
-				    JOptionPane.YES_NO_OPTION,
-				    JOptionPane.QUESTION_MESSAGE,
-				    null);
-			if(n==0) {
-				netWin.logMessage("Accepted a new game request.");
-				startNewBoard(x, others);
-				network.writeNewAck(true);
-			}
-			else {
-				netWin.logMessage("Rejected a new game request.");
-				network.writeNewAck(false);
-			}
+			confirmNew(x, others, null);
 			break;
 		case NEW_ACK:
 			if(x==1) {
 				updateBoardRef();
-				netWin.logMessage("Peer has accepted new game request.");
+				log("Peer has accepted new game request.");
 			}
 			else if(x==0) {
-				netWin.logMessage("Peer rejected new game request.");
+				log("Peer rejected new game request.");
 				netMan.disconnect(false);
 			}
 			break;
 		case QUIT:
-			netWin.logMessage("Peer has quit the game.");
+			log("Peer has quit the game.");
 			netMan.disconnect(false);
 			break;
+		case SYNC:
+			syncReceived(x, y, others);
+			break;
+		case RESUME:
+			netMan.setSession(x);
+			break;
 		case SOLVE:
-			netWin.logMessage("Peer has used the solver.");
+			log("Peer has used the solver.");
 			root.showMessage("");
 			if(board.solve(true))
-				boardPanel.repaint();
+				repaint = true;
 	    	else
 	    		root.showMessage("Not solvable");
 			break;
 		case UNKNOWN:
-			netWin.logMessage("Unknown request was recieved.");
+			log("Unknown request was recieved.");
 			break;
 		default:
-			netWin.logMessage("Unknown message was recieved.");
+			log("Unknown message was recieved.");
 			break;
 		}
 	}
 	
+	/**
+	 * Applies a fill of the peer unless a concurrent write of the square wins over it,
+	 * then acknowledges it. The authority also rejects fills breaking the rules and
+	 * answers with the value it resolved the square to.
+	 * @param x 0-based column index of the square.
+	 * @param y 0-based row index of the square.
+	 * @param z filled-in number.
+	 * @param others sequence number and Lamport clock of the fill, if sent.
+	 */
+	private void fillReceived(int x, int y, int z, int[] others) {
+		int seq = others.length>0 ? others[0] : -1;
+		boolean authority = netMan.isAuthority();
+		boolean latest = netMan.orderRemoteFill(x, y, others.length>1 ? others[1] : -1);
+		if(!latest)
+			log(String.format("FILL superseded: x:%d, y:%d, z:%d.", x, y, z));
+		else if((!authority || board.isLegal(x, y, z)) && board.update(new int[] {x, y, z}, true, true)) {
+			repaint = true;
+			log(String.format("FILL accepted: x:%d, y:%d, z:%d.", x, y, z));
+		}
+		else
+			log(String.format("FILL rejected: x:%d, y:%d, z:%d.", x, y, z));
+		if(seq<=0)
+			network.writeFillAck(x, y, z);
+		else if(authority && x>=0 && y>=0 && x<board.getSize() && y<board.getSize())
+			network.writeResolvedFillAck(x, y, board.getValue(x, y), seq);
+		else
+			network.writeFillAck(x, y, z, seq); // cumulative ack of every fill up to this one
+	}
+	
+	/**
+	 * Adopts the value the authority resolved one of our fills to, unless the square
+	 * was filled again since.
+	 * @param x 0-based column index of the square.
+	 * @param y 0-based row index of the square.
+	 * @param z resolved number.
+	 * @param seq sequence number of the acknowledged fill.
+	 */
+	private void resolveFill(int x, int y, int z, int seq) {
+		if(x<0 || y<0 || x>=board.getSize() || y>=board.getSize() || board.getValue(x, y)==z || netMan.hasNewerFill(x, y, seq))
+			return;
+		board.update(new int[] {x, y, z}, false, true);
+		repaint = true;
+		log(String.format("FILL resolved by peer: x:%d, y:%d, z:%d.", x, y, z));
+	}
+	
+	/**
+	 * Asks the player whether to accept a new game from the peer, without waiting
+	 * for the answer: the game starts and the peer is answered once the player
+	 * chooses. A request arriving while another is being asked is rejected.
+	 * @param size size of the new board.
+	 * @param list {x, y, z, state} tuples of the new board.
+	 * @param syncPoint {board id, sequence} of the peer board if sent as a sync, null otherwise.
+	 */
+	private void confirmNew(int size, int[] list, int[] syncPoint) {
+		if(newDialog != null) {
+			log("Rejected a new game request, another one is pending.");
+			network.writeNewAck(false);
+			return;
+		}
+		JOptionPane pane = new JOptionPane(
+				String.format("Peer has requested a new %dx%d game. Accept?", size, size),
+				JOptionPane.QUESTION_MESSAGE,
+				JOptionPane.YES_NO_OPTION);
+		JDialog dialog = pane.createDialog(null, "Start New Game");
+		dialog.setModal(false);
+		pane.addPropertyChangeListener(JOptionPane.VALUE_PROPERTY, (PropertyChangeEvent e) -> {
+			if(newDialog != dialog)
+				return;
+			newDialog = null;
+			dialog.dispose();
+			if(netMan.network != network)
+				return; // the connection was lost meanwhile
+			if(Integer.valueOf(JOptionPane.YES_OPTION).equals(e.getNewValue())) {
+				netWin.logMessage("Accepted a new game request.");
+				startNewBoard(size, list);
+				if(syncPoint != null)
+					netMan.setSyncPoint(board, syncPoint[0], syncPoint[1]);
+				network.writeNewAck(true);
+			}
+			else {
+				netWin.logMessage("Rejected a new game request.");
+				network.writeNewAck(false);
+			}
+		});
+		dialog.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				if(newDialog == dialog)
+					pane.setValue(JOptionPane.NO_OPTION); // closed without an answer
+			}
+		});
+		newDialog = dialog;
+		dialog.setVisible(true);
+	}
+	
+	/**
+	 * Handles a sync message, the compact form of a join_ack or new message.
+	 * @param kind {@link BoardSync#SNAPSHOT}, {@link BoardSync#DELTA} or {@link BoardSync#NEW}.
+	 * @param size size of the board.
+	 * @param sync payload as encoded by {@link BoardSync}.
+	 */
+	private void syncReceived(int kind, int size, int[] sync) {
+		if(sync.length < BoardSync.HEADER) {
+			log("Unknown request was recieved.");
+			return;
+		}
+		if(kind==BoardSync.DELTA) {
+			if(!netMan.isSynced(board) || size!=board.getSize()) {
+				log("Missed changes no longer apply, asking for the whole board.");
+				network.writeJoin();
+				return;
+			}
+			board.applyChanges(sync, BoardSync.HEADER);
+			netMan.replayFills(board);
+			repaint = true;
+			log(String.format("Join request was accepted, %d squares resynced.", (sync.length-BoardSync.HEADER)/2));
+			netMan.setSyncPoint(board, sync[0], sync[1]);
+			return;
+		}
+		int[] tuples = BoardSync.tuples(size, sync);
+		if(kind==BoardSync.SNAPSHOT && tuples!=null) {
+			log("Join request was accepted.");
+			startNewBoard(size, tuples);
+		}
+		else if(kind==BoardSync.NEW && tuples!=null) {
+			confirmNew(size, tuples, new int[] {sync[0], sync[1]});
+			return;
+		}
+		else {
+			log("Malformed board was recieved.");
+			if(kind==BoardSync.NEW)
+				network.writeNewAck(false);
+			else
+				netMan.disconnect(false);
+			return;
+		}
+		netMan.setSyncPoint(board, sync[0], sync[1]);
+	}
+	
+	/**
+	 * Adds a line to the log of the current batch.
+	 * @param message line to log.
+	 */
+	private void log(String message) {
+		log.add(message);
+	}
+	
+	/** Repaints the board and updates the log once per batch. */
+	private void endOfBatch() {
+		if(repaint) {
+			repaint = false;
+			boardPanel.repaint();
+		}
+		if(!log.isEmpty()) {
+			netWin.logMessages(log);
+			log.clear();
+		}
+	}
+	
 	/**
 	 * Start a new board and update references around it.
 	 * @param size size of the board.
 	 * @param list of {x, y, z, state} tuples that define new cells.
 	 */
 	private void startNewBoard(int size, int... list) {
+		netMan.discardPendingFills();
 		root.startNewBoard(size, list);
 		updateBoardRef();
 	}
@@ -145,4 +346,22 @@ public class MessageHandler implements edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p
 		board = root.getBoard();
 		boardPanel = root.getBoardPanel();
 	}
+	
+	/** A message received, waiting for the event dispatch thread. */
+	private static final class Received {
+		final MessageType type;
+		final int x, y, z;
+		/** Copy of the additional arguments, which the adapter reuses. */
+		final int[] others;
+		/** Time the message was received. */
+		final long time = System.nanoTime();
+		
+		Received(MessageType type, int x, int y, int z, int[] others) {
+			this.type = type;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.others = others;
+		}
+	}
 }
@@ -0,0 +1,72 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lamport clock ordering the fills two peers make to the same square.
+ * <p>
+ * Every fill is stamped with the clock of the peer making it, and every fill received
+ * moves the clock past its stamp. The host keeps the stamp of the last write of each
+ * square: a fill whose stamp is older than it was concurrent with a write the fill's
+ * author had not seen yet, and loses. Equal clocks are won by the host, so both peers
+ * settle on the same value whatever the network delays.
+ *
+ * @author Anthony DesArmier
+ * @version 1.0
+ */
+final class MoveOrder {
+
+	/** Lamport clock of this peer. */
+	private int clock;
+	/** Stamp of the last write of every written square, by (x << 16 | y). */
+	private final Map<Integer, Long> stamps = new HashMap<>();
+
+	/**
+	 * Stamps a fill made on this side.
+	 * @param x 0-based column index of the square.
+	 * @param y 0-based row index of the square.
+	 * @param host true if this side is the host, false otherwise.
+	 * @return clock value to send with the fill.
+	 */
+	synchronized int local(int x, int y, boolean host) {
+		clock++;
+		stamps.put(key(x, y), stamp(clock, host));
+		return clock;
+	}
+
+	/**
+	 * Orders a fill received from the peer against the last write of its square.
+	 * @param x 0-based column index of the square.
+	 * @param y 0-based row index of the square.
+	 * @param time clock value sent with the fill, or -1 if the peer sent none.
+	 * @param host true if the peer is the host, false otherwise.
+	 * @return true if the fill is the latest write of the square, false if it lost.
+	 */
+	synchronized boolean remote(int x, int y, int time, boolean host) {
+		if (time < 0)
+			time = clock + 1; // unstamped fills are ordered by arrival
+		clock = Math.max(clock, time) + 1;
+		long stamp = stamp(time, host);
+		Long last = stamps.get(key(x, y));
+		if (last != null && stamp < last)
+			return false;
+		stamps.put(key(x, y), stamp);
+		return true;
+	}
+
+	/** Forgets the squares of a board being replaced. The clock keeps running. */
+	synchronized void reset() {
+		stamps.clear();
+	}
+
+	/** @return key of a square. */
+	private static int key(int x, int y) {
+		return (x << 16) | (y & 0xFFFF);
+	}
+
+	/** @return stamp ordered by clock, then host before guest. */
+	private static long stamp(int time, boolean host) {
+		return ((long) time << 1) | (host ? 1 : 0);
+	}
+}
@@ -0,0 +1,62 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MoveOrderTest {
+
+	private MoveOrder host;
+	private MoveOrder guest;
+
+	@Before
+	public void setUp() {
+		host = new MoveOrder();
+		guest = new MoveOrder();
+	}
+
+	@Test
+	public void testConcurrentFillsAtEqualClocks() {
+		int hostTime = host.local(0, 0, true);
+		int guestTime = guest.local(0, 0, false);
+		assertEquals(hostTime, guestTime);
+		assertFalse(host.remote(0, 0, guestTime, false)); // the host keeps its value
+		assertTrue(guest.remote(0, 0, hostTime, true)); // the guest takes the host's
+	}
+
+	@Test
+	public void testFillAfterSeeingPeer() {
+		int hostTime = host.local(0, 0, true);
+		assertTrue(guest.remote(0, 0, hostTime, true));
+		int guestTime = guest.local(0, 0, false);
+		assertTrue(guestTime > hostTime);
+		assertTrue(host.remote(0, 0, guestTime, false));
+	}
+
+	@Test
+	public void testStaleFillLoses() {
+		int old = guest.local(0, 0, false);
+		host.local(0, 0, true);
+		host.local(0, 0, true);
+		assertFalse(host.remote(0, 0, old, false));
+		assertTrue(host.remote(1, 1, old, false)); // other squares are not affected
+	}
+
+	@Test
+	public void testResetForgetsSquares() {
+		host.local(0, 0, true);
+		host.local(0, 0, true);
+		host.reset();
+		assertTrue(host.remote(0, 0, 1, false));
+	}
+
+	@Test
+	public void testUnstampedOrderedByArrival() {
+		host.local(0, 0, true);
+		assertTrue(host.remote(0, 0, -1, false));
+		assertTrue(host.remote(0, 0, -1, false));
+	}
+}
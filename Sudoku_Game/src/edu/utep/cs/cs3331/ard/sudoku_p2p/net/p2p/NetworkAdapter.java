@@ -1,72 +1,187 @@
 package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * An abstraction of a TCP/IP socket for sending and receiving Sudoku game messages.
  * This class allows two players to communicate with each other through a socket and
  * solve Sudoku puzzles together. It is assumed that a socket connection is already
  * established between the players. 
+ * <p>
+ * Messages are text lines by default. A peer that supports it offers binary framing
+ * with "join:binary", which older peers read as a plain join. Each side then announces
+ * "binary:" once, after which everything it writes is a {@link BinaryCodec} frame;
+ * a side receiving "binary:" reads frames from then on and answers with its own
+ * "binary:" if it has not sent one yet.
+ * <p>
+ * A join may also carry a "sync" token, optionally "sync=id/sequence" naming the
+ * board state the joining peer already has. A peer offering sync is answered with a
+ * compact {@link MessageType#SYNC} message instead of a join_ack, and gets new games
+ * as sync messages too; see {@link BoardSync} for the payloads.
+ * <p>
+ * A join offering "ping" asks for heartbeats: while the connection is quiet, each side
+ * that knows its peer answers pings sends one every {@link #setHeartbeat(long) interval}
+ * and closes the connection once nothing was read for {@value #IDLE_BEATS} intervals,
+ * so a half-open connection is noticed in seconds instead of minutes. A join offering
+ * "resume" is given a session token in a {@link MessageType#RESUME} message; joining
+ * again with "resume=token" after the connection was lost resumes that session.
+ * <p>
+ * Incoming messages are decoded by a {@link MessageDecoder} straight from reused
+ * buffers, so that receiving fills and acks allocates nothing once warmed up.
+ * <p>
+ * Traffic, parse and listener times, fill round trips and the outbound queue depth
+ * are recorded into a {@link NetworkStats}, by default the one shared over JMX.
  * 
  * @author		Yoonsik Cheon
  * @author		Anthony DesArmier
  * @author 		Trevor McCarthy
- * @version 1.2
+ * @version 1.12
  */
 public class NetworkAdapter {
 
 	/** Different type of game messages. */
 	public enum MessageType {
 		/** Connection closed. */
-		CLOSE (null),
+		CLOSE (null, 0),
 		/** Request to fill a number in the board. */
-		FILL ("fill:"),
+		FILL ("fill:", 1),
 		/** Acknowledgement of a fill message. */
-		FILL_ACK ("fill_ack:"),
+		FILL_ACK ("fill_ack:", 2),
 		/** Request to join an existing game. */
-		JOIN ("join:"),
+		JOIN ("join:", 3),
 		/** Acknowledgement of a join request. */
-		JOIN_ACK ("join_ack:"),
+		JOIN_ACK ("join_ack:", 4),
 		/** Request to play a new game. */
-		NEW ("new:"),
+		NEW ("new:", 5),
 		/** Acknowledgement of a new game request. */
-		NEW_ACK ("new_ack:"),
+		NEW_ACK ("new_ack:", 6),
 		/** Quit the game. */
-		QUIT ("quit:"),
+		QUIT ("quit:", 7),
 		/** Solve the board. */
-		SOLVE ("solve:"),
+		SOLVE ("solve:", 8),
+		/** Board state for a peer that offered sync: a snapshot, a delta or a new game. */
+		SYNC ("sync:", 9),
+		/** Heartbeat, answered by the adapter itself with a pong. */
+		PING ("ping:", 10),
+		/** Answer to a heartbeat, handled by the adapter itself. */
+		PONG ("pong:", 11),
+		/** Session token to join with after losing the connection. */
+		RESUME ("resume:", 12),
+		/** Switch to binary framing, handled by the adapter itself. */
+		BINARY ("binary:", 0),
 		/** Unknown message received. */
-		UNKNOWN (null);
+		UNKNOWN (null, 0);
 		
 		/** Message header. */
         private final String header;
+        /** Opcode of the message in binary framing, 0 if it is never framed. */
+        private final int opcode;
         
-        MessageType(String header) {
+        MessageType(String header, int opcode) {
             this.header = header;
+            this.opcode = opcode;
+        }
+        
+        /**
+         * @return {@link #header}
+         */
+        String header() {
+        	return header;
+        }
+        
+        /**
+         * @return {@link #opcode}
+         */
+        int opcode() {
+        	return opcode;
         }
 	}
 	
+	/** Body of a join message offering binary framing. */
+	private static final String BINARY_OFFER = "binary";
+	/** Token of a join message offering compact board sync. */
+	private static final String SYNC_OFFER = "sync";
+	/** Token of a join message asking for heartbeats. */
+	private static final String PING_OFFER = "ping";
+	/** Token of a join message asking for a session token, or resuming a session with "resume=token". */
+	private static final String RESUME_OFFER = "resume";
+	/** Default heartbeat interval, from the system property sudoku.heartbeatMillis. */
+	private static final long DEFAULT_HEARTBEAT_MILLIS = Long.getLong("sudoku.heartbeatMillis", 5000);
+	/** Heartbeat intervals without reading anything after which the peer is considered gone. */
+	static final int IDLE_BEATS = 3;
+	
 	private static final int[] EMPTY_INT_ARRAY = new int[0];
+	/** Most arguments of a fill or fill_ack passed on after x, y and v. */
+	static final int MAX_FILL_EXTRA = 2;
+	/** Number of recent fills whose send time is kept, a power of two. */
+	private static final int TIMED_FILLS = 1024;
 	/** To be notified when a message is received. */
     private MessageListener listener;
     /** Asynchronous message writer. */
     private MessageWriter messageWriter;
-    /** Reader connected to the peer to read messages from it. */
-    private BufferedReader in;
-    /** Writer connected to the peer to write messages to it. */
-    private PrintWriter out;
+    /** Stream connected to the peer to read messages from it. */
+    private DataInputStream in;
+    /** Stream connected to the peer to write messages to it. */
+    private OutputStream out;
+    /** Whether binary framing is offered to and accepted from the peer. */
+    private volatile boolean binaryEnabled = true;
+    /** Whether compact board sync is offered to and accepted from the peer. */
+    private volatile boolean syncEnabled = true;
+    /** Whether the peer understands sync messages. */
+    private volatile boolean peerSync;
+    /** Milliseconds between heartbeats, 0 for none. */
+    private volatile long heartbeatMillis = DEFAULT_HEARTBEAT_MILLIS;
+    /** Whether the peer answers heartbeats. */
+    private volatile boolean peerHeartbeat;
+    /** Whether the peer asked for a session token. */
+    private volatile boolean peerResume;
+    /** Time anything was last read from the peer. */
+    private volatile long lastRead = System.nanoTime();
+    /** Whether incoming messages are binary frames. Only touched by the reading thread. */
+    private boolean binaryIn;
+    /** Whether outgoing messages are binary frames. Guarded by {@link #messageWriter}. */
+    private boolean binaryOut;
+    /** Reusable buffer for incoming lines. */
+    private byte[] line = new byte[256];
+    /** Reusable buffer for incoming frames. */
+    private ByteBuffer frame = ByteBuffer.allocate(256);
     /** If not null, log all messages sent and received. */
     private PrintStream logger;
     /** Associated socket to communicate with the peer. */
     private Socket socket;
+    /** Owner of the reader and writer threads. */
+    private final ConnectionThreads threads;
+    /** Where traffic and latencies are recorded. */
+    private volatile NetworkStats stats = NetworkStats.getDefault();
+    /** Sequence numbers of the recent numbered fills, by sequence number modulo {@link #TIMED_FILLS}. */
+    private final AtomicIntegerArray timedFills = new AtomicIntegerArray(TIMED_FILLS);
+    /** Send times of the fills of {@link #timedFills}. */
+    private final AtomicLongArray fillTimes = new AtomicLongArray(TIMED_FILLS);
+    /** Decoder of the incoming messages, reusing the arguments it passes on. */
+    private final MessageDecoder decoder = new MessageDecoder(true);
+    /** Size on the wire of the message being parsed. Only touched by the reading thread. */
+    private int readBytes;
+    /** Time the message being parsed was read. Only touched by the reading thread. */
+    private long readTime;
+    /** Records every parsed message before passing it on to {@link #listener}. */
+    private final MessageListener recorder = this::record;
 	
 	/**
 	 * Create a new network adapter to read messages from
@@ -85,12 +200,26 @@ public class NetworkAdapter {
 	 * @param logger Log all incoming and outgoing messages.
 	 */
 	public NetworkAdapter (Socket socket, PrintStream logger) {
+		this(socket, logger, new ConnectionThreads(false));
+	}
+	
+	/**
+	 * Create a new network adapter whose reader and writer threads
+	 * are started by the given owner, possibly as virtual threads.
+	 * @param socket Socket to read and write messages.
+	 * @param logger Log all incoming and outgoing messages, may be null.
+	 * @param threads Owner of the reader and writer threads.
+	 */
+	public NetworkAdapter (Socket socket, PrintStream logger, ConnectionThreads threads) {
 		this.socket = socket;
         this.logger = logger;
+        this.threads = threads;
         messageWriter = new MessageWriter();
         try {
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()));
+            socket.setKeepAlive(true); // last resort for peers without heartbeats
+            socket.setTcpNoDelay(true); // MessageWriter batches, Nagle would only delay the flushes
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new BufferedOutputStream(socket.getOutputStream());
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
@@ -119,6 +248,81 @@ public class NetworkAdapter {
         } catch (Exception e) {}
 	}
 	
+    /**
+     * Sets how long the writer waits for more messages before flushing a batch.
+     * A small linger merges bursts such as undo/redo into fewer packets at the
+     * cost of that much latency.
+     * @param micros linger in microseconds, 0 to flush as soon as the queue is empty.
+     */
+    public void setWriteLinger(long micros) {
+    	messageWriter.lingerNanos = Math.max(0, micros) * 1000;
+    }
+    
+    /**
+     * Sets whether binary framing is offered to and accepted from the peer.
+     * Must be called before any message is exchanged.
+     * @param binaryEnabled false to speak only the text protocol.
+     */
+    public void setBinaryEnabled(boolean binaryEnabled) {
+    	this.binaryEnabled = binaryEnabled;
+    }
+    
+    /**
+     * Sets whether compact board sync is offered to the peer.
+     * Must be called before any message is exchanged.
+     * @param syncEnabled false to always exchange boards as tuple lists.
+     */
+    public void setSyncEnabled(boolean syncEnabled) {
+    	this.syncEnabled = syncEnabled;
+    }
+    
+    /**
+     * @return true if the peer offered or answered with sync messages, false otherwise.
+     */
+    public boolean isPeerSync() {
+    	return peerSync;
+    }
+    
+    /**
+     * Sets the heartbeat interval. A peer that answers heartbeats is sent a ping
+     * whenever nothing was read from it for that long, and is disconnected once
+     * nothing was read for {@value #IDLE_BEATS} intervals.
+     * Must be called before any message is exchanged.
+     * @param millis heartbeat interval in milliseconds, 0 to neither ask for nor send heartbeats.
+     */
+    public void setHeartbeat(long millis) {
+    	heartbeatMillis = Math.max(0, millis);
+    }
+    
+    /**
+     * @return true if the peer answers heartbeats, false otherwise.
+     */
+    public boolean isPeerHeartbeat() {
+    	return peerHeartbeat;
+    }
+    
+    /**
+     * @return true if the peer asked for a session token, false otherwise.
+     */
+    public boolean isPeerResume() {
+    	return peerResume;
+    }
+    
+    /**
+     * @return where traffic and latencies of this adapter are recorded.
+     */
+    public NetworkStats getStats() {
+    	return stats;
+    }
+    
+    /**
+     * Sets where traffic and latencies of this adapter are recorded.
+     * @param stats stats to record into, for example one per connection.
+     */
+    public void setStats(NetworkStats stats) {
+    	this.stats = stats;
+    }
+    
     /**
      * Register the given messageListener to be notified when a message
      * is received.
@@ -141,17 +345,156 @@ public class NetworkAdapter {
      * @see #receiveMessagesAsync()
      */
     public void receiveMessages() {
-        String line = null;
+    	Thread heartbeat = heartbeatMillis > 0 && !threads.isShutdown() ? threads.start("Heartbeat_Thread", this::heartbeat) : null;
+    	int lost = 0;
         try {
-            while ((line = in.readLine()) != null) {
-                if (logger != null)
-                    logger.format(" < %s\n", line);
-                parseMessage(line);
-            }
-        } catch (IOException e) {}
-        notifyMessage(MessageType.CLOSE);
+        	while (binaryIn ? readFrame() : readText()) {}
+        } catch (IOException e) {
+        	lost = 1; // reset, timed out or closed under us, as opposed to an orderly end of stream
+        } finally {
+        	if (heartbeat != null)
+        		heartbeat.interrupt();
+        }
+        notifyMessage(listener, MessageType.CLOSE, lost);
+    }
+    
+    /**
+     * Pings a quiet peer that answers heartbeats, and closes the socket once the peer
+     * stayed silent for {@value #IDLE_BEATS} intervals, which ends {@link #receiveMessages()}.
+     */
+    private void heartbeat() {
+    	try {
+    		while (!Thread.currentThread().isInterrupted()) {
+    			long interval = heartbeatMillis;
+    			Thread.sleep(interval);
+    			if (!peerHeartbeat)
+    				continue;
+    			long idle = System.nanoTime() - lastRead;
+    			if (idle >= IDLE_BEATS * interval * 1000000) {
+    				if (logger != null)
+    					logger.format(" ! no message for %d ms\n", idle / 1000000);
+    				socket.close();
+    				return;
+    			}
+    			if (idle >= interval * 1000000)
+    				writeMsg(MessageType.PING, EMPTY_INT_ARRAY, null);
+    		}
+    	} catch (InterruptedException | IOException e) {}
     }
     
+    /**
+     * Reads and parses one text line. Lines are read byte by byte from the
+     * buffered stream so that nothing past a "binary:" line is consumed as text.
+     * @return false at the end of the stream, true otherwise.
+     */
+    private boolean readText() throws IOException {
+    	int length = 0;
+    	int b;
+    	while ((b = in.read()) != '\n') {
+    		if (b < 0) {
+    			if (length == 0)
+    				return false;
+    			break;
+    		}
+    		if (length == line.length) {
+    			if (length >= BinaryCodec.MAX_FRAME)
+    				throw new IOException("Line too long");
+    			byte[] larger = new byte[length * 2];
+    			System.arraycopy(line, 0, larger, 0, length);
+    			line = larger;
+    		}
+    		line[length++] = (byte) b;
+    	}
+    	if (length > 0 && line[length-1] == '\r')
+    		length--;
+    	readTime = System.nanoTime();
+    	lastRead = readTime;
+    	readBytes = length + 1;
+    	if (logger != null)
+    		logger.format(" < %s\n", new String(line, 0, length, StandardCharsets.ISO_8859_1));
+    	parseLine(line, length);
+    	return true;
+    }
+    
+    /**
+     * Reads and parses one binary frame.
+     * @return false at the end of the stream, true otherwise.
+     * @throws IOException if the frame length is invalid or the stream ends within a frame.
+     */
+    private boolean readFrame() throws IOException {
+    	int length = 0;
+    	for (int shift = 0; ; shift += 7) {
+    		int b = in.read();
+    		if (b < 0) {
+    			if (shift == 0)
+    				return false;
+    			throw new IOException("Truncated frame");
+    		}
+    		length |= (b & 0x7F) << shift;
+    		if (b < 0x80)
+    			break;
+    		if (shift >= 21)
+    			throw new IOException("Frame too long");
+    	}
+    	if (length == 0 || length > BinaryCodec.MAX_FRAME)
+    		throw new IOException("Invalid frame length " + length);
+    	if (frame.capacity() < length)
+    		frame = ByteBuffer.allocate(Math.max(length, frame.capacity() * 2));
+    	in.readFully(frame.array(), 0, length);
+    	readTime = System.nanoTime();
+    	lastRead = readTime;
+    	readBytes = length + BinaryCodec.varintSize(length);
+    	frame.clear();
+    	frame.limit(length);
+    	parseFrame(frame);
+    	return true;
+    }
+    
+    /** Parse the given frame and notify to the registered listener. */
+    private void parseFrame(ByteBuffer frame) {
+    	if (syncEnabled && BinaryCodec.type(frame.get(0) & 0xFF) == MessageType.SYNC)
+    		peerSync = true;
+    	if (logger != null)
+    		logger.format(" < [%s, %d bytes]\n", BinaryCodec.type(frame.get(0) & 0xFF),
+    				frame.limit() + BinaryCodec.varintSize(frame.limit()));
+    	decoder.decode(frame, recorder);
+    }
+    
+    /**
+     * Records the parse time of a message and the time the listener takes with it.
+     * Acks of timed fills also complete a round trip. Heartbeats are answered here
+     * and not passed on.
+     */
+    private void record(MessageType type, int x, int y, int z, int[] others) {
+    	NetworkStats stats = this.stats;
+    	long start = System.nanoTime();
+    	stats.received(type, readBytes, start - readTime);
+    	if (type == MessageType.PING || type == MessageType.PONG) {
+    		if (type == MessageType.PING) {
+    			if (heartbeatMillis > 0)
+    				peerHeartbeat = true; // only peers asked for heartbeats send them
+    			writeMsg(MessageType.PONG, EMPTY_INT_ARRAY, null);
+    		}
+    		return;
+    	}
+    	if (type == MessageType.FILL_ACK && others.length > 0 && others[0] > 0) {
+    		int slot = others[0] & (TIMED_FILLS - 1);
+    		long sent = fillTimes.get(slot);
+    		if (timedFills.compareAndSet(slot, others[0], 0)) // fills covered by a later ack are not timed
+    			stats.roundTrip(start - sent);
+    	}
+    	listener.messageReceived(type, x, y, z, others);
+    	stats.handled(type, System.nanoTime() - start);
+    }
+    
+    /**
+     * Parse the given frame and notify the given listener with freshly allocated arguments.
+     * @param frame frame without its length prefix, from position to limit.
+     * @param listener listener to notify.
+     */
+    static void parseFrame(ByteBuffer frame, MessageListener listener) {
+    	new MessageDecoder(false).decode(frame, listener);
+    }
     /**
      * Start accepting messages asynchronously from this network
      * adapter and notifying them to the registered listener.
@@ -164,129 +507,240 @@ public class NetworkAdapter {
      */
 	
 	public void recieveMessagesAsync() {
-		new Thread(() -> receiveMessages()).start();
+		threads.start("Reader_Thread", this::receiveMessages);
 	}
 	
-    /** Parse the given message and notify to the registered listener. */
-    private void parseMessage(String msg) {
-        if (msg.startsWith(MessageType.QUIT.header)) {
-                notifyMessage(MessageType.QUIT);
-        } else if (msg.startsWith(MessageType.JOIN_ACK.header)) {
-            parseJoinAckMessage(msgBody(msg));
-        } else if (msg.startsWith(MessageType.JOIN.header)) {
-            notifyMessage(MessageType.JOIN);
-        } else if (msg.startsWith(MessageType.NEW_ACK.header)) {
-        	parseNewAckMessage(msgBody(msg));
-        } else if (msg.startsWith(MessageType.NEW.header)) {
-        	parseNewMessage(msgBody(msg));
-        } else if (msg.startsWith(MessageType.FILL_ACK.header)) {
-            parseFillMessage(MessageType.FILL_ACK, msgBody(msg));
-        } else if (msg.startsWith(MessageType.FILL.header)) {
-            parseFillMessage(MessageType.FILL, msgBody(msg));
-        } else if (msg.startsWith(MessageType.SOLVE.header)) {
-        	notifyMessage(MessageType.SOLVE);
-        } else {
-            notifyMessage(MessageType.UNKNOWN);
-        }
+    /**
+     * Parse the given line and notify to the registered listener. Only the
+     * handshake, a join or a binary announcement, is parsed as a string.
+     */
+    private void parseLine(byte[] line, int length) {
+    	MessageType type = MessageDecoder.type(line, length);
+    	if (type == MessageType.JOIN || type == MessageType.BINARY) {
+    		String msg = new String(line, 0, length, StandardCharsets.ISO_8859_1);
+    		if (syncEnabled && syncOffer(msg) != null)
+    			peerSync = true;
+    		if (heartbeatMillis > 0 && offers(msg, PING_OFFER))
+    			peerHeartbeat = true;
+    		if (syncEnabled && resumeOffer(msg) >= 0)
+    			peerResume = true;
+    		if (binaryEnabled && offersBinary(msg)) {
+    			switchOutput(); // answer the offer before the join_ack
+    		} else if (binaryEnabled && type == MessageType.BINARY) {
+    			binaryIn = true;
+    			switchOutput(); // no-op if we announced first
+    			return;
+    		}
+    	} else if (syncEnabled && type == MessageType.SYNC) {
+    		peerSync = true;
+    	}
+    	decoder.decode(type, line, length, recorder);
+    }
+    
+    /**
+     * Determines whether a text message is a join offering binary framing.
+     * @param msg text message.
+     * @return true if the peer offers binary framing, false otherwise.
+     */
+    static boolean offersBinary(String msg) {
+    	return offers(msg, BINARY_OFFER);
+    }
+    
+    /**
+     * Determines whether a text message is a join carrying a given token.
+     * @param msg text message.
+     * @param offer token to look for.
+     * @return true if the message is a join carrying the token, false otherwise.
+     */
+    private static boolean offers(String msg, String offer) {
+    	if (!msg.startsWith(MessageType.JOIN.header))
+    		return false;
+    	for (String token : msgBody(msg).split(","))
+    		if (token.equals(offer))
+    			return true;
+    	return false;
+    }
+    
+    /**
+     * Determines whether a text message is a join asking for or resuming a session.
+     * @param msg text message.
+     * @return token of the session to resume, 0 for a new session,
+     *   or -1 if the message is not a join asking for one.
+     */
+    static int resumeOffer(String msg) {
+    	if (!msg.startsWith(MessageType.JOIN.header))
+    		return -1;
+    	for (String token : msgBody(msg).split(",")) {
+    		if (token.equals(RESUME_OFFER))
+    			return 0;
+    		if (token.startsWith(RESUME_OFFER + "="))
+    			return Math.max(0, parseInt(token.substring(RESUME_OFFER.length() + 1)));
+    	}
+    	return -1;
+    }
+    
+    /**
+     * Determines whether a text message is a join offering compact board sync.
+     * @param msg text message.
+     * @return {board id, sequence} the peer already has, {-1, -1} for none,
+     *   or null if the message is not a join offering sync.
+     */
+    static int[] syncOffer(String msg) {
+    	if (!msg.startsWith(MessageType.JOIN.header))
+    		return null;
+    	for (String token : msgBody(msg).split(",")) {
+    		if (token.equals(SYNC_OFFER))
+    			return new int[] {-1, -1};
+    		if (token.startsWith(SYNC_OFFER + "=")) {
+    			String[] point = token.substring(SYNC_OFFER.length() + 1).split("/");
+    			if (point.length == 2)
+    				return new int[] {parseInt(point[0]), parseInt(point[1])};
+    			return new int[] {-1, -1};
+    		}
+    	}
+    	return null;
+    }
+    
+    /**
+     * Parse the given text message and notify the given listener with freshly allocated arguments.
+     * @param msg text message without its line terminator.
+     * @param listener listener to notify.
+     */
+    static void parseText(String msg, MessageListener listener) {
+    	byte[] line = msg.getBytes(StandardCharsets.ISO_8859_1);
+    	new MessageDecoder(false).decode(MessageDecoder.type(line, line.length), line, line.length, listener);
     }
     
     /** Parse and return the body of the given message. */
-    private String msgBody(String msg) {
+    private static String msgBody(String msg) {
         int i = msg.indexOf(':');
         if (i > -1)
             msg = msg.substring(i + 1);
         return msg;
     }
-    
-
-    /** Parse and notify the given play_ack message body. */
-    private void parseJoinAckMessage(String msgBody) {
-        String[] parts = msgBody.split(",");
-        if (parts.length >= 1) {
-        	// message: join_ack 0
-        	int response = parseInt(parts[0].trim());
-        	if (response == 0) {
-        		notifyMessage(MessageType.JOIN_ACK, 0);
-        		return;
-        	}
-        	if (response == 1 && parts.length >= 2) {
-        		// message: join_ack 1 size squares
-        		int size = parseInt(parts[1].trim());
-        		if (size > 0) {
-        			int[] others = new int[parts.length - 2];
-        			for (int i = 2; i < parts.length; i++)
-        				others[i-2] = parseInt(parts[i]);
-        			notifyMessage(MessageType.JOIN_ACK, 1, size, others);
-        			return;
-        		}
-        	}
-        }
-        notifyMessage(MessageType.UNKNOWN);
-    }
-    
-    /** Parse and notify the given new_ack message body. */
-    private void parseNewAckMessage(String msgBody) {
-        String[] parts = msgBody.split(",");
-        if (parts.length >= 1) {
-        	// message: new_ack response
-        	int response = parseInt(parts[0].trim());
-        	response = response == 0 ? 0 : 1;
-        	notifyMessage(MessageType.NEW_ACK, response);
-        	return;
-        }
-        notifyMessage(MessageType.UNKNOWN);
-    }
-    
-    /** Parse and notify the given play_ack message body. */
-    private void parseNewMessage(String msgBody) {
-        String[] parts = msgBody.split(",");
-        if (parts.length >= 1) {
-        	// message: new size squares
-        	int size = parseInt(parts[0].trim());
-        	if (size > 0) {
-        		int[] others = new int[parts.length - 1];
-        		for (int i = 1; i < parts.length; i++)
-        			others[i-1] = parseInt(parts[i]);
-        		notifyMessage(MessageType.NEW, size, others);
-        		return;
-        	}
-        }
-        notifyMessage(MessageType.UNKNOWN);
-    }    
 
     /** 
      * Parse the given string as an int; return -1 if the input
      * is not well-formed. 
      */
-    private int parseInt(String txt) {
+    private static int parseInt(String txt) {
         try { return Integer.parseInt(txt); } 
         catch (NumberFormatException e) { return -1; }
     }
     
-    /** Parse and notify the given move or move_ack message. */
-    private void parseFillMessage(MessageType type, String msgBody) {
-        String[] parts = msgBody.split(",");
-        if (parts.length >= 3) {
-            int x = parseInt(parts[0].trim());
-            int y = parseInt(parts[1].trim());
-            int v = parseInt(parts[2].trim());
-            notifyMessage(type, x, y, v);
-        } else
-            notifyMessage(MessageType.UNKNOWN);
+    /** Write the given message asynchronously. */
+    private void writeMsg(MessageType type, String msg) {
+        messageWriter.write(type, msg);
     }
     
-    /** Write the given message asynchronously. */
-    private void writeMsg(String msg) {
-        messageWriter.write(msg);
+    /**
+     * Write the given message asynchronously, as a frame if binary framing is on.
+     * @param type type of the message.
+     * @param args fixed arguments of the message.
+     * @param list variable argument list, or null for none.
+     */
+    private void writeMsg(MessageType type, int[] args, int[] list) {
+    	if (type == MessageType.FILL && args.length > 3 && args[3] > 0) {
+    		int slot = args[3] & (TIMED_FILLS - 1);
+    		fillTimes.set(slot, System.nanoTime());
+    		timedFills.set(slot, args[3]);
+    	}
+    	synchronized (messageWriter) {
+    		if (binaryOut)
+    			messageWriter.write(type, args, BinaryCodec.frame(type, args, list));
+    		else
+    			messageWriter.write(type, args, text(type, args, list));
+    	}
     }
     
     /**
-     * Write a join message asynchronously.
+     * Formats a message in the text protocol, its header followed by comma separated arguments.
+     * @param type type of the message.
+     * @param args fixed arguments of the message.
+     * @param list variable argument list, or null for none.
+     * @return text message without its line terminator.
+     */
+    static String text(MessageType type, int[] args, int[] list) {
+    	StringBuilder builder = new StringBuilder(type.header);
+    	for (int i = 0; i < args.length; i++) {
+    		if (i > 0)
+    			builder.append(',');
+    		builder.append(args[i]);
+    	}
+    	if (list != null)
+    		for (int v : list) {
+    			builder.append(',');
+    			builder.append(v);
+    		}
+    	return builder.toString();
+    }
+    
+    /**
+     * Encodes a message ready to be written to a peer.
+     * @param type type of the message.
+     * @param args fixed arguments of the message.
+     * @param list variable argument list, or null for none.
+     * @param binary true for a binary frame, false for a text line.
+     * @return flipped buffer holding the message.
+     */
+    static ByteBuffer encode(MessageType type, int[] args, int[] list, boolean binary) {
+    	if (binary)
+    		return BinaryCodec.frame(type, args, list);
+    	return ByteBuffer.wrap((text(type, args, list) + "\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+    
+    /** Announce binary framing to the peer and frame every later message, if not already done. */
+    private void switchOutput() {
+    	synchronized (messageWriter) {
+    		if (binaryOut)
+    			return;
+    		messageWriter.write(MessageType.BINARY, MessageType.BINARY.header);
+    		binaryOut = true;
+    	}
+    }
+    
+    /**
+     * Write a join message asynchronously, offering binary framing if enabled.
      * @see #writeJoinAck()
      * @see #writeJoinAck(int, int...)
      */
     public void writeJoin() {
-        writeMsg(MessageType.JOIN.header);
+        writeJoin(-1, -1);
+    }
+    
+    /**
+     * Write a join message asynchronously, offering binary framing and board sync if enabled.
+     * @param boardId id of the peer's board this side last synced with, -1 for none.
+     * @param sequence sequence of that board this side is up to date with, -1 for none.
+     * @see #writeSync(int, int, int[])
+     */
+    public void writeJoin(int boardId, int sequence) {
+    	writeJoin(boardId, sequence, 0);
+    }
+    
+    /**
+     * Write a join message asynchronously, offering binary framing, board sync and
+     * heartbeats if enabled. With sync, also asks for a session token or resumes a session.
+     * @param boardId id of the peer's board this side last synced with, -1 for none.
+     * @param sequence sequence of that board this side is up to date with, -1 for none.
+     * @param session token of the session to resume, 0 for a new session.
+     * @see #writeResume(int)
+     */
+    public void writeJoin(int boardId, int sequence, int session) {
+    	StringBuilder body = new StringBuilder();
+    	if (binaryEnabled)
+    		body.append(',').append(BINARY_OFFER);
+    	if (syncEnabled) {
+    		body.append(',').append(SYNC_OFFER);
+    		if (boardId >= 0 && sequence >= 0)
+    			body.append('=').append(boardId).append('/').append(sequence);
+    		body.append(',').append(RESUME_OFFER);
+    		if (session > 0)
+    			body.append('=').append(session);
+    	}
+    	if (heartbeatMillis > 0)
+    		body.append(',').append(PING_OFFER);
+        writeMsg(MessageType.JOIN, MessageType.JOIN.header + (body.length() > 0 ? body.substring(1) : ""));
     }
 
     /**
@@ -294,7 +748,7 @@ public class NetworkAdapter {
      * @see #writeJoin()
      */
     public void writeJoinAck() {
-        writeMsg(MessageType.JOIN_ACK.header + "0");
+        writeMsg(MessageType.JOIN_ACK, new int[] {0}, null);
     }
     
     /**
@@ -307,14 +761,17 @@ public class NetworkAdapter {
      * @see #writeJoin()
      */
     public void writeJoinAck(int size, int... squares) {
-    	StringBuilder builder = new StringBuilder(MessageType.JOIN_ACK.header);
-    	builder.append("1,"); 
-    	builder.append(size);
-    	for (int v: squares) {
-    		builder.append(",");
-    		builder.append(v);
-    	}
-        writeMsg(builder.toString());
+    	writeMsg(MessageType.JOIN_ACK, new int[] {1, size}, squares);
+    }
+    
+    /**
+     * Write a sync message asynchronously. Only for a peer that {@link #isPeerSync() offered sync}.
+     * @param kind {@link BoardSync#SNAPSHOT}, {@link BoardSync#DELTA} or {@link BoardSync#NEW}.
+     * @param size Size of the board
+     * @param payload Board id, sequence and state, as encoded by {@link BoardSync}.
+     */
+    public void writeSync(int kind, int size, int[] payload) {
+    	writeMsg(MessageType.SYNC, new int[] {kind, size}, payload);
     }
     
     /**
@@ -327,13 +784,7 @@ public class NetworkAdapter {
      * @see #writeNewAck(boolean)
      */
     public void writeNew(int size, int... squares) {
-    	StringBuilder builder = new StringBuilder(MessageType.NEW.header);
-    	builder.append(size);
-    	for (int v: squares) {
-    		builder.append(",");
-    		builder.append(v);
-    	}
-        writeMsg(builder.toString());    	
+    	writeMsg(MessageType.NEW, new int[] {size}, squares);
     }
     
     /**
@@ -342,11 +793,11 @@ public class NetworkAdapter {
      * @see #writeNew(int, int...)
      */
     public void writeNewAck(boolean response) {
-        writeMsg(MessageType.NEW_ACK.header + toInt(response));
+        writeMsg(MessageType.NEW_ACK, new int[] {toInt(response)}, null);
     }
     
     /** Convert the given boolean flag to an int. */
-    private int toInt(boolean flag) {
+    private static int toInt(boolean flag) {
         return flag ? 1 : 0;
     }
     
@@ -360,7 +811,35 @@ public class NetworkAdapter {
      * @see #writeFillAck(int, int, int)
      */
     public void writeFill(int x, int y, int number) {
-        writeMsg(String.format("%s%s,%s,%s", MessageType.FILL.header, x, y, number));
+        writeMsg(MessageType.FILL, new int[] {x, y, number}, null);
+    }
+    
+    /**
+     * Write a numbered fill message asynchronously, to be acknowledged with the same number.
+     * 
+     * @param x 0-based column index of the square
+     * @param y 0-based row index of the square
+     * @param number Filled-in number
+     * @param seq sequence number of the fill, starting at 1
+     *
+     * @see #writeFillAck(int, int, int, int)
+     */
+    public void writeFill(int x, int y, int number, int seq) {
+        writeMsg(MessageType.FILL, new int[] {x, y, number, seq}, null);
+    }
+    
+    /**
+     * Write a numbered fill message asynchronously, stamped with the sender's
+     * Lamport clock to order it against concurrent fills of the same square.
+     * 
+     * @param x 0-based column index of the square
+     * @param y 0-based row index of the square
+     * @param number Filled-in number
+     * @param seq sequence number of the fill, starting at 1
+     * @param time Lamport clock of the sender
+     */
+    public void writeFill(int x, int y, int number, int seq, int time) {
+        writeMsg(MessageType.FILL, new int[] {x, y, number, seq, time}, null);
     }
 
     /**
@@ -371,91 +850,215 @@ public class NetworkAdapter {
      * @see #writeFill(int, int, int)
      */
     public void writeFillAck(int x, int y, int number) {
-        writeMsg(String.format("%s%s,%s,%s", MessageType.FILL_ACK.header, x, y, number));
+        writeMsg(MessageType.FILL_ACK, new int[] {x, y, number}, null);
     }
     
-    /** Write a quit (gg) message (to quit the game) asynchronously. */
-    public void writeQuit() {
-        writeMsg(MessageType.QUIT.header);
+    /**
+     * Write a fill_ack message asynchronously, acknowledging every fill up to a sequence number.
+     * @param x 0-based column index of the square
+     * @param y 0-based row index of the square
+     * @param number Filled-in number
+     * @param seq sequence number of the acknowledged fill
+     * @see #writeFill(int, int, int, int)
+     */
+    public void writeFillAck(int x, int y, int number, int seq) {
+        writeMsg(MessageType.FILL_ACK, new int[] {x, y, number, seq}, null);
     }
     
-    /** Write a solve message asynchronously. */
-	public void writeSolve() {
-		writeMsg(MessageType.SOLVE.header);
-	}
-    
-    /** Notify the listener the receipt of the given message type. */
-    private void notifyMessage(MessageType type) {
-        listener.messageReceived(type, 0, 0, 0, EMPTY_INT_ARRAY);
+    /**
+     * Write a fill_ack message asynchronously carrying the value the board owner
+     * resolved the square to, which the peer adopts.
+     * @param x 0-based column index of the square
+     * @param y 0-based row index of the square
+     * @param number Resolved number of the square
+     * @param seq sequence number of the acknowledged fill
+     */
+    public void writeResolvedFillAck(int x, int y, int number, int seq) {
+        writeMsg(MessageType.FILL_ACK, new int[] {x, y, number, seq, 1}, null);
     }
     
-    /** Notify the listener the receipt of the given message type. */
-    private void notifyMessage(MessageType type, int x) {
-        listener.messageReceived(type, x, 0, 0, EMPTY_INT_ARRAY);
+    /**
+     * Write a resume message asynchronously, giving a peer that {@link #isPeerResume() asked for one}
+     * the token to resume its session with.
+     * @param session positive session token.
+     * @see #writeJoin(int, int, int)
+     */
+    public void writeResume(int session) {
+    	writeMsg(MessageType.RESUME, new int[] {session}, null);
     }
     
-    /** Notify the listener the receipt of the given message type. */
-    private void notifyMessage(MessageType type, int x, int[] others) {
-        listener.messageReceived(type, x, 0, 0, others);
+    /** Write a quit (gg) message (to quit the game) asynchronously. */
+    public void writeQuit() {
+        writeMsg(MessageType.QUIT, EMPTY_INT_ARRAY, null);
     }
     
-    /** Notify the listener the receipt of the given message type. */
-    private void notifyMessage(MessageType type, int x, int y, int v) {
-        listener.messageReceived(type, x, y, v, EMPTY_INT_ARRAY);
-    }
+    /** Write a solve message asynchronously. */
+	public void writeSolve() {
+		writeMsg(MessageType.SOLVE, EMPTY_INT_ARRAY, null);
+	}
     
     /** Notify the listener the receipt of the given message type. */
-    private void notifyMessage(MessageType type, int x, int y, int[] others) {
-        listener.messageReceived(type, x, y, 0, others);
+    private static void notifyMessage(MessageListener listener, MessageType type, int x) {
+        listener.messageReceived(type, x, 0, 0, EMPTY_INT_ARRAY);
     }
 	
 	/** 
      * Write messages asynchronously. This class uses a single 
      * background thread to write messages asynchronously in a FIFO
      * fashion. To stop the background thread, call the stop() method.
+     * <p>
+     * Writers append to a lock-free queue and wake the thread up; the thread
+     * drains everything queued into the buffered stream and flushes once, so a
+     * burst of moves leaves in a single packet. A fill still waiting to be sent is
+     * dropped when a later fill to the same square is queued, unless a message
+     * other than a fill or fill_ack was queued in between.
      */
     private class MessageWriter {
         
         /** Background thread to write messages asynchronously. */
-        private Thread writerThread;
+        private volatile Thread writerThread;
+        
+        /** Store encoded messages to be written asynchronously. */
+        private final Queue<Pending> messages = new ConcurrentLinkedQueue<>();
+        
+        /** Latest unsent fill of each square, by {@link #cell(int[])}. */
+        private final Map<Integer, Pending> pendingFills = new ConcurrentHashMap<>();
         
-        /** Store messages to be written asynchronously. */
-        private BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        /** Nanoseconds to wait for more messages before flushing a batch, 0 for none. */
+        private volatile long lingerNanos;
 
-        /** Write the given message asynchronously on a new thread. */
-        public void write(final String msg) {
+        /** Write the given text message asynchronously on a new thread. */
+        public void write(MessageType type, final String msg) {
+        	byte[] bytes = (msg + "\n").getBytes(StandardCharsets.ISO_8859_1);
+        	pendingFills.clear();
+        	enqueue(new Pending(type, ByteBuffer.wrap(bytes), -1), msg);
+        }
+        
+        /** Write the given text message of the given type asynchronously. */
+        public void write(MessageType type, int[] args, String msg) {
+        	byte[] bytes = (msg + "\n").getBytes(StandardCharsets.ISO_8859_1);
+        	enqueue(pending(type, args, ByteBuffer.wrap(bytes)), msg);
+        }
+        
+        /** Write the given binary frame asynchronously on a new thread. */
+        public void write(MessageType type, int[] args, ByteBuffer frame) {
+        	enqueue(pending(type, args, frame), logger != null ? String.format("[%s, %d bytes]", type, frame.remaining()) : null);
+        }
+        
+        /**
+         * Wraps an encoded message, registering it as the latest fill of its square.
+         * Any message but a fill_ack ends the run of fills that may be coalesced.
+         */
+        private Pending pending(MessageType type, int[] args, ByteBuffer encoded) {
+        	if (type == MessageType.FILL_ACK)
+        		return new Pending(type, encoded, -1);
+        	if (type != MessageType.FILL) {
+        		pendingFills.clear();
+        		return new Pending(type, encoded, -1);
+        	}
+        	Pending fill = new Pending(type, encoded, cell(args));
+        	Pending superseded = pendingFills.put(fill.cell, fill);
+        	if (superseded != null)
+        		superseded.superseded = true;
+        	return fill;
+        }
+        
+        /** @return key of the square a fill targets. */
+        private int cell(int[] args) {
+        	return (args[0] << 16) | (args[1] & 0xFFFF);
+        }
+        
+        /** Queue an encoded message, starting the writer thread if needed. */
+        private void enqueue(Pending msg, String log) {
             if (writerThread == null) {
-                writerThread = new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        while (true) {
-                            try {
-                                String m = messages.take();
-                                out.println(m);
-                                out.flush();
-                            } catch (InterruptedException e) { return; }
-                        }
+                synchronized (this) {
+                    if (writerThread == null) {
+                        if (threads.isShutdown())
+                            return; // the connection is being torn down
+                        writerThread = threads.start("Writer_Thread", this::run);
                     }
-                });
-                writerThread.setName("Writer_Thread");
-                writerThread.start();
+                }
             }
-
-            synchronized (messages) {
-                try {
-                    messages.put(msg);
-                    if (logger != null)
-                        logger.format(" > %s\n", msg);
-                } catch (InterruptedException e) {}
+            stats.queued(1);
+            messages.add(msg);
+            LockSupport.unpark(writerThread);
+            if (logger != null)
+                logger.format(" > %s\n", log);
+        }
+        
+        /** Writes batches of queued messages until stopped or the stream fails. */
+        private void run() {
+            Thread self = Thread.currentThread();
+            try {
+                while (!self.isInterrupted()) {
+                    if (!drain()) {
+                        LockSupport.park(this);
+                        continue;
+                    }
+                    long linger = lingerNanos;
+                    if (linger > 0) {
+                        LockSupport.parkNanos(this, linger);
+                        drain();
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+            } finally {
+                int left = 0;
+                while (messages.poll() != null)
+                    left++;
+                stats.queued(-left);
             }
         }
         
+        /**
+         * Writes every queued message to the buffered stream, skipping superseded fills.
+         * @return true if anything was written, false if the queue was empty.
+         * @throws IOException if the stream fails.
+         */
+        private boolean drain() throws IOException {
+            NetworkStats stats = NetworkAdapter.this.stats;
+            boolean wrote = false;
+            Pending m;
+            while ((m = messages.poll()) != null) {
+                stats.queued(-1);
+                if (m.superseded) {
+                    stats.coalesced();
+                    continue;
+                }
+                if (m.cell >= 0)
+                    pendingFills.remove(m.cell, m);
+                out.write(m.bytes.array(), m.bytes.position(), m.bytes.remaining());
+                stats.sent(m.type, m.bytes.remaining());
+                wrote = true;
+            }
+            return wrote;
+        }
+        
         /** Stop this message writer. */
         public void stop() {
             if (writerThread != null)
                 writerThread.interrupt();
         }
     }
+    
+    /** An encoded message waiting in the {@link MessageWriter}. */
+    private static class Pending {
+    	/** Type of the message. */
+    	final MessageType type;
+    	/** Encoded message. */
+    	final ByteBuffer bytes;
+    	/** Square key if this is a fill, -1 otherwise. */
+    	final int cell;
+    	/** Whether a later fill to the same square replaced this one. */
+    	volatile boolean superseded;
+    	
+    	Pending(MessageType type, ByteBuffer bytes, int cell) {
+    		this.type = type;
+    		this.bytes = bytes;
+    		this.cell = cell;
+    	}
+    }
 
 	/** Called when a message is received. */
 	public interface MessageListener {
@@ -467,7 +1070,8 @@ public class NetworkAdapter {
 		 * @param x First argument
 		 * @param y Second argument
 		 * @param z Third argument
-		 * @param others Additional arguments
+		 * @param others Additional arguments, which a {@link NetworkAdapter} may reuse
+		 *   for a later message once this call returns; copy them to keep them.
 		 */
 		void messageReceived(MessageType type, int x, int y, int z, int[] others);
 	}
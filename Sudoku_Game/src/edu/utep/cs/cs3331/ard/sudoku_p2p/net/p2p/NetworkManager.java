@@ -4,52 +4,100 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.ThreadLocalRandom;
 
+import edu.utep.cs.cs3331.ard.sudoku.model.Board;
 import edu.utep.cs.cs3331.ard.sudoku_p2p.dialog.NetworkWindow;
 
 /**
  * Provides various socket creating and handling.
+ * <p>
+ * The host gives a joining peer that asks for one a session token. When the
+ * connection is lost rather than closed, the peer reconnects to the same address a
+ * few times with the token and its sync point: the host then answers with the board
+ * changes missed, both sides keep ordering fills as before, and the peer replays the
+ * fills that were not acknowledged.
  * 
  * @author Anthony DesArmier
  * @author Trevor McCarthy
- * @version 1.0
+ * @version 1.6
  */
 public class NetworkManager {
 	
+	/** Milliseconds {@link #shutDown()} waits for the connection threads. */
+	private static final long SHUTDOWN_MILLIS = 2000;
+	/** Attempts to reconnect after losing the connection. */
+	private static final int RESUME_ATTEMPTS = 5;
+	/** Milliseconds before the first reconnection attempt, doubled after each one. */
+	private static final long RESUME_BACKOFF_MILLIS = 250;
+	
 	/** Network adapter to handle logic. */
-	public NetworkAdapter network;
+	public volatile NetworkAdapter network;
 	/** Attached NetworkWindow. */
 	private NetworkWindow netWin;
-	/** Server thread. */
-	private Thread server;
-	/** Client thread. */
-	private Thread client;
+	/** Owner of the server, client, reader and writer threads. */
+	private final ConnectionThreads threads;
 	/** Server thread. */
 	private ServerSocket serverSocket;
 	/** Port number. */
 	private int port;
 	
-	/** Last fill message. */
-	private int[] lastFill;
+	/** Fills sent to the current peer and not acknowledged yet. */
+	private volatile FillWindow fills = new FillWindow(FillWindow.DEFAULT_SIZE);
+	/** Order of the fills made by both peers of the current connection. */
+	private volatile MoveOrder order = new MoveOrder();
+	/** Whether this side accepted the current connection and owns the board. */
+	private volatile boolean host;
+	/** Whether the host validates the peer's fills and answers with the resolved value. */
+	private volatile boolean authoritative = Boolean.getBoolean("sudoku.authoritative");
 	/** Server thread counter. */
 	private int serverNum;
 	/** Connection status of this networkManager. */
-	private boolean connected;
+	private volatile boolean connected;
+	/** Local board last synced from a peer, null if none. */
+	private Board syncedBoard;
+	/** Id of the peer board {@link #syncedBoard} was synced with. */
+	private int syncedId;
+	/** Sequence of the peer board {@link #syncedBoard} is up to date with. */
+	private int syncedSequence;
+	/** Token of the current session, issued by the host, 0 for none. */
+	private volatile int session;
 	
 	/**
-	 * Creates a new NetworkManager
+	 * Creates a new NetworkManager, running its connections on virtual threads
+	 * if the system property sudoku.virtualThreads is true.
 	 * @param netWin The attached NetworkWindow to communicate with.
 	 */
 	public NetworkManager (NetworkWindow netWin) {
+		this(netWin, Boolean.getBoolean("sudoku.virtualThreads"));
+	}
+	
+	/**
+	 * Creates a new NetworkManager
+	 * @param netWin The attached NetworkWindow to communicate with.
+	 * @param virtualThreads true to run the server, reader and writer loops on virtual threads.
+	 * @see ConnectionThreads
+	 */
+	public NetworkManager (NetworkWindow netWin, boolean virtualThreads) {
 		this.netWin = netWin;
-		lastFill = new int[3];
+		threads = new ConnectionThreads(virtualThreads);
 		connected = true;
 	}
 
 	/** Starts a new server socket on a new thread. */
 	public void startServer() {
-		port = netWin.port;
-		server = new Thread(() -> {
+		startServer(netWin.port);
+	}
+	
+	/**
+	 * Starts a new server socket on a new thread, on the first free port from a given one.
+	 * @param from first port to try.
+	 */
+	private void startServer(int from) {
+		if(threads.isShutdown())
+			return;
+		port = from;
+		threads.start("Server_Thread-"+serverNum++, () -> {
 			boolean connecting = true;
 			while (connecting) {
 				try {
@@ -74,8 +122,6 @@ public class NetworkManager {
 				
 			}
 		});
-		server.setName("Server_Thread-"+serverNum++);
-		server.start();
 	}
 	
 	/**
@@ -83,12 +129,39 @@ public class NetworkManager {
 	 * @param socket the socket to pair.
 	 * @param client true the socket is originating as a client or false if a server.
 	 */
-	private synchronized void pairSocket(Socket socket, boolean client) {
-		network = new NetworkAdapter(socket);
-		network.setMessageListener(new MessageHandler(netWin, network, this));
-		if(client)
-			network.writeJoin();
-		network.receiveMessages(); // loop till disconnected
+	private void pairSocket(Socket socket, boolean client) {
+		pairSocket(socket, client, false);
+	}
+	
+	/**
+	 * Pairs a socket with a MessageHandler and begins listening for messages.
+	 * The host starts a new session or resumes one once the peer joins.
+	 * @param socket the socket to pair.
+	 * @param client true the socket is originating as a client or false if a server.
+	 * @param resume true to resume the current session, keeping the fills not acknowledged yet.
+	 */
+	private void pairSocket(Socket socket, boolean client, boolean resume) {
+		NetworkAdapter paired;
+		synchronized (this) {
+			paired = new NetworkAdapter(socket, null, threads);
+			paired.setMessageListener(new MessageHandler(netWin, paired, this));
+			if(client && !resume) {
+				fills = new FillWindow(FillWindow.DEFAULT_SIZE);
+				order = new MoveOrder();
+				session = 0;
+			}
+			host = !client;
+			network = paired;
+		}
+		if(client) {
+			synchronized (this) {
+				if(syncedBoard != null && syncedBoard == netWin.getParent().getBoard())
+					paired.writeJoin(syncedId, syncedSequence, session); // ask for the changes missed since
+				else
+					paired.writeJoin(-1, -1, 0);
+			}
+		}
+		paired.receiveMessages(); // loop till disconnected, outside the lock so a virtual thread is not pinned
 	}
 	
 	/**
@@ -107,11 +180,7 @@ public class NetworkManager {
 			netWin.logMessage(String.format("Failed to connect to %s:%d", netWin.getPeerIP(), netWin.getPeerPort()));
 			return false;
 		}
-		client = new Thread(() -> {
-			pairSocket(socket, true);
-		});
-		client.setName("Client_Thread");
-		client.start();
+		threads.start("Client_Thread", () -> pairSocket(socket, true));
 		shutDownServer(); // Terminate the server
 		connected = true;
 		netWin.toggleConnection();
@@ -123,6 +192,8 @@ public class NetworkManager {
 	 * @param hard true if this is a hard disconnect with no intention of starting a new connection.
 	 */
 	public boolean disconnect(boolean hard) {
+		if(!host)
+			session = 0; // the host keeps its session for the peer to resume
 		if(network != null) {
 			connected = false;
 			netWin.logMessage(
@@ -140,10 +211,96 @@ public class NetworkManager {
 			netWin.toggleConnection();
 		}
 		if(!hard)
-			startServer(); // Start a new server
+			startServer(port); // Start a new server where the peer last found it
+		return true;
+	}
+	
+	/**
+	 * Called by the host when a peer joins: resumes the current session if the peer
+	 * joins with its token, otherwise starts a new one and gives the peer its token
+	 * if it asked for one.
+	 * @param paired adapter the peer joined through.
+	 * @param token session token the peer joined with, or -1 if none.
+	 * @return true if the session was resumed, false if a new one started.
+	 */
+	boolean joined(NetworkAdapter paired, int token) {
+		FillWindow previous = fills;
+		synchronized (previous) {
+			fills = new FillWindow(FillWindow.DEFAULT_SIZE); // our fills reach the peer in the join answer
+		}
+		if(token > 0 && token == session)
+			return true;
+		order = new MoveOrder();
+		session = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+		if(paired.isPeerResume())
+			paired.writeResume(session);
+		return false;
+	}
+	
+	/**
+	 * Setter for {@link #session}, called by the peer when the host issues a token.
+	 */
+	void setSession(int session) {
+		this.session = session;
+	}
+	
+	/**
+	 * Called when the connection was lost rather than closed. A peer holding a session
+	 * token reconnects in the background, replaying its unacknowledged fills once resumed,
+	 * and gives up with {@link #disconnect(boolean)} after {@link #RESUME_ATTEMPTS} attempts.
+	 * @param lost adapter whose connection was lost.
+	 * @return true if reconnecting, false if the caller should disconnect.
+	 */
+	boolean resume(NetworkAdapter lost) {
+		if(host || session == 0 || lost != network || threads.isShutdown())
+			return false;
+		lost.close();
+		try {
+			lost.socket().close();
+		} catch (IOException e) {}
+		threads.start("Client_Thread", () -> {
+			for(int attempt = 0; attempt < RESUME_ATTEMPTS; attempt++) {
+				try {
+					Thread.sleep(RESUME_BACKOFF_MILLIS << attempt);
+				} catch (InterruptedException e) {
+					return;
+				}
+				if(!connected || network != lost)
+					return; // disconnected meanwhile
+				Socket socket = new Socket();
+				try {
+					socket.connect(new InetSocketAddress(netWin.getPeerIP(), netWin.getPeerPort()), 3000);
+				} catch (Exception exc) {
+					continue;
+				}
+				netWin.logMessage(String.format("Reconnected to %s:%d", netWin.getPeerIP(), netWin.getPeerPort()));
+				pairSocket(socket, true, true);
+				return;
+			}
+			netWin.logMessage("Failed to resume the session.");
+			disconnect(false);
+		});
 		return true;
 	}
 	
+	/**
+	 * Replays the fills not acknowledged before the connection was lost: applies them
+	 * again over the changes just received from the host, and sends the outstanding ones
+	 * again. Backlogged fills follow as acks arrive.
+	 * @param board local board, up to date with the host.
+	 */
+	void replayFills(Board board) {
+		NetworkAdapter network = this.network;
+		FillWindow fills = this.fills;
+		synchronized (fills) {
+			for(int[] fill : fills.unacknowledged())
+				board.update(fill, false, true);
+			if(network != null)
+				for(int[] fill : fills.outstanding())
+					send(network, fill);
+		}
+	}
+	
 	/** Shuts down an open ServerSocket. */
 	private boolean shutDownServer() {
 		if(serverSocket != null) { // Shutdown the server if it is running
@@ -156,9 +313,22 @@ public class NetworkManager {
 		return true;
 	}
 	
-	/** Properly shuts down this NetWorkManager. */
+	/**
+	 * Properly shuts down this NetWorkManager: closes the sockets, then stops and
+	 * waits for every connection thread. Threads still running after
+	 * {@link #SHUTDOWN_MILLIS} are abandoned.
+	 */
 	public boolean shutDown() {
-		return disconnect(true) && shutDownServer();
+		boolean closed = disconnect(true) && shutDownServer();
+		threads.shutdown(SHUTDOWN_MILLIS);
+		return closed;
+	}
+	
+	/**
+	 * @return {@link #threads}
+	 */
+	public ConnectionThreads getThreads() {
+		return threads;
 	}
 	
 	/** Write a solve message if a network exists. */
@@ -168,37 +338,112 @@ public class NetworkManager {
 	}
 
 	/**
-     * Write a fill message if a network exists. 
+     * Write a fill message if a network exists. The fill is numbered and sent at once
+     * if the window of unacknowledged fills has room, or held back until acks arrive.
      * @param x 0-based column index of the square.
      * @param y 0-based row index of the square.
      * @param number filled-in number.
+     * @see FillWindow
      */
 	public void writeFill(int x, int y, int number) {
-		if(network != null) {
-			network.writeFill(x, y, number);
-			setLastFill(x, y, number);
+		NetworkAdapter network = this.network;
+		if(network == null)
+			return;
+		FillWindow fills = this.fills;
+		synchronized (fills) { // keep the numbering and the sending order the same
+			int[] fill = fills.offer(x, y, number);
+			if(fill != null)
+				send(network, fill);
 		}
 	}
 	
 	/**
-	 * Checks if this fill_ack message matches the last sent fill message.
+	 * Stamps and sends a fill of the window.
+	 * @param network adapter to send with.
+	 * @param fill {seq, x, y, v} as numbered by the {@link FillWindow}.
+	 */
+	private void send(NetworkAdapter network, int[] fill) {
+		int time = order.local(fill[1], fill[2], host);
+		network.writeFill(fill[1], fill[2], fill[3], fill[0], time);
+	}
+	
+	/**
+	 * Checks a fill_ack message against the outstanding fills, retiring the acknowledged
+	 * ones and sending any fills held back meanwhile.
 	 * @param x 0-based column index of the square
      * @param y 0-based row index of the square
      * @param number Filled-in number
-	 * @return true if the messages match, false otherwise.
+     * @param seq sequence number carried by the ack, or -1 if the peer does not send any.
+	 * @return true if the ack matches a sent fill, false otherwise.
+	 */
+	boolean acknowledgeFill(int x, int y, int number, int seq) {
+		NetworkAdapter network = this.network;
+		FillWindow fills = this.fills;
+		synchronized (fills) {
+			if(!(seq > 0 ? fills.acknowledge(seq) : fills.acknowledge(x, y, number)))
+				return false;
+			for(int[] fill : fills.release())
+				if(network != null)
+					send(network, fill);
+		}
+		return true;
+	}
+	
+	/**
+	 * Determines whether a square was filled again after a given fill, so that its ack is stale.
+	 * @param x 0-based column index of the square
+     * @param y 0-based row index of the square
+	 * @param seq sequence number of the acknowledged fill.
+	 * @return true if a later fill of the square is pending, false otherwise.
+	 */
+	boolean hasNewerFill(int x, int y, int seq) {
+		return fills.hasNewerFill(x, y, seq);
+	}
+	
+	/**
+	 * Orders a fill received from the peer against the last write of its square.
+	 * @param x 0-based column index of the square
+     * @param y 0-based row index of the square
+	 * @param time Lamport clock sent with the fill, or -1 if none.
+	 * @return true if the fill should be applied, false if a concurrent write wins over it.
+	 * @see MoveOrder
+	 */
+	boolean orderRemoteFill(int x, int y, int time) {
+		return order.remote(x, y, time, !host);
+	}
+	
+	/** Drops the fills held back for a board that is being replaced. */
+	void discardPendingFills() {
+		fills.discardBacklog();
+		order.reset();
+	}
+	
+	/**
+	 * @return {@link #host}
+	 */
+	boolean isHost() {
+		return host;
+	}
+	
+	/**
+	 * @return true if this side is the host and validates the peer's fills, false otherwise.
+	 */
+	boolean isAuthority() {
+		return host && authoritative;
+	}
+	
+	/**
+	 * @return {@link #authoritative}
 	 */
-	boolean checkLastFill(int x, int y, int number) {
-		return lastFill[0] == x && lastFill[1] == y && lastFill[2] == number;
+	public boolean isAuthoritative() {
+		return authoritative;
 	}
 	
-	/** 
-	 * Stores the lastFilled message to verify in a fill-ack message.
-	 * @see #checkLastFill(int, int, int)
+	/**
+	 * Setter for {@link #authoritative}. Only matters on the side that accepts the connection.
 	 */
-	private void setLastFill(int x, int y, int number) {
-		lastFill[0] = x;
-		lastFill[1] = y;
-		lastFill[2] = number;
+	public void setAuthoritative(boolean authoritative) {
+		this.authoritative = authoritative;
 	}
 	
     /** Write a quit message if a network exists. */
@@ -209,9 +454,43 @@ public class NetworkManager {
 
     /** Write a new message if a network exists. */
 	public void writeNew(int size, int[] arr) {
+		discardPendingFills();
 		if(network != null)
 			network.writeNew(size, arr);
 	}
+	
+	/** Write a new message for a board if a network exists, compactly if the peer supports sync. */
+	public void writeNew(Board board) {
+		NetworkAdapter network = this.network;
+		discardPendingFills();
+		if(network == null)
+			return;
+		if(network.isPeerSync())
+			network.writeSync(BoardSync.NEW, board.getSize(), BoardSync.snapshot(board));
+		else
+			network.writeNew(board.getSize(), board.toArr());
+	}
+	
+	/**
+	 * Remembers the peer board state a local board was synced with, to be
+	 * resumed with a delta on the next connection.
+	 * @param board local board holding the synced state.
+	 * @param id id of the peer board.
+	 * @param sequence sequence of the peer board.
+	 */
+	synchronized void setSyncPoint(Board board, int id, int sequence) {
+		syncedBoard = board;
+		syncedId = id;
+		syncedSequence = sequence;
+	}
+	
+	/**
+	 * @param board local board.
+	 * @return true if the board is the one last synced from a peer, false otherwise.
+	 */
+	synchronized boolean isSynced(Board board) {
+		return syncedBoard != null && syncedBoard == board;
+	}
 
 	/**
 	 * @return {@link connected}
@@ -0,0 +1,465 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageType;
+
+/**
+ * Counters and latency histograms of the peer to peer layer.
+ * <p>
+ * For every {@link MessageType}, the stats count messages and bytes in each direction
+ * and record how long parsing took, from the end of a read to the listener call, and
+ * how long the listener itself took. Fill round trips are measured from the moment a
+ * numbered fill is written until its ack arrives, and the outbound queue depth is
+ * tracked as messages are queued and written, and so is the time received messages
+ * wait for the event dispatch thread. Together they tell whether lag comes from the
+ * network, the parser, the listener or the event dispatch thread.
+ * <p>
+ * Recording is lock free and cheap enough to stay on. The stats can be read as a
+ * {@link Snapshot}, pushed periodically with {@link #report(long, Consumer)} or browsed
+ * over JMX once {@link #register(String) registered}. Adapters record into
+ * {@link #getDefault()} unless given their own stats.
+ *
+ * @author Anthony DesArmier
+ * @version 1.1
+ */
+public class NetworkStats implements NetworkStatsMXBean {
+
+	/** JMX domain of registered stats. */
+	private static final String DOMAIN = "edu.utep.cs.cs3331.ard.sudoku";
+	/** Stats shared by the adapters created without their own. */
+	private static volatile NetworkStats defaultStats;
+	/** Thread running the periodic reports. */
+	private static ScheduledExecutorService reporter;
+
+	/** Message types, indexed by ordinal. */
+	private static final MessageType[] TYPES = MessageType.values();
+
+	private final AtomicLongArray messagesIn = new AtomicLongArray(TYPES.length);
+	private final AtomicLongArray messagesOut = new AtomicLongArray(TYPES.length);
+	private final AtomicLongArray bytesIn = new AtomicLongArray(TYPES.length);
+	private final AtomicLongArray bytesOut = new AtomicLongArray(TYPES.length);
+	/** Parse time of every message type, in nanoseconds. */
+	private final Histogram[] parse = new Histogram[TYPES.length];
+	/** Listener time of every message type, in nanoseconds. */
+	private final Histogram[] handle = new Histogram[TYPES.length];
+	/** Fill to fill_ack round trips, in nanoseconds. */
+	private final Histogram roundTrip = new Histogram();
+	/** Time from receiving a message to handling it on the event dispatch thread, in nanoseconds. */
+	private final Histogram dispatch = new Histogram();
+	/** Fills dropped by coalescing. */
+	private final LongAdder coalesced = new LongAdder();
+	/** Messages queued and not written yet, over every adapter. */
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	/** Largest {@link #queueDepth} seen. */
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+	/** Creates empty stats. */
+	public NetworkStats() {
+		for (int i = 0; i < TYPES.length; i++) {
+			parse[i] = new Histogram();
+			handle[i] = new Histogram();
+		}
+	}
+
+	/**
+	 * Returns the stats shared by adapters, registering them over JMX on first use.
+	 * @return default stats.
+	 */
+	public static NetworkStats getDefault() {
+		NetworkStats stats = defaultStats;
+		if (stats == null) {
+			synchronized (NetworkStats.class) {
+				if (defaultStats == null) {
+					defaultStats = new NetworkStats();
+					defaultStats.register("default");
+				}
+				stats = defaultStats;
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Publishes these stats on the platform MBean server.
+	 * @param name name of the stats, unique within the JVM.
+	 * @return true if registered, false if JMX refused it.
+	 */
+	public boolean register(String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName(DOMAIN + ":type=NetworkStats,name=" + ObjectName.quote(name)));
+			return true;
+		} catch (JMException | SecurityException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Records a message received.
+	 * @param type type of the message.
+	 * @param bytes size of the message on the wire.
+	 * @param parseNanos time from the end of the read to the listener call.
+	 */
+	void received(MessageType type, int bytes, long parseNanos) {
+		messagesIn.incrementAndGet(type.ordinal());
+		bytesIn.addAndGet(type.ordinal(), bytes);
+		parse[type.ordinal()].record(parseNanos);
+	}
+
+	/**
+	 * Records the time the listener took with a message.
+	 * @param type type of the message.
+	 * @param nanos time spent in the listener.
+	 */
+	void handled(MessageType type, long nanos) {
+		handle[type.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Records a message written to the socket.
+	 * @param type type of the message.
+	 * @param bytes size of the message on the wire.
+	 */
+	void sent(MessageType type, int bytes) {
+		messagesOut.incrementAndGet(type.ordinal());
+		bytesOut.addAndGet(type.ordinal(), bytes);
+	}
+
+	/** Records a fill dropped because a later fill of its square replaced it. */
+	void coalesced() {
+		coalesced.increment();
+	}
+
+	/**
+	 * Records a change of the outbound queue depth.
+	 * @param delta number of messages queued, negative when written.
+	 */
+	void queued(int delta) {
+		int depth = queueDepth.addAndGet(delta);
+		int max;
+		while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {}
+	}
+
+	/**
+	 * Records how long a received message waited for the event dispatch thread.
+	 * @param nanos time from receiving the message to handling it.
+	 */
+	void dispatched(long nanos) {
+		dispatch.record(nanos);
+	}
+
+	/**
+	 * Records a fill round trip.
+	 * @param nanos time from writing the fill to receiving its ack.
+	 */
+	void roundTrip(long nanos) {
+		roundTrip.record(nanos);
+	}
+
+	/**
+	 * @return current values of every counter and histogram.
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Hands a snapshot to a consumer at a fixed rate, on a shared daemon thread.
+	 * @param periodMillis milliseconds between snapshots.
+	 * @param consumer consumer of the snapshots, for example a logger.
+	 * @return handle to cancel the reports.
+	 */
+	public ScheduledFuture<?> report(long periodMillis, Consumer<Snapshot> consumer) {
+		ScheduledExecutorService executor;
+		synchronized (NetworkStats.class) {
+			if (reporter == null)
+				reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+					Thread thread = new Thread(r, "Network_Stats");
+					thread.setDaemon(true);
+					return thread;
+				});
+			executor = reporter;
+		}
+		return executor.scheduleAtFixedRate(() -> consumer.accept(snapshot()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public Map<String, Long> getMessagesIn() {
+		return byType(messagesIn);
+	}
+
+	@Override
+	public Map<String, Long> getMessagesOut() {
+		return byType(messagesOut);
+	}
+
+	@Override
+	public Map<String, Long> getBytesIn() {
+		return byType(bytesIn);
+	}
+
+	@Override
+	public Map<String, Long> getBytesOut() {
+		return byType(bytesOut);
+	}
+
+	@Override
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	@Override
+	public Map<String, Double> getParseMicrosP99() {
+		return byType(parse, h -> h.percentile(0.99) / 1e3);
+	}
+
+	@Override
+	public Map<String, Double> getHandleMicrosP99() {
+		return byType(handle, h -> h.percentile(0.99) / 1e3);
+	}
+
+	@Override
+	public long getRoundTripCount() {
+		return roundTrip.count();
+	}
+
+	@Override
+	public double getRoundTripMillisMean() {
+		return roundTrip.mean() / 1e6;
+	}
+
+	@Override
+	public double getRoundTripMillisP50() {
+		return roundTrip.percentile(0.5) / 1e6;
+	}
+
+	@Override
+	public double getRoundTripMillisP99() {
+		return roundTrip.percentile(0.99) / 1e6;
+	}
+
+	@Override
+	public double getDispatchMillisP99() {
+		return dispatch.percentile(0.99) / 1e6;
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	@Override
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < TYPES.length; i++) {
+			messagesIn.set(i, 0);
+			messagesOut.set(i, 0);
+			bytesIn.set(i, 0);
+			bytesOut.set(i, 0);
+			parse[i].reset();
+			handle[i].reset();
+		}
+		roundTrip.reset();
+		dispatch.reset();
+		coalesced.reset();
+		maxQueueDepth.set(queueDepth.get());
+	}
+
+	/** @return non-zero counters by type name. */
+	private static Map<String, Long> byType(AtomicLongArray counters) {
+		Map<String, Long> map = new LinkedHashMap<>();
+		for (int i = 0; i < TYPES.length; i++)
+			if (counters.get(i) != 0)
+				map.put(TYPES[i].name(), counters.get(i));
+		return Collections.unmodifiableMap(map);
+	}
+
+	/** @return statistic of the non-empty histograms by type name. */
+	private static Map<String, Double> byType(Histogram[] histograms, ToDoubleFunction<Histogram> statistic) {
+		Map<String, Double> map = new LinkedHashMap<>();
+		for (int i = 0; i < TYPES.length; i++)
+			if (histograms[i].count() != 0)
+				map.put(TYPES[i].name(), statistic.applyAsDouble(histograms[i]));
+		return Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * Lock free histogram of non-negative longs with four buckets per power of two,
+	 * so that percentiles are within about 12% of the recorded values.
+	 */
+	static final class Histogram {
+
+		/** Number of buckets, enough for any positive long. */
+		private static final int BUCKETS = 256;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+
+		/**
+		 * Records a value.
+		 * @param value value to record, negative values counting as 0.
+		 */
+		void record(long value) {
+			value = Math.max(0, value);
+			buckets.incrementAndGet(bucket(value));
+			count.increment();
+			sum.add(value);
+		}
+
+		/** @return number of values recorded. */
+		long count() {
+			return count.sum();
+		}
+
+		/** @return mean of the values recorded, 0 if none. */
+		double mean() {
+			long n = count.sum();
+			return n == 0 ? 0 : (double) sum.sum() / n;
+		}
+
+		/**
+		 * @param p fraction of the values, between 0 and 1.
+		 * @return value below which that fraction of the recorded values lie, 0 if none.
+		 */
+		double percentile(double p) {
+			long n = 0;
+			long[] counts = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++)
+				n += counts[i] = buckets.get(i);
+			if (n == 0)
+				return 0;
+			long rank = (long) Math.ceil(p * n);
+			for (int i = 0; i < BUCKETS; i++) {
+				rank -= counts[i];
+				if (rank <= 0)
+					return middle(i);
+			}
+			return middle(BUCKETS - 1);
+		}
+
+		/** Clears the histogram. */
+		void reset() {
+			for (int i = 0; i < BUCKETS; i++)
+				buckets.set(i, 0);
+			count.reset();
+			sum.reset();
+		}
+
+		/** @return bucket of a value: values below 4 have their own, then 4 per power of two. */
+		private static int bucket(long value) {
+			if (value < 4)
+				return (int) value;
+			int exp = 63 - Long.numberOfLeadingZeros(value);
+			return (exp - 1) * 4 + (int) ((value >>> (exp - 2)) & 3);
+		}
+
+		/** @return middle of the values of a bucket. */
+		private static double middle(int bucket) {
+			if (bucket < 4)
+				return bucket;
+			int exp = bucket / 4 + 1;
+			long lower = (4L + bucket % 4) << (exp - 2);
+			return lower + (1L << (exp - 2)) / 2.0;
+		}
+	}
+
+	/** Values of a {@link NetworkStats} at one moment. */
+	public static final class Snapshot {
+
+		/** Time of the snapshot, in milliseconds since the epoch. */
+		public final long time;
+		/** Messages received by type name. */
+		public final Map<String, Long> messagesIn;
+		/** Messages sent by type name. */
+		public final Map<String, Long> messagesOut;
+		/** Bytes received by type name. */
+		public final Map<String, Long> bytesIn;
+		/** Bytes sent by type name. */
+		public final Map<String, Long> bytesOut;
+		/** Mean parse time by type name, in microseconds. */
+		public final Map<String, Double> parseMicrosMean;
+		/** 99th percentile parse time by type name, in microseconds. */
+		public final Map<String, Double> parseMicrosP99;
+		/** Mean listener time by type name, in microseconds. */
+		public final Map<String, Double> handleMicrosMean;
+		/** 99th percentile listener time by type name, in microseconds. */
+		public final Map<String, Double> handleMicrosP99;
+		/** Fills dropped by coalescing. */
+		public final long coalesced;
+		/** Number of fill round trips measured. */
+		public final long roundTripCount;
+		/** Mean fill round trip, in milliseconds. */
+		public final double roundTripMillisMean;
+		/** Median fill round trip, in milliseconds. */
+		public final double roundTripMillisP50;
+		/** 99th percentile fill round trip, in milliseconds. */
+		public final double roundTripMillisP99;
+		/** 99th percentile wait of received messages for the event dispatch thread, in milliseconds. */
+		public final double dispatchMillisP99;
+		/** Messages waiting to be written. */
+		public final int queueDepth;
+		/** Largest queue depth seen. */
+		public final int maxQueueDepth;
+
+		private Snapshot(NetworkStats stats) {
+			time = System.currentTimeMillis();
+			messagesIn = stats.getMessagesIn();
+			messagesOut = stats.getMessagesOut();
+			bytesIn = stats.getBytesIn();
+			bytesOut = stats.getBytesOut();
+			parseMicrosMean = byType(stats.parse, h -> h.mean() / 1e3);
+			parseMicrosP99 = stats.getParseMicrosP99();
+			handleMicrosMean = byType(stats.handle, h -> h.mean() / 1e3);
+			handleMicrosP99 = stats.getHandleMicrosP99();
+			coalesced = stats.getCoalesced();
+			roundTripCount = stats.getRoundTripCount();
+			roundTripMillisMean = stats.getRoundTripMillisMean();
+			roundTripMillisP50 = stats.getRoundTripMillisP50();
+			roundTripMillisP99 = stats.getRoundTripMillisP99();
+			dispatchMillisP99 = stats.getDispatchMillisP99();
+			queueDepth = stats.getQueueDepth();
+			maxQueueDepth = stats.getMaxQueueDepth();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append(String.format("%-9s %8s %8s %10s %10s %10s %10s%n",
+					"type", "in", "out", "bytes in", "bytes out", "parse p99", "handle p99"));
+			for (MessageType type : TYPES) {
+				String name = type.name();
+				if (!messagesIn.containsKey(name) && !messagesOut.containsKey(name))
+					continue;
+				builder.append(String.format("%-9s %8d %8d %10d %10d %8.1fus %8.1fus%n", name,
+						messagesIn.getOrDefault(name, 0L), messagesOut.getOrDefault(name, 0L),
+						bytesIn.getOrDefault(name, 0L), bytesOut.getOrDefault(name, 0L),
+						parseMicrosP99.getOrDefault(name, 0.0), handleMicrosP99.getOrDefault(name, 0.0)));
+			}
+			builder.append(String.format("fill rtt n=%d mean=%.2fms p50=%.2fms p99=%.2fms, dispatch p99=%.2fms, coalesced=%d, queue=%d (max %d)",
+					roundTripCount, roundTripMillisMean, roundTripMillisP50, roundTripMillisP99,
+					dispatchMillisP99, coalesced, queueDepth, maxQueueDepth));
+			return builder.toString();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.util.Map;
+
+/**
+ * Management view of a {@link NetworkStats}, as published over JMX.
+ * Maps are keyed by message type name.
+ *
+ * @author Anthony DesArmier
+ * @version 1.1
+ */
+public interface NetworkStatsMXBean {
+
+	/** @return messages received. */
+	Map<String, Long> getMessagesIn();
+
+	/** @return messages written to the socket. */
+	Map<String, Long> getMessagesOut();
+
+	/** @return bytes received, framing included. */
+	Map<String, Long> getBytesIn();
+
+	/** @return bytes written to the socket, framing included. */
+	Map<String, Long> getBytesOut();
+
+	/** @return fills dropped before sending because a later fill replaced them. */
+	long getCoalesced();
+
+	/** @return 99th percentile time from a line or frame read to its listener call, in microseconds. */
+	Map<String, Double> getParseMicrosP99();
+
+	/** @return 99th percentile time spent in the message listener, in microseconds. */
+	Map<String, Double> getHandleMicrosP99();
+
+	/** @return number of fills whose ack was received. */
+	long getRoundTripCount();
+
+	/** @return mean fill to fill_ack round trip, in milliseconds. */
+	double getRoundTripMillisMean();
+
+	/** @return median fill to fill_ack round trip, in milliseconds. */
+	double getRoundTripMillisP50();
+
+	/** @return 99th percentile fill to fill_ack round trip, in milliseconds. */
+	double getRoundTripMillisP99();
+
+	/** @return 99th percentile wait of received messages for the event dispatch thread, in milliseconds. */
+	double getDispatchMillisP99();
+
+	/** @return messages waiting in the outbound queues. */
+	int getQueueDepth();
+
+	/** @return largest outbound queue depth seen. */
+	int getMaxQueueDepth();
+
+	/** Clears every counter and histogram. */
+	void reset();
+}
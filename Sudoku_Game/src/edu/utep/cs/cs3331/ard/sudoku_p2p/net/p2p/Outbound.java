@@ -0,0 +1,65 @@
+package edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p;
+
+import java.nio.ByteBuffer;
+
+import edu.utep.cs.cs3331.ard.sudoku_p2p.net.p2p.NetworkAdapter.MessageType;
+
+/**
+ * A message on its way to one or more players.
+ * <p>
+ * The message is serialized at most once per framing, the first time a recipient
+ * speaking that framing needs it, and every recipient then writes from its own
+ * duplicate of the same bytes. Broadcasting to a room therefore costs one encoding
+ * and one small buffer view per player, however large the room is.
+ *
+ * @author Anthony DesArmier
+ * @version 1.0
+ */
+final class Outbound {
+
+	/** Type of the message. */
+	private final MessageType type;
+	/** Fixed arguments of the message. */
+	private final int[] args;
+	/** Variable argument list, or null for none. */
+	private final int[] list;
+	/** Text encoding, null until needed. */
+	private ByteBuffer text;
+	/** Binary encoding, null until needed. */
+	private ByteBuffer binary;
+
+	/**
+	 * Creates a message.
+	 * @param type {@link #type}
+	 * @param args {@link #args}
+	 * @param list {@link #list}
+	 */
+	Outbound(MessageType type, int[] args, int[] list) {
+		this.type = type;
+		this.args = args;
+		this.list = list;
+	}
+
+	/**
+	 * @return {@link #type}
+	 */
+	MessageType type() {
+		return type;
+	}
+
+	/**
+	 * Returns a private view of the encoded message, ready to be written.
+	 * @param binaryFraming true for a binary frame, false for a text line.
+	 * @return buffer sharing the encoded bytes with every other recipient.
+	 */
+	synchronized ByteBuffer encoded(boolean binaryFraming) {
+		if (binaryFraming) {
+			if (binary == null)
+				binary = NetworkAdapter.encode(type, args, list, true);
+			return binary.duplicate();
+		}
+		if (text == null)
+			text = NetworkAdapter.encode(type, args, list, false);
+		return text.duplicate();
+	}
+}